@@ -0,0 +1,56 @@
+package site.hnfy258.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.NoBenchmarksException;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * 按线程数矩阵运行全部基准，每种线程配置输出一个 JSON 结果文件，便于不同实现之间对比。
+ * 用法：java -cp target/benchmarks.jar site.hnfy258.bench.BenchmarkRunner [输出目录] [基准名正则]
+ * -Dbench.threads=1,4,8 覆盖对称基准的线程数，-Dbench.groups=1:1,5:10 覆盖生产/消费、读/写线程比例。
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        File outputDir = new File(args.length > 0 ? args[0] : "target/jmh-results");
+        String include = args.length > 1 ? args[1] : ".*";
+        outputDir.mkdirs();
+
+        // 对称基准：所有线程执行同一个方法
+        for (String threads : System.getProperty("bench.threads", "1,4,8").split(",")) {
+            int count = Integer.parseInt(threads.trim());
+            run(new OptionsBuilder()
+                    .include("(" + include + ")")
+                    .exclude("EventBufferQueueBenchmark|DynamicProcessingConfigBenchmark.readWrite")
+                    .threads(count), new File(outputDir, "threads-" + count + ".json"));
+        }
+
+        // 分组基准：生产者/消费者（或读者/写者）的线程比例
+        for (String groups : System.getProperty("bench.groups", "1:1,5:10,9:1").split(",")) {
+            String[] parts = groups.trim().split(":");
+            int first = Integer.parseInt(parts[0]);
+            int second = Integer.parseInt(parts[1]);
+            run(new OptionsBuilder()
+                    .include("(EventBufferQueueBenchmark|DynamicProcessingConfigBenchmark.readWrite).*(" + include + ")")
+                    .threadGroups(first, second), new File(outputDir, "groups-" + first + "-" + second + ".json"));
+        }
+    }
+
+    private static void run(ChainedOptionsBuilder options, File resultFile) throws RunnerException {
+        System.out.println("Running benchmarks, results -> " + resultFile);
+        try {
+            new Runner(options
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultFile.getPath())
+                    .build()).run();
+        } catch (NoBenchmarksException e) {
+            // 正则只筛中了另一类基准，这一轮没有可跑的
+            System.out.println("No benchmarks matched for " + resultFile.getName() + ", skipped.");
+        }
+    }
+}
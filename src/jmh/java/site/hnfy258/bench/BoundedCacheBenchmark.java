@@ -0,0 +1,66 @@
+package site.hnfy258.bench;
+
+import org.openjdk.jmh.annotations.*;
+import site.hnfy258.demo4.BoundedCache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 偏斜访问（约 90% 命中）下先查后写，对比无界 ConcurrentHashMap；-Dbench.threads=10 对应 10 个消费者
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoundedCacheBenchmark {
+    private static final int KEY_SPACE = 100_000;
+
+    @Param({"50000"})
+    public int maximumSize;
+
+    private BoundedCache<Integer, Integer> cache;
+    private ConcurrentHashMap<Integer, Integer> map;
+    private Integer[] keys;
+
+    @Setup
+    public void setUp() {
+        cache = BoundedCache.<Integer, Integer>builder()
+                .maximumWeight(maximumSize)
+                .expectedEntries(maximumSize)
+                .build();
+        map = new ConcurrentHashMap<>();
+        keys = new Integer[KEY_SPACE];
+        for (int i = 0; i < KEY_SPACE; i++) {
+            keys[i] = i;
+        }
+    }
+
+    private Integer nextKey() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return keys[(int) (KEY_SPACE * r * r * r)];
+    }
+
+    @Benchmark
+    public Integer boundedCacheGetOrPut() {
+        Integer key = nextKey();
+        Integer value = cache.getIfPresent(key);
+        if (value == null) {
+            cache.put(key, key);
+            value = key;
+        }
+        return value;
+    }
+
+    @Benchmark
+    public Integer concurrentHashMapGetOrPut() {
+        Integer key = nextKey();
+        Integer value = map.get(key);
+        if (value == null) {
+            map.put(key, key);
+            value = key;
+        }
+        return value;
+    }
+}
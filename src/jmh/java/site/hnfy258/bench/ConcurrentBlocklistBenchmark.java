@@ -0,0 +1,79 @@
+package site.hnfy258.bench;
+
+import org.openjdk.jmh.annotations.*;
+import site.hnfy258.demo1.TraceId;
+import site.hnfy258.demo1.TraceIdGenerator;
+import site.hnfy258.demo4.ConcurrentBlocklist;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// 黑名单查询：命中/未命中、按字符串、按 UTF-8 字节、按 TraceId
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBlocklistBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private ConcurrentBlocklist blocklist;
+    private String[] hits;
+    private String[] misses;
+    private byte[][] hitBytes;
+    private TraceId[] blockedTraceIds;
+    private TraceId[] otherTraceIds;
+
+    @Setup
+    public void setUp() {
+        TraceIdGenerator generator = new TraceIdGenerator(1);
+        List<String> items = new ArrayList<>(size);
+        hits = new String[size];
+        hitBytes = new byte[size][];
+        misses = new String[size];
+        blockedTraceIds = new TraceId[size];
+        otherTraceIds = new TraceId[size];
+        for (int i = 0; i < size; i++) {
+            hits[i] = "payload-" + i;
+            hitBytes[i] = hits[i].getBytes(StandardCharsets.UTF_8);
+            misses[i] = "payload-miss-" + i;
+            blockedTraceIds[i] = generator.next();
+            otherTraceIds[i] = generator.next();
+            items.add(hits[i]);
+            items.add(blockedTraceIds[i].toString());
+        }
+        blocklist = new ConcurrentBlocklist(items);
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return blocklist.contains(hits[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return blocklist.contains(misses[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public boolean containsUtf8Hit() {
+        byte[] bytes = hitBytes[ThreadLocalRandom.current().nextInt(size)];
+        return blocklist.containsUtf8(bytes, 0, bytes.length);
+    }
+
+    @Benchmark
+    public boolean containsTraceIdHit() {
+        return blocklist.contains(blockedTraceIds[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public boolean containsTraceIdMiss() {
+        return blocklist.contains(otherTraceIds[ThreadLocalRandom.current().nextInt(size)]);
+    }
+}
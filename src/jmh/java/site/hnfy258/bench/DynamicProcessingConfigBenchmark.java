@@ -0,0 +1,62 @@
+package site.hnfy258.bench;
+
+import org.openjdk.jmh.annotations.*;
+import site.hnfy258.demo2.DynamicProcessingConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 配置的读路径。readProcessingEnabled 只读，所有线程读同一个 SharedConfig 实例，
+ * 多个读线程之间的争用（比如读锁的缓存行来回传递）才会体现出来；
+ * readWrite 组里读写线程同时运行，读写比例由 BenchmarkRunner 的 threadGroups 决定（例如 9:1、1:1）。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DynamicProcessingConfigBenchmark {
+
+    // 只读基准不分组：若用 Scope.Group，-t N 会变成 N 个单线程组，每组各有一份配置，测不到争用
+    @State(Scope.Benchmark)
+    public static class SharedConfig {
+        DynamicProcessingConfig config;
+
+        @Setup
+        public void setUp() {
+            config = new DynamicProcessingConfig();
+        }
+    }
+
+    // 同一个 readWrite 组里的读线程和写线程共享一份配置
+    @State(Scope.Group)
+    public static class GroupConfig {
+        DynamicProcessingConfig config;
+        int nextBatchSize = 50;
+
+        @Setup
+        public void setUp() {
+            config = new DynamicProcessingConfig();
+        }
+    }
+
+    @Benchmark
+    public boolean readProcessingEnabled(SharedConfig shared) {
+        return shared.config.isProcessingEnabled();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public boolean reader(GroupConfig group) {
+        return group.config.isProcessingEnabled() && group.config.getBatchSize() > 0;
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void writer(GroupConfig group) {
+        group.nextBatchSize = group.nextBatchSize >= 100 ? 50 : group.nextBatchSize + 1;
+        group.config.updateBatchSize(group.nextBatchSize);
+    }
+}
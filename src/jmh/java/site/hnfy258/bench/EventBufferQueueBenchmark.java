@@ -0,0 +1,58 @@
+package site.hnfy258.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo1.EventBufferQueue;
+import site.hnfy258.demo1.EventQueueBackend;
+import site.hnfy258.demo1.TraceIdGenerator;
+import site.hnfy258.demo1.WaitStrategy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生产者/消费者同时压同一个 EventBufferQueue。
+ * 生产者与消费者的线程数由 BenchmarkRunner 通过 threadGroups 控制（例如 5 生产 10 消费）。
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBufferQueueBenchmark {
+
+    @Param({"array", "ring-park", "ring-yield"})
+    public String backend;
+
+    @Param({"1000", "16384"})
+    public int capacity;
+
+    private EventBufferQueue queue;
+    private Event event;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        EventQueueBackend queueBackend = switch (backend) {
+            case "ring-park" -> EventQueueBackend.ringBuffer(capacity, WaitStrategy.PARK);
+            case "ring-yield" -> EventQueueBackend.ringBuffer(capacity, WaitStrategy.YIELD);
+            default -> EventQueueBackend.arrayBlocking(capacity);
+        };
+        queue = new EventBufferQueue(queueBackend);
+        event = new Event(System.currentTimeMillis(), "type", "payload", TraceIdGenerator.defaultGenerator().next());
+    }
+
+    @Benchmark
+    @Group("offerPoll")
+    @GroupThreads(1)
+    public boolean offer() {
+        return queue.offerEvent(event);
+    }
+
+    @Benchmark
+    @Group("offerPoll")
+    @GroupThreads(1)
+    public void poll(Blackhole blackhole) throws InterruptedException {
+        blackhole.consume(queue.pollEvent(0, TimeUnit.NANOSECONDS));
+    }
+}
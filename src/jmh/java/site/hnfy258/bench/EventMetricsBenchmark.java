@@ -0,0 +1,72 @@
+package site.hnfy258.bench;
+
+import org.openjdk.jmh.annotations.*;
+import site.hnfy258.demo1.EventTypeRegistry;
+import site.hnfy258.demo2.EventMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 所有线程共享同一个 EventMetrics，模拟异步回调同时计数。
+ * 类别计数有三种写法对比：按 typeId 直接下标、按类型名先查注册表，
+ * 以及改成数组之前每个事件 computeIfAbsent 一次的 Map 写法。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventMetricsBenchmark {
+
+    @Param({"1", "16", "256"})
+    public int categories;
+
+    private EventMetrics metrics;
+    private String[] categoryNames;
+    private int[] categoryIds;
+    private ConcurrentHashMap<String, LongAdder> categoryCountMap;
+
+    @Setup
+    public void setUp() {
+        // 每次用新的注册表，id 从 0 开始，不受同一 JVM 里其他基准注册过的类型影响
+        EventTypeRegistry registry = new EventTypeRegistry();
+        metrics = new EventMetrics(registry);
+        categoryCountMap = new ConcurrentHashMap<>();
+        categoryNames = new String[categories];
+        categoryIds = new int[categories];
+        for (int i = 0; i < categories; i++) {
+            categoryNames[i] = "type-" + i;
+            categoryIds[i] = registry.idOf(categoryNames[i]);
+        }
+    }
+
+    @Benchmark
+    public void incrementProcessedCount() {
+        metrics.incrementProcessedCount();
+    }
+
+    @Benchmark
+    public void incrementErrorCount() {
+        metrics.incrementErrorCount();
+    }
+
+    @Benchmark
+    public void incrementEventCategoryCount() {
+        metrics.incrementEventCategoryCount(categoryNames[ThreadLocalRandom.current().nextInt(categories)]);
+    }
+
+    @Benchmark
+    public void incrementEventCategoryCountById() {
+        metrics.incrementEventCategoryCount(categoryIds[ThreadLocalRandom.current().nextInt(categories)]);
+    }
+
+    @Benchmark
+    public void categoryCountMapBaseline() {
+        categoryCountMap.computeIfAbsent(categoryNames[ThreadLocalRandom.current().nextInt(categories)],
+                k -> new LongAdder()).increment();
+    }
+}
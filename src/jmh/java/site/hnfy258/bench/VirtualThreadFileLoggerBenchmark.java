@@ -0,0 +1,31 @@
+package site.hnfy258.bench;
+
+import org.openjdk.jmh.annotations.*;
+import site.hnfy258.demo4.VirtualThreadFileLogger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * log() 在调用线程上的开销（启动写文件的虚拟线程）。每次 log 都会真正写文件，
+ * 所以用固定批量的单次测量，避免按时间测量时写出过多数据。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = 1000)
+@Measurement(iterations = 5, batchSize = 1000)
+@Fork(1)
+public class VirtualThreadFileLoggerBenchmark {
+
+    private VirtualThreadFileLogger logger;
+
+    @Setup
+    public void setUp() {
+        logger = new VirtualThreadFileLogger();
+    }
+
+    @Benchmark
+    public void log() {
+        logger.log("benchmark log line");
+    }
+}
@@ -0,0 +1,59 @@
+package site.hnfy258.demo1;
+
+import java.util.Collection;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class BlockingQueueBackend implements EventQueueBackend {
+    private final BlockingQueue<Event> queue;
+
+    public BlockingQueueBackend(BlockingQueue<Event> queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public boolean offer(Event event) {
+        return queue.offer(event);
+    }
+
+    @Override
+    public boolean offer(Event event, long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.offer(event, timeout, unit);
+    }
+
+    @Override
+    public void put(Event event) throws InterruptedException {
+        queue.put(event);
+    }
+
+    @Override
+    public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    @Override
+    public Event take() throws InterruptedException {
+        return queue.take();
+    }
+
+    @Override
+    public int drainTo(Collection<? super Event> sink, int maxEvents) {
+        // ArrayBlockingQueue.drainTo 只加一次锁就能搬走一整批
+        return queue.drainTo(sink, maxEvents);
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+}
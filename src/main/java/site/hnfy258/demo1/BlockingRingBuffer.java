@@ -0,0 +1,110 @@
+package site.hnfy258.demo1;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在 MpmcRingBuffer 上按 WaitStrategy 实现阻塞语义。
+ * 快路径完全无锁；只有在满（put/offer 超时）或空（poll/take）时才按等待策略等待。
+ */
+public class BlockingRingBuffer<E> {
+    private final MpmcRingBuffer<E> ring;
+    private final WaitStrategy waitStrategy;
+
+    public BlockingRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        this.ring = new MpmcRingBuffer<>(capacity);
+        this.waitStrategy = waitStrategy;
+    }
+
+    public boolean offer(E element) {
+        return ring.offer(element);
+    }
+
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        if (ring.offer(element)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        while (true) {
+            checkInterrupted();
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            waitStrategy.idle(attempt++);
+            if (ring.offer(element)) {
+                return true;
+            }
+        }
+    }
+
+    public void put(E element) throws InterruptedException {
+        int attempt = 0;
+        while (!ring.offer(element)) {
+            checkInterrupted();
+            waitStrategy.idle(attempt++);
+        }
+    }
+
+    public E poll() {
+        return ring.poll();
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E element = ring.poll();
+        if (element != null) {
+            return element;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        while (true) {
+            checkInterrupted();
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            waitStrategy.idle(attempt++);
+            element = ring.poll();
+            if (element != null) {
+                return element;
+            }
+        }
+    }
+
+    public E take() throws InterruptedException {
+        int attempt = 0;
+        E element;
+        while ((element = ring.poll()) == null) {
+            checkInterrupted();
+            waitStrategy.idle(attempt++);
+        }
+        return element;
+    }
+
+    public int drainTo(Collection<? super E> sink, int maxElements) {
+        int drained = 0;
+        E element;
+        while (drained < maxElements && (element = ring.poll()) != null) {
+            sink.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    public int size() {
+        return ring.size();
+    }
+
+    public int capacity() {
+        return ring.capacity();
+    }
+
+    public int remainingCapacity() {
+        return ring.capacity() - ring.size();
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package site.hnfy258.demo1;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Event 的紧凑表示：类型是 EventTypeRegistry 里的整数 id，traceId 是两个 long 的定宽二进制，
+ * payload 以 UTF-8 字节放在 PayloadBufferPool 的堆外槽位里。在队列和消费者之间流转时不持有任何 String。
+ *
+ * toEvent() 提供原来的 record 视图，release() 归还堆外槽位，调用 release() 之后不能再读取 payload。
+ */
+public final class CompactEvent {
+    private final long timestamp;
+    private final int typeId;
+    private final long traceHi;
+    private final long traceLo;
+    private final boolean hasTraceId;
+    private final ByteBuffer buffer;
+    // -1 表示 payload 为 null
+    private final int payloadLength;
+    private final EventTypeRegistry registry;
+    private final PayloadBufferPool pool;
+    private boolean released = false;
+
+    private CompactEvent(long timestamp, int typeId, TraceId traceId, ByteBuffer buffer,
+                         int payloadLength, EventTypeRegistry registry, PayloadBufferPool pool) {
+        this.timestamp = timestamp;
+        this.typeId = typeId;
+        this.hasTraceId = traceId != null;
+        this.traceHi = traceId != null ? traceId.hi() : 0;
+        this.traceLo = traceId != null ? traceId.lo() : 0;
+        this.buffer = buffer;
+        this.payloadLength = payloadLength;
+        this.registry = registry;
+        this.pool = pool;
+    }
+
+    public static CompactEvent encode(Event event, EventTypeRegistry registry, PayloadBufferPool pool) {
+        String payload = event.payload();
+        int payloadLength = payload == null ? -1 : utf8Length(payload);
+        ByteBuffer buffer = pool.acquire(Math.max(payloadLength, 0));
+        if (payload != null) {
+            putUtf8(buffer, payload);
+        }
+        return new CompactEvent(event.timestamp(), registry.idOf(event.type()), event.traceId(),
+                buffer, payloadLength, registry, pool);
+    }
+
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public int typeId() {
+        return typeId;
+    }
+
+    // 注册表里保存的类型字符串实例，不新建 String
+    public String type() {
+        return registry.nameOf(typeId);
+    }
+
+    public long traceHi() {
+        return traceHi;
+    }
+
+    public long traceLo() {
+        return traceLo;
+    }
+
+    public boolean hasPayload() {
+        return payloadLength >= 0;
+    }
+
+    public int payloadLength() {
+        return Math.max(payloadLength, 0);
+    }
+
+    // payload 字节从 payloadBuffer() 的下标 0 开始，长度为 payloadLength()
+    public ByteBuffer payloadBuffer() {
+        checkNotReleased();
+        return buffer;
+    }
+
+    public boolean hasTraceId() {
+        return hasTraceId;
+    }
+
+    // 兼容视图：物化出原来的 Event record
+    public Event toEvent() {
+        // 用的就是全局注册表时直接沿用 typeId，省掉一次按名字查 id
+        return registry == EventTypeRegistry.global()
+                ? new Event(timestamp, type(), payloadString(), traceId(), typeId)
+                : new Event(timestamp, type(), payloadString(), traceId());
+    }
+
+    public void release() {
+        if (!released) {
+            released = true;
+            pool.release(buffer);
+        }
+    }
+
+    private String payloadString() {
+        if (payloadLength < 0) {
+            return null;
+        }
+        checkNotReleased();
+        byte[] bytes = new byte[payloadLength];
+        buffer.get(0, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private TraceId traceId() {
+        return hasTraceId ? new TraceId(traceHi, traceLo) : null;
+    }
+
+    private void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("CompactEvent buffer has already been released");
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // 逐字符编码 UTF-8，ASCII 场景下不产生任何中间对象；孤立代理项按 '?' 处理，与 String.getBytes 一致
+    private static void putUtf8(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package site.hnfy258.demo1;
+
+import site.hnfy258.demo2.DynamicProcessingConfig;
+import site.hnfy258.demo2.EventMetrics;
+import site.hnfy258.demo3.EventProcessorService;
+import site.hnfy258.demo3.ProcessingResult;
+import site.hnfy258.demo4.ConcurrentBlocklist;
+import site.hnfy258.demo4.VirtualThreadFileLogger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消费 CompactEventQueue 的消费者。黑名单检查直接在紧凑表示上做：类型按注册表里的字符串实例查，
+ * payload 按 UTF-8 字节查，traceId 按两个 long 查，只有交给 EventProcessorService 时才还原出 Event。
+ * 只有逐个消费的模式；在途上限的 BLOCK/SHED/THROTTLE 与 EventConsumer 行为一致。
+ * 批量消费和按键分片没有紧凑版本，PipelineLauncher 在启动时拒绝这些组合。
+ */
+public class CompactEventConsumer implements Runnable {
+    private final CompactEventQueue queue;
+    private final EventMetrics metrics;
+    private final DynamicProcessingConfig config;
+    private final EventProcessorService eventProcessorService;
+    private final VirtualThreadFileLogger fileLogger;
+    private final ConcurrentBlocklist blacklist;
+    private final InFlightLimiter.Credits credits;
+    private final InFlightLimiter.OverloadPolicy overloadPolicy;
+    // 队列和指标共用一个注册表时 typeId 可以直接用作计数下标，否则按类型名换算到指标的注册表
+    private final boolean sharedTypeRegistry;
+
+    public CompactEventConsumer(CompactEventQueue queue,
+                                EventMetrics metrics,
+                                DynamicProcessingConfig config,
+                                EventProcessorService eventProcessorService,
+                                VirtualThreadFileLogger fileLogger,
+                                ConcurrentBlocklist blacklist,
+                                InFlightLimiter inFlightLimiter) {
+        this.queue = queue;
+        this.metrics = metrics;
+        this.config = config;
+        this.eventProcessorService = eventProcessorService;
+        this.fileLogger = fileLogger;
+        this.blacklist = blacklist;
+        this.credits = inFlightLimiter.newConsumerCredits();
+        this.overloadPolicy = inFlightLimiter.getPolicy();
+        this.sharedTypeRegistry = queue.getRegistry() == metrics.getTypeRegistry();
+    }
+
+    @Override
+    public void run() {
+        String threadName = Thread.currentThread().getName();
+        System.out.println(threadName + " 开始异步消费紧凑事件。");
+
+        while (true) {
+            try {
+                if (!config.isProcessingEnabled()) {
+                    config.awaitProcessingEnabled(500, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+
+                // THROTTLE：在途已满时不取事件，积压留在队列里由生产者感知
+                boolean throttled = overloadPolicy == InFlightLimiter.OverloadPolicy.THROTTLE
+                        && credits.awaitCapacity(500, TimeUnit.MILLISECONDS) == 0;
+                CompactEvent event = throttled ? null : queue.poll(500, TimeUnit.MILLISECONDS);
+                if (event == null) {
+                    if (queue.isProductionComplete() && queue.isEmpty()) {
+                        System.out.println(threadName + " 检测到生产完成且队列已空，优雅退出。");
+                        break;
+                    }
+                    continue;
+                }
+                metrics.recordQueueWait(event.timestamp());
+
+                if (isEventBlacklisted(event)) {
+                    // 被过滤是少数情况，这时才为日志物化 Event
+                    Event filtered = event.toEvent();
+                    event.release();
+                    System.out.println(threadName + " 事件被黑名单过滤: " + filtered.traceId() +
+                            " (类型: " + filtered.type() + ", 载荷: " + filtered.payload() + ")");
+                    metrics.incrementErrorCount();
+                    fileLogger.log("事件" + filtered.traceId() + "被黑名单过滤，线程: " + threadName);
+                    continue;
+                }
+
+                if (!credits.acquire()) {
+                    event.release();
+                    metrics.incrementErrorCount();
+                    System.err.println(threadName + " 在途事件已达上限，丢弃一个紧凑事件");
+                    continue;
+                }
+                CompletableFuture<ProcessingResult> future;
+                try {
+                    future = eventProcessorService.processEvent(event);
+                } catch (RuntimeException e) {
+                    credits.release();
+                    throw e;
+                }
+                int metricsTypeId = sharedTypeRegistry
+                        ? event.typeId()
+                        : metrics.getTypeRegistry().idOf(event.type());
+                handleResult(metricsTypeId, event.timestamp(), future);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println(threadName + " 在等待事件时被中断。正在退出。");
+                break;
+            } catch (Exception e) {
+                System.err.println(threadName + " 消费者循环中发生意外错误: " + e.getMessage());
+                metrics.incrementErrorCount();
+                e.printStackTrace();
+            }
+        }
+        System.out.println(threadName + " 消费任务完成（异步提交任务）。");
+    }
+
+    private boolean isEventBlacklisted(CompactEvent event) {
+        if (blacklist.contains(event.type())) {
+            return true;
+        }
+        if (event.hasPayload() && blacklist.containsUtf8(event.payloadBuffer(), 0, event.payloadLength())) {
+            return true;
+        }
+        return event.hasTraceId() && blacklist.containsTraceId(event.traceHi(), event.traceLo());
+    }
+
+    private void handleResult(int typeId, long timestamp, CompletableFuture<ProcessingResult> future) {
+        future.whenComplete((result, ex) -> {
+            credits.release();
+            metrics.recordEndToEndLatency(typeId, timestamp);
+        });
+        future.thenAccept(result -> {
+                    Event event = result.originalEvent();
+                    if (result.success()) {
+                        metrics.incrementProcessedCount();
+                        metrics.incrementEventCategoryCount(typeId);
+                        System.out.println(Thread.currentThread().getName() + " [异步回调] 成功处理事件: " + event.traceId());
+                        fileLogger.log("事件" + event.traceId() + "处理成功，线程: " + Thread.currentThread().getName());
+                    } else {
+                        metrics.incrementErrorCount();
+                        System.err.println(Thread.currentThread().getName() + " [异步回调] 处理事件失败: " + event.traceId() + ". 错误: " + result.errorMessage());
+                        fileLogger.log("事件" + event.traceId() + "处理失败，错误: " + result.errorMessage() + "，线程: " + Thread.currentThread().getName());
+                    }
+                })
+                .exceptionally(ex -> {
+                    metrics.incrementErrorCount();
+                    Throwable actualCause = (ex instanceof CompletionException) ? ex.getCause() : ex;
+                    System.err.println(Thread.currentThread().getName() + " [异步回调] 处理紧凑事件时发生意外错误. 错误类型: "
+                            + actualCause.getClass().getSimpleName() + ". 详细: " + actualCause.getMessage());
+                    fileLogger.log("紧凑事件处理异常，错误: " + actualCause.getMessage() + "，线程: " + Thread.currentThread().getName());
+                    return null;
+                });
+    }
+}
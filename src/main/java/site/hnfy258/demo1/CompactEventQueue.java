@@ -0,0 +1,113 @@
+package site.hnfy258.demo1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 存放 CompactEvent 的无锁队列。生产者仍然可以按 EventSink 写入 Event，入队时即编码为紧凑表示，
+ * 原来的 record 和它的字符串在生产者线程上就成为垃圾，不会随积压一起晋升到老年代。
+ */
+public class CompactEventQueue implements EventSink {
+    private final BlockingRingBuffer<CompactEvent> ring;
+    private final EventTypeRegistry registry;
+    private final PayloadBufferPool bufferPool;
+    private final LongAdder rejectedOffers = new LongAdder();
+    private volatile boolean productionComplete = false;
+
+    public CompactEventQueue(int capacity, WaitStrategy waitStrategy, EventTypeRegistry registry, PayloadBufferPool bufferPool) {
+        this.ring = new BlockingRingBuffer<>(capacity, waitStrategy);
+        this.registry = registry;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public boolean offerEvent(Event event) {
+        return offer(CompactEvent.encode(event, registry, bufferPool));
+    }
+
+    @Override
+    public boolean offerEvent(Event event, long timeout, TimeUnit unit) throws InterruptedException {
+        CompactEvent compactEvent = CompactEvent.encode(event, registry, bufferPool);
+        boolean success;
+        try {
+            success = ring.offer(compactEvent, timeout, unit);
+        } catch (InterruptedException e) {
+            compactEvent.release();
+            throw e;
+        }
+        if (!success) {
+            compactEvent.release();
+            rejectedOffers.increment();
+        }
+        return success;
+    }
+
+    @Override
+    public void putEvent(Event event) throws InterruptedException {
+        CompactEvent compactEvent = CompactEvent.encode(event, registry, bufferPool);
+        try {
+            ring.put(compactEvent);
+        } catch (InterruptedException e) {
+            compactEvent.release();
+            throw e;
+        }
+    }
+
+    public boolean offer(CompactEvent event) {
+        boolean success = ring.offer(event);
+        if (!success) {
+            event.release();
+            rejectedOffers.increment();
+        }
+        return success;
+    }
+
+    public CompactEvent poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return ring.poll(timeout, unit);
+    }
+
+    public CompactEvent take() throws InterruptedException {
+        return ring.take();
+    }
+
+    // 与 EventBufferQueue.drainEvents 语义相同
+    public List<CompactEvent> drain(int maxEvents, long timeout, TimeUnit unit) throws InterruptedException {
+        CompactEvent first = ring.poll(timeout, unit);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        List<CompactEvent> batch = new ArrayList<>(Math.min(maxEvents, ring.size() + 1));
+        batch.add(first);
+        if (maxEvents > 1) {
+            ring.drainTo(batch, maxEvents - 1);
+        }
+        return batch;
+    }
+
+    public EventTypeRegistry getRegistry() {
+        return registry;
+    }
+
+    public int size() {
+        return ring.size();
+    }
+
+    public boolean isEmpty() {
+        return ring.size() == 0;
+    }
+
+    public long getRejectedOfferCount() {
+        return rejectedOffers.sum();
+    }
+
+    public void markProductionComplete() {
+        this.productionComplete = true;
+    }
+
+    public boolean isProductionComplete() {
+        return productionComplete;
+    }
+}
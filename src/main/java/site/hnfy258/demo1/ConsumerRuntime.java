@@ -0,0 +1,25 @@
+package site.hnfy258.demo1;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// 运行 EventConsumer 的线程模型
+public enum ConsumerRuntime {
+    // 固定大小的平台线程池，每个消费者占一个平台线程
+    PLATFORM {
+        @Override
+        public ExecutorService newExecutor(int consumerCount) {
+            return Executors.newFixedThreadPool(consumerCount);
+        }
+    },
+    // 每个消费者一个虚拟线程：阻塞在队列或配置信号上时只占用很少的堆内存，可以开到上千个消费者。
+    // 注意不要搭配 WaitStrategy.BUSY_SPIN，自旋会一直占住承载线程
+    VIRTUAL {
+        @Override
+        public ExecutorService newExecutor(int consumerCount) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("event-consumer-", 0).factory());
+        }
+    };
+
+    public abstract ExecutorService newExecutor(int consumerCount);
+}
@@ -0,0 +1,8 @@
+package site.hnfy258.demo1;
+
+public enum ConsumptionMode {
+    // 每次唤醒只取一个事件
+    SINGLE,
+    // 每次唤醒最多取 DynamicProcessingConfig.getBatchSize() 个事件，整批过滤、整批提交
+    BATCH
+}
@@ -0,0 +1,195 @@
+package site.hnfy258.demo1;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 带磁盘溢出的队列后端：内存后端满了以后，新事件按顺序写入 SpillSegmentStore，
+ * 消费者取事件时再把磁盘上的事件按顺序搬回内存。
+ * 一旦开始溢出，后续事件全部先进磁盘，直到磁盘清空才回到内存快路径，从而保持 FIFO。
+ * 未溢出时的 offer/poll 不加锁，与内存后端开销相同。
+ */
+public class DiskSpillBackend implements EventQueueBackend, AutoCloseable {
+    private static final long RETRY_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long TAKE_POLL_MILLIS = 100;
+
+    private final EventQueueBackend memory;
+    private final SpillSegmentStore store;
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private volatile boolean spilling = false;
+    // 从磁盘读出但内存暂时放不下的事件，它永远排在磁盘剩余事件之前
+    private Event carry;
+    private volatile long pendingOnDisk = 0;
+
+    public DiskSpillBackend(EventQueueBackend memory, Path spillDirectory, int segmentSize, long maxSpillBytes) throws IOException {
+        this.memory = memory;
+        this.store = new SpillSegmentStore(spillDirectory, segmentSize, maxSpillBytes);
+    }
+
+    @Override
+    public boolean offer(Event event) {
+        if (!spilling && memory.offer(event)) {
+            return true;
+        }
+        spillLock.lock();
+        try {
+            // 拿到锁后再确认一次：可能刚好被消费者排空、溢出已经结束
+            if (!spilling && memory.offer(event)) {
+                return true;
+            }
+            if (!store.append(event)) {
+                // 磁盘配额也用完了，这时才真正拒绝
+                return false;
+            }
+            spilling = true;
+            pendingOnDisk = pendingCountLocked();
+            return true;
+        } catch (IOException e) {
+            System.err.println("DiskSpillBackend: failed to spill event " + event.traceId() + ": " + e.getMessage());
+            return false;
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Event event, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(event)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(RETRY_PARK_NANOS);
+        }
+        return true;
+    }
+
+    @Override
+    public void put(Event event) throws InterruptedException {
+        while (!offer(event)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(RETRY_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+        refillIfSpilling();
+        return memory.poll(timeout, unit);
+    }
+
+    @Override
+    public Event take() throws InterruptedException {
+        Event event;
+        // 分段等待，保证期间有机会把磁盘上的事件搬回内存
+        while ((event = poll(TAKE_POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return event;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Event> sink, int maxEvents) {
+        refillIfSpilling();
+        return memory.drainTo(sink, maxEvents);
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, memory.size() + pendingOnDisk);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        // 磁盘溢出后容量只受磁盘配额限制，这里不再报告“已满”
+        return Integer.MAX_VALUE;
+    }
+
+    private void refillIfSpilling() {
+        if (!spilling) {
+            return;
+        }
+        spillLock.lock();
+        try {
+            while (true) {
+                Event event = carry != null ? carry : store.poll();
+                if (event == null) {
+                    spilling = false;
+                    break;
+                }
+                if (!memory.offer(event)) {
+                    carry = event;
+                    break;
+                }
+                carry = null;
+            }
+            pendingOnDisk = pendingCountLocked();
+        } catch (IOException e) {
+            System.err.println("DiskSpillBackend: failed to refill events from disk: " + e.getMessage());
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    private long pendingCountLocked() {
+        return store.getPendingEvents() + (carry != null ? 1 : 0);
+    }
+
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    public SpillMetrics getSpillMetrics() {
+        spillLock.lock();
+        try {
+            return new SpillMetrics(store.getSpilledEvents(), store.getSpilledBytes(),
+                    store.getRefilledEvents(), store.getRefilledBytes(),
+                    pendingCountLocked(), store.getSegmentsCreated(), store.getLiveSegments());
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    public void printSpillMetrics() {
+        SpillMetrics metrics = getSpillMetrics();
+        System.out.println("\n--- Disk Spill Metrics ---");
+        System.out.println("Spilled Events: " + metrics.spilledEvents() + " (" + metrics.spilledBytes() + " bytes)");
+        System.out.println("Refilled Events: " + metrics.refilledEvents() + " (" + metrics.refilledBytes() + " bytes)");
+        System.out.println("Pending On Disk: " + metrics.pendingOnDisk());
+        System.out.println("Segments Created: " + metrics.segmentsCreated() + ", live: " + metrics.liveSegments());
+        System.out.println("--------------------------");
+    }
+
+    @Override
+    public void close() throws IOException {
+        spillLock.lock();
+        try {
+            store.close();
+            carry = null;
+            pendingOnDisk = 0;
+            spilling = false;
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    public record SpillMetrics(long spilledEvents,
+                               long spilledBytes,
+                               long refilledEvents,
+                               long refilledBytes,
+                               long pendingOnDisk,
+                               long segmentsCreated,
+                               int liveSegments) {
+    }
+}
@@ -1,8 +1,21 @@
 package site.hnfy258.demo1;
 
+/**
+ * typeId 是 type 在 EventTypeRegistry.global() 里的稠密整数 id，在创建事件时解析一次，
+ * 之后的按类别计数直接用它做下标，不用再对类型字符串做哈希和查表。
+ */
 public record Event(long timestamp,
                     String type,
                     String payload,
-                    String traceId) {
+                    TraceId traceId,
+                    int typeId) {
 
+    public Event(long timestamp, String type, String payload, TraceId traceId) {
+        this(timestamp, type, payload, traceId, EventTypeRegistry.global().idOf(type));
+    }
+
+    // 换一个 payload，其余字段（包括已经解析好的 typeId）不变
+    public Event withPayload(String newPayload) {
+        return new Event(timestamp, type, newPayload, traceId, typeId);
+    }
 }
@@ -1,27 +1,48 @@
 package site.hnfy258.demo1;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
-public class EventBufferQueue {
-    private final BlockingQueue<Event> queue;
+public class EventBufferQueue implements EventSink {
+    private final EventQueueBackend queue;
     private volatile boolean productionComplete = false;
+    // 因队列已满被拒绝的 offer 次数，生产者据此感知背压，而不是在这里打印后丢弃
+    private final LongAdder rejectedOffers = new LongAdder();
 
     public static final int DEFAULT_CAPACITY = 1000;
 
     public EventBufferQueue(){
-        this.queue = new ArrayBlockingQueue<>(DEFAULT_CAPACITY);
+        this(EventQueueBackend.arrayBlocking(DEFAULT_CAPACITY));
     }
 
+    // 可插拔的底层存储，例如 EventQueueBackend.ringBuffer(DEFAULT_CAPACITY, WaitStrategy.PARK)
+    public EventBufferQueue(EventQueueBackend backend){
+        this.queue = backend;
+    }
+
+    @Override
     public boolean offerEvent(Event event){
         boolean success = queue.offer(event);
         if(!success){
-            System.out.println("Queue is full, failed to add event: " + event);
+            rejectedOffers.increment();
+        }
+        return success;
+    }
+
+    // 队列满时最多等待 timeout，供生产者做有界的退避重试
+    @Override
+    public boolean offerEvent(Event event, long timeout, TimeUnit unit) throws InterruptedException {
+        boolean success = queue.offer(event, timeout, unit);
+        if(!success){
+            rejectedOffers.increment();
         }
         return success;
     }
 
+    @Override
     public void putEvent(Event event) throws InterruptedException {
         queue.put(event);
     }
@@ -34,6 +55,26 @@ public class EventBufferQueue {
         return queue.take();
     }
 
+    /**
+     * 批量取出事件：最多等待 timeout 拿到第一个事件，之后不再等待，把队列中已有的事件一次性取出，
+     * 总数不超过 maxEvents。超时仍没有事件时返回空列表。
+     */
+    public List<Event> drainEvents(int maxEvents, long timeout, TimeUnit unit) throws InterruptedException {
+        if (maxEvents <= 0) {
+            throw new IllegalArgumentException("maxEvents must be greater than 0");
+        }
+        Event first = queue.poll(timeout, unit);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        List<Event> batch = new ArrayList<>(Math.min(maxEvents, queue.size() + 1));
+        batch.add(first);
+        if (maxEvents > 1) {
+            queue.drainTo(batch, maxEvents - 1);
+        }
+        return batch;
+    }
+
     public boolean isFull(){
         return queue.remainingCapacity() == 0;
     }
@@ -46,6 +87,10 @@ public class EventBufferQueue {
         return queue.size();
     }
 
+    public long getRejectedOfferCount() {
+        return rejectedOffers.sum();
+    }
+
     public void markProductionComplete() {
         this.productionComplete = true;
     }
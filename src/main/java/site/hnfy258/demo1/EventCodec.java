@@ -0,0 +1,69 @@
+package site.hnfy258.demo1;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Event 的二进制编码：timestamp(long) + type + payload + traceId，
+ * 字符串按 int 长度 + UTF-8 字节写入，长度 -1 表示 null；traceId 是 1 字节标记 + 两个 long。
+ */
+public final class EventCodec {
+
+    private EventCodec() {
+    }
+
+    public static byte[] encode(Event event) {
+        byte[] type = bytesOf(event.type());
+        byte[] payload = bytesOf(event.payload());
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + 2 * Integer.BYTES
+                + lengthOf(type) + lengthOf(payload) + 1 + 2 * Long.BYTES);
+        buffer.putLong(event.timestamp());
+        putBytes(buffer, type);
+        putBytes(buffer, payload);
+        TraceId traceId = event.traceId();
+        if (traceId == null) {
+            buffer.put((byte) 0).putLong(0).putLong(0);
+        } else {
+            buffer.put((byte) 1).putLong(traceId.hi()).putLong(traceId.lo());
+        }
+        return buffer.array();
+    }
+
+    // 从 buffer 当前位置解码一个事件，position 随之前移
+    public static Event decode(ByteBuffer buffer) {
+        long timestamp = buffer.getLong();
+        String type = getString(buffer);
+        String payload = getString(buffer);
+        boolean hasTraceId = buffer.get() != 0;
+        long hi = buffer.getLong();
+        long lo = buffer.getLong();
+        return new Event(timestamp, type, payload, hasTraceId ? new TraceId(hi, lo) : null);
+    }
+
+    private static byte[] bytesOf(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int lengthOf(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
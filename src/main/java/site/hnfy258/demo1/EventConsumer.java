@@ -7,7 +7,9 @@ import site.hnfy258.demo3.ProcessingResult;
 import site.hnfy258.demo4.VirtualThreadFileLogger;
 import site.hnfy258.demo4.ConcurrentBlocklist;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException; // 引入 CompletionException，用于处理 CompletableFuture 抛出的异常
 import java.util.concurrent.TimeUnit;
 
@@ -22,6 +24,11 @@ public class EventConsumer implements Runnable {
     private final EventProcessorService eventProcessorService; // 注入 EventProcessorService
     private final VirtualThreadFileLogger fileLogger;
     private final ConcurrentBlocklist blacklist; // 注入黑名单
+    private final ConsumptionMode mode;
+    private final InFlightLimiter.Credits credits; // 本消费者的在途许可
+    private final InFlightLimiter.OverloadPolicy overloadPolicy;
+    // 消费按键有序的分片时非空：同键事件等前一个处理完再提交
+    private final KeyOrderedSubmitter keyOrder;
 
     public EventConsumer(EventBufferQueue queue,
                          EventMetrics eventMetrics,
@@ -29,66 +36,73 @@ public class EventConsumer implements Runnable {
                          EventProcessorService eventProcessorService,
                          VirtualThreadFileLogger fileLogger,
                          ConcurrentBlocklist blacklist) {
+        this(queue, eventMetrics, config, eventProcessorService, fileLogger, blacklist, ConsumptionMode.SINGLE);
+    }
+
+    public EventConsumer(EventBufferQueue queue,
+                         EventMetrics eventMetrics,
+                         DynamicProcessingConfig config,
+                         EventProcessorService eventProcessorService,
+                         VirtualThreadFileLogger fileLogger,
+                         ConcurrentBlocklist blacklist,
+                         ConsumptionMode mode) {
+        this(queue, eventMetrics, config, eventProcessorService, fileLogger, blacklist, mode, InFlightLimiter.unlimited());
+    }
+
+    public EventConsumer(EventBufferQueue queue,
+                         EventMetrics eventMetrics,
+                         DynamicProcessingConfig config,
+                         EventProcessorService eventProcessorService,
+                         VirtualThreadFileLogger fileLogger,
+                         ConcurrentBlocklist blacklist,
+                         ConsumptionMode mode,
+                         InFlightLimiter inFlightLimiter) {
+        this(queue, eventMetrics, config, eventProcessorService, fileLogger, blacklist, mode, inFlightLimiter, null);
+    }
+
+    /**
+     * @param orderingKey 非 null 时同一个键的事件按出队顺序逐个处理（前一个的结果返回后才提交下一个），
+     *                    用于消费 PartitionedEventQueue 的分片；null 表示出队后立即提交
+     */
+    public EventConsumer(EventBufferQueue queue,
+                         EventMetrics eventMetrics,
+                         DynamicProcessingConfig config,
+                         EventProcessorService eventProcessorService,
+                         VirtualThreadFileLogger fileLogger,
+                         ConcurrentBlocklist blacklist,
+                         ConsumptionMode mode,
+                         InFlightLimiter inFlightLimiter,
+                         PartitionKey orderingKey) {
         this.queue = queue;
         this.metrics = eventMetrics;
         this.config = config;
         this.eventProcessorService = eventProcessorService;
         this.fileLogger = fileLogger;
         this.blacklist = blacklist;
+        this.mode = mode;
+        this.credits = inFlightLimiter.newConsumerCredits();
+        this.overloadPolicy = inFlightLimiter.getPolicy();
+        this.keyOrder = orderingKey != null ? new KeyOrderedSubmitter(orderingKey) : null;
     }
 
     @Override
     public void run() {
         String threadName = Thread.currentThread().getName();
-        System.out.println(threadName + " 开始异步消费事件。"); // 更新日志，表明是异步消费
+        System.out.println(threadName + " 开始异步消费事件，模式: " + mode); // 更新日志，表明是异步消费
 
         while (true) {
-            Event event = null;
             try {
                 if (!config.isProcessingEnabled()) {
-                    Thread.sleep(10);
+                    // 挂起直到配置重新开启处理，而不是每 10ms 醒来轮询一次
+                    config.awaitProcessingEnabled(500, TimeUnit.MILLISECONDS);
                     continue;
                 }
 
-                event = queue.pollEvent(500, TimeUnit.MILLISECONDS);
+                boolean gotEvents = mode == ConsumptionMode.BATCH
+                        ? consumeBatch(threadName)
+                        : consumeOne(threadName);
 
-                if (event != null) {
-                    // 检查事件是否在黑名单中
-                    if (isEventBlacklisted(event)) {
-                        System.out.println(threadName + " 事件被黑名单过滤: " + event.traceId() +
-                                         " (类型: " + event.type() + ", 载荷: " + event.payload() + ")");
-                        metrics.incrementErrorCount(); // 将被过滤的事件计为错误
-                        fileLogger.log("事件" + event.traceId() + "被黑名单过滤，线程: " + threadName);
-                        continue; // 跳过此事件，继续处理下一个
-                    }
-
-                    final Event currentEvent = event;
-                    eventProcessorService.processEvent(currentEvent)
-                            .thenAccept(result -> {
-                                if (result.success()) {
-                                    String callbackThreadName = Thread.currentThread().getName();
-                                    metrics.incrementProcessedCount();
-                                    metrics.incrementEventCategoryCount(currentEvent.type());
-                                    System.out.println(Thread.currentThread().getName() + " [异步回调] 成功处理事件: " + currentEvent.traceId());
-                                    fileLogger.log("事件"+currentEvent.traceId()+"处理成功，线程: " + callbackThreadName);
-                                } else {
-                                    // 4.2 异步回调：处理失败结果
-                                    metrics.incrementErrorCount(); // 线程安全更新全局错误计数
-                                    System.err.println(Thread.currentThread().getName() + " [异步回调] 处理事件失败: " + currentEvent.traceId() + ". 错误: " + result.errorMessage());
-                                    fileLogger.log("事件"+currentEvent.traceId()+"处理失败，错误: " + result.errorMessage() + "，线程: " + Thread.currentThread().getName());
-                                }
-                            })
-                            .exceptionally(ex -> {
-
-                                metrics.incrementErrorCount();
-                                Throwable actualCause = (ex instanceof CompletionException) ? ex.getCause() : ex; // 获取原始异常
-                                System.err.println(Thread.currentThread().getName() + " [异步回调] 处理事件时发生意外错误: " + currentEvent.traceId() + ". 错误类型: " + actualCause.getClass().getSimpleName() + ". 详细: " + actualCause.getMessage());
-                                actualCause.printStackTrace();
-                                fileLogger.log("事件"+currentEvent.traceId()+"处理异常，错误: " + actualCause.getMessage() + "，线程: " + Thread.currentThread().getName());
-                                return null;
-                            });
-
-                } else {
+                if (!gotEvents) {
                     // 5. 队列为空时的退出条件：当生产者完成且队列已空时，消费者优雅退出
                     if (queue.isProductionComplete() && queue.isEmpty()) {
                         System.out.println(threadName + " 检测到生产完成且队列已空，优雅退出。");
@@ -110,6 +124,170 @@ public class EventConsumer implements Runnable {
         System.out.println(threadName + " 消费任务完成（异步提交任务）。"); // 更新日志，反映异步性质
     }
 
+    private boolean consumeOne(String threadName) throws InterruptedException {
+        // THROTTLE：在途已满时不取事件，积压留在队列里由生产者感知
+        if (overloadPolicy == InFlightLimiter.OverloadPolicy.THROTTLE
+                && credits.awaitCapacity(500, TimeUnit.MILLISECONDS) == 0) {
+            return false;
+        }
+        Event event = queue.pollEvent(500, TimeUnit.MILLISECONDS);
+        if (event == null) {
+            return false;
+        }
+        metrics.recordQueueWait(event.timestamp());
+        // 检查事件是否在黑名单中
+        if (isEventBlacklisted(event)) {
+            System.out.println(threadName + " 事件被黑名单过滤: " + event.traceId() +
+                             " (类型: " + event.type() + ", 载荷: " + event.payload() + ")");
+            metrics.incrementErrorCount(); // 将被过滤的事件计为错误
+            fileLogger.log("事件" + event.traceId() + "被黑名单过滤，线程: " + threadName);
+            return true; // 跳过此事件，继续处理下一个
+        }
+        if (!credits.acquire()) {
+            recordShed(event, threadName);
+            return true;
+        }
+        CompletableFuture<ProcessingResult> future;
+        try {
+            future = submit(event);
+        } catch (RuntimeException e) {
+            credits.release();
+            throw e;
+        }
+        handleResult(event, future);
+        return true;
+    }
+
+    private CompletableFuture<ProcessingResult> submit(Event event) {
+        return keyOrder == null
+                ? eventProcessorService.processEvent(event)
+                : keyOrder.submit(event, eventProcessorService::processEvent);
+    }
+
+    /**
+     * 批量模式：一次唤醒最多取 batchSize 个事件，整批做黑名单过滤后一次性提交给 EventProcessorService。
+     * batchSize 每次循环都重新读取，ConfigUpdater 的修改会在下一批生效。
+     */
+    private boolean consumeBatch(String threadName) throws InterruptedException {
+        int maxEvents = config.getBatchSize();
+        if (overloadPolicy == InFlightLimiter.OverloadPolicy.THROTTLE) {
+            int capacity = credits.awaitCapacity(500, TimeUnit.MILLISECONDS);
+            if (capacity == 0) {
+                return false;
+            }
+            maxEvents = Math.min(maxEvents, capacity);
+        }
+        List<Event> batch = queue.drainEvents(maxEvents, 500, TimeUnit.MILLISECONDS);
+        if (batch.isEmpty()) {
+            return false;
+        }
+        for (Event event : batch) {
+            metrics.recordQueueWait(event.timestamp());
+        }
+
+        List<Event> accepted = new ArrayList<>(batch.size());
+        StringBuilder filtered = null;
+        int filteredCount = 0;
+        for (Event event : batch) {
+            if (isEventBlacklisted(event)) {
+                if (filtered == null) {
+                    filtered = new StringBuilder();
+                } else {
+                    filtered.append(", ");
+                }
+                filtered.append(event.traceId());
+                filteredCount++;
+            } else {
+                accepted.add(event);
+            }
+        }
+        if (filtered != null) {
+            // 整批只记一次日志，而不是每个被过滤的事件各启动一个日志虚拟线程
+            System.out.println(threadName + " 批次中 " + filteredCount + " 个事件被黑名单过滤: " + filtered);
+            for (int i = 0; i < filteredCount; i++) {
+                metrics.incrementErrorCount();
+            }
+            fileLogger.log("事件[" + filtered + "]被黑名单过滤，线程: " + threadName);
+        }
+
+        List<Event> admitted = new ArrayList<>(accepted.size());
+        for (Event event : accepted) {
+            if (credits.acquire()) {
+                admitted.add(event);
+            } else {
+                recordShed(event, threadName);
+            }
+        }
+
+        if (!admitted.isEmpty() && keyOrder != null) {
+            // 按键有序时逐个提交，批内同键的事件也排在前一个之后
+            for (int i = 0; i < admitted.size(); i++) {
+                CompletableFuture<ProcessingResult> future;
+                try {
+                    future = submit(admitted.get(i));
+                } catch (RuntimeException e) {
+                    for (int j = i; j < admitted.size(); j++) {
+                        credits.release();
+                    }
+                    throw e;
+                }
+                handleResult(admitted.get(i), future);
+            }
+        } else if (!admitted.isEmpty()) {
+            List<CompletableFuture<ProcessingResult>> futures;
+            try {
+                futures = eventProcessorService.processEvents(admitted);
+            } catch (RuntimeException e) {
+                for (int i = 0; i < admitted.size(); i++) {
+                    credits.release();
+                }
+                throw e;
+            }
+            for (int i = 0; i < admitted.size(); i++) {
+                handleResult(admitted.get(i), futures.get(i));
+            }
+        }
+        return true;
+    }
+
+    // SHED 策略下在途已满被丢弃的事件，计为错误
+    private void recordShed(Event event, String threadName) {
+        metrics.incrementErrorCount();
+        System.err.println(threadName + " 在途事件已达上限，丢弃事件: " + event.traceId());
+        fileLogger.log("事件" + event.traceId() + "因在途上限被丢弃，线程: " + threadName);
+    }
+
+    private void handleResult(Event currentEvent, CompletableFuture<ProcessingResult> future) {
+        // 无论成功失败都先归还许可，并记录端到端延迟
+        future.whenComplete((result, ex) -> {
+            credits.release();
+            metrics.recordEndToEndLatency(currentEvent.typeId(), currentEvent.timestamp());
+        });
+        future.thenAccept(result -> {
+                    if (result.success()) {
+                        String callbackThreadName = Thread.currentThread().getName();
+                        metrics.incrementProcessedCount();
+                        metrics.incrementEventCategoryCount(currentEvent.typeId());
+                        System.out.println(Thread.currentThread().getName() + " [异步回调] 成功处理事件: " + currentEvent.traceId());
+                        fileLogger.log("事件"+currentEvent.traceId()+"处理成功，线程: " + callbackThreadName);
+                    } else {
+                        // 4.2 异步回调：处理失败结果
+                        metrics.incrementErrorCount(); // 线程安全更新全局错误计数
+                        System.err.println(Thread.currentThread().getName() + " [异步回调] 处理事件失败: " + currentEvent.traceId() + ". 错误: " + result.errorMessage());
+                        fileLogger.log("事件"+currentEvent.traceId()+"处理失败，错误: " + result.errorMessage() + "，线程: " + Thread.currentThread().getName());
+                    }
+                })
+                .exceptionally(ex -> {
+
+                    metrics.incrementErrorCount();
+                    Throwable actualCause = (ex instanceof CompletionException) ? ex.getCause() : ex; // 获取原始异常
+                    System.err.println(Thread.currentThread().getName() + " [异步回调] 处理事件时发生意外错误: " + currentEvent.traceId() + ". 错误类型: " + actualCause.getClass().getSimpleName() + ". 详细: " + actualCause.getMessage());
+                    actualCause.printStackTrace();
+                    fileLogger.log("事件"+currentEvent.traceId()+"处理异常，错误: " + actualCause.getMessage() + "，线程: " + Thread.currentThread().getName());
+                    return null;
+                });
+    }
+
     /**
      * 检查事件是否在黑名单中
      * 可以根据事件的不同属性进行检查：类型、载荷、或追踪ID
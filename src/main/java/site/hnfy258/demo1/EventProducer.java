@@ -1,14 +1,20 @@
 package site.hnfy258.demo1;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 public class EventProducer implements  Runnable{
+    // 队列满时的退避重试：每次等待时间翻倍，全部失败才算丢弃
+    private static final int MAX_OFFER_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF_MS = 10;
+
     private int success =0;
     private int fail = 0;
-    private EventBufferQueue queue;
+    private int throttled = 0;
+    private EventSink queue;
     private final int number;
+    private final TraceIdGenerator traceIdGenerator = TraceIdGenerator.defaultGenerator();
 
-    public EventProducer(EventBufferQueue queue,int number){
+    public EventProducer(EventSink queue,int number){
         this.queue = queue;
         this.number = number;
     }
@@ -17,22 +23,42 @@ public class EventProducer implements  Runnable{
         for(int i=0;i<number;i++){
             try{
                 Event event = new Event(System.currentTimeMillis(), "type",
-                        "payload-" + i, "traceId-" + System.nanoTime());
-                boolean res = queue.offerEvent(event);
+                        "payload-" + i, traceIdGenerator.next());
+                boolean res = queue.offerEvent(event) || offerWithBackoff(event);
                 if(res){
                     success++;
                 }
                 else{
                     fail++;
+                    System.err.println(Thread.currentThread().getName() + " 队列持续满载，重试 "
+                            + MAX_OFFER_ATTEMPTS + " 次后丢弃事件: " + event.traceId());
                 }
                 Thread.sleep(10);
             }
+            catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                System.err.println(Thread.currentThread().getName() + " 生产者被中断，停止生产。");
+                break;
+            }
             catch (Exception e){
                 e.printStackTrace();
             }
         }
     }
 
+    // 队列满说明下游处理不过来，按指数退避等待队列腾出空间，把压力反映到生产速率上
+    private boolean offerWithBackoff(Event event) throws InterruptedException {
+        long backoff = INITIAL_BACKOFF_MS;
+        for (int attempt = 0; attempt < MAX_OFFER_ATTEMPTS; attempt++) {
+            throttled++;
+            if (queue.offerEvent(event, backoff, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            backoff *= 2;
+        }
+        return false;
+    }
+
     public int getSuccess() {
         return success;
     }
@@ -40,4 +66,9 @@ public class EventProducer implements  Runnable{
     public int getFail() {
         return fail;
     }
+
+    // 因背压而等待的次数
+    public int getThrottled() {
+        return throttled;
+    }
 }
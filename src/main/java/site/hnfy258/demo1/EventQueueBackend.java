@@ -0,0 +1,44 @@
+package site.hnfy258.demo1;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EventBufferQueue 的底层存储。
+ * 语义与 BlockingQueue 对齐：offer 满时立即返回 false，put/take 阻塞，poll 在超时后返回 null，
+ * 阻塞方法在线程被中断时抛出 InterruptedException。
+ */
+public interface EventQueueBackend {
+
+    boolean offer(Event event);
+
+    boolean offer(Event event, long timeout, TimeUnit unit) throws InterruptedException;
+
+    void put(Event event) throws InterruptedException;
+
+    Event poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    Event take() throws InterruptedException;
+
+    // 非阻塞地把最多 maxEvents 个事件转移到 sink，返回实际转移的数量
+    int drainTo(Collection<? super Event> sink, int maxEvents);
+
+    int size();
+
+    int remainingCapacity();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // 原有实现：ArrayBlockingQueue，单锁
+    static EventQueueBackend arrayBlocking(int capacity) {
+        return new BlockingQueueBackend(new ArrayBlockingQueue<>(capacity));
+    }
+
+    // 无锁 MPMC 环形缓冲区，容量会向上取整到 2 的幂
+    static EventQueueBackend ringBuffer(int capacity, WaitStrategy waitStrategy) {
+        return new RingBufferBackend(capacity, waitStrategy);
+    }
+}
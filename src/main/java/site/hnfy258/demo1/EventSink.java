@@ -0,0 +1,16 @@
+package site.hnfy258.demo1;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生产者一侧看到的队列：只负责写入。
+ * EventBufferQueue 直接写入自身，PartitionedEventQueue 先按分区键路由到某个分片再写入。
+ */
+public interface EventSink {
+
+    boolean offerEvent(Event event);
+
+    boolean offerEvent(Event event, long timeout, TimeUnit unit) throws InterruptedException;
+
+    void putEvent(Event event) throws InterruptedException;
+}
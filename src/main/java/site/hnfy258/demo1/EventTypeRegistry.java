@@ -0,0 +1,59 @@
+package site.hnfy258.demo1;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 事件类型注册表：把类型字符串映射为从 0 开始的稠密整数 id，之后按 id 传递和计数。
+ * 注册只在第一次见到某个类型时加锁，之后的 idOf/nameOf 都是无锁读。
+ */
+public final class EventTypeRegistry {
+    private static final EventTypeRegistry GLOBAL = new EventTypeRegistry();
+
+    // null 类型不进注册表，统一用这个 id 表示
+    public static final int NULL_TYPE_ID = -1;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[16];
+    private volatile int size = 0;
+
+    public static EventTypeRegistry global() {
+        return GLOBAL;
+    }
+
+    public int idOf(String type) {
+        if (type == null) {
+            return NULL_TYPE_ID;
+        }
+        Integer id = ids.get(type);
+        return id != null ? id : register(type);
+    }
+
+    // 返回注册时保存的那个 String 实例，不会新建字符串
+    public String nameOf(int id) {
+        if (id == NULL_TYPE_ID) {
+            return null;
+        }
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private synchronized int register(String type) {
+        Integer existing = ids.get(type);
+        if (existing != null) {
+            return existing;
+        }
+        int id = size;
+        String[] current = names;
+        String[] updated = id < current.length ? current : Arrays.copyOf(current, current.length * 2);
+        updated[id] = type;
+        // 先发布名字数组，再把 id 放进 map：拿到 id 的读者一定能看到对应的名字
+        names = updated;
+        size = id + 1;
+        ids.put(type, id);
+        return id;
+    }
+}
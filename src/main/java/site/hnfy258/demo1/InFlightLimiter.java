@@ -0,0 +1,154 @@
+package site.hnfy258.demo1;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在途事件限流器：限制已提交给 EventProcessorService 但还没有完成的事件数量。
+ * 全局许可由所有消费者共享，每个消费者另有自己的许可（Credits），两者都拿到才能提交。
+ * 事件处理完成（无论成功失败）后归还许可。
+ */
+public class InFlightLimiter {
+
+    public enum OverloadPolicy {
+        // 已经取出的事件阻塞等待许可
+        BLOCK,
+        // 拿不到许可直接丢弃事件并计数
+        SHED,
+        // 没有许可时消费者不再从队列取事件，让积压留在队列里，生产者会看到队列变满
+        THROTTLE
+    }
+
+    private final Semaphore globalPermits;
+    private final int globalLimit;
+    private final int perConsumerLimit;
+    private final OverloadPolicy policy;
+    private final LongAdder shedCount = new LongAdder();
+    private final LongAdder blockedCount = new LongAdder();
+
+    public InFlightLimiter(int globalLimit, int perConsumerLimit, OverloadPolicy policy) {
+        if (globalLimit <= 0 || perConsumerLimit <= 0) {
+            throw new IllegalArgumentException("In-flight limits must be greater than 0");
+        }
+        this.globalLimit = globalLimit;
+        this.perConsumerLimit = perConsumerLimit;
+        this.policy = policy;
+        this.globalPermits = new Semaphore(globalLimit);
+    }
+
+    // 不限流，保持原来“取到就提交”的行为
+    public static InFlightLimiter unlimited() {
+        return new InFlightLimiter(Integer.MAX_VALUE, Integer.MAX_VALUE, OverloadPolicy.BLOCK);
+    }
+
+    public Credits newConsumerCredits() {
+        return new Credits(new Semaphore(perConsumerLimit));
+    }
+
+    public OverloadPolicy getPolicy() {
+        return policy;
+    }
+
+    public int getInFlightCount() {
+        return globalLimit - globalPermits.availablePermits();
+    }
+
+    public boolean isSaturated() {
+        return globalPermits.availablePermits() == 0;
+    }
+
+    public long getShedCount() {
+        return shedCount.sum();
+    }
+
+    public long getBlockedCount() {
+        return blockedCount.sum();
+    }
+
+    public void printMetrics() {
+        System.out.println("\n--- In-Flight Limiter ---");
+        System.out.println("Policy: " + policy);
+        System.out.println("In Flight: " + getInFlightCount() + " / " + globalLimit
+                + " (per consumer " + perConsumerLimit + ")");
+        System.out.println("Blocked Acquisitions: " + getBlockedCount());
+        System.out.println("Shed Events: " + getShedCount());
+        System.out.println("-------------------------");
+    }
+
+    /**
+     * 单个消费者持有的许可。不是线程安全地“属于”某个线程，
+     * release 会在异步回调线程上调用，Semaphore 本身保证了这一点是安全的。
+     */
+    public final class Credits {
+        private final Semaphore localPermits;
+
+        private Credits(Semaphore localPermits) {
+            this.localPermits = localPermits;
+        }
+
+        /**
+         * 为一个已经取出的事件申请许可。
+         * 返回 false 表示按 SHED 策略丢弃了该事件，调用方不应再提交它。
+         */
+        public boolean acquire() throws InterruptedException {
+            if (localPermits.tryAcquire()) {
+                if (globalPermits.tryAcquire()) {
+                    return true;
+                }
+                if (policy == OverloadPolicy.SHED) {
+                    localPermits.release();
+                    shedCount.increment();
+                    return false;
+                }
+                blockedCount.increment();
+                try {
+                    globalPermits.acquire();
+                } catch (InterruptedException e) {
+                    localPermits.release();
+                    throw e;
+                }
+                return true;
+            }
+            if (policy == OverloadPolicy.SHED) {
+                shedCount.increment();
+                return false;
+            }
+            blockedCount.increment();
+            localPermits.acquire();
+            try {
+                globalPermits.acquire();
+            } catch (InterruptedException e) {
+                localPermits.release();
+                throw e;
+            }
+            return true;
+        }
+
+        /**
+         * THROTTLE 策略下取事件之前调用：最多等待 timeout，直到本地和全局都有空闲许可。
+         * 只探测不占用，返回当前可以放心取出的事件数（0 表示超时仍没有余量）。
+         */
+        public int awaitCapacity(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (!localPermits.tryAcquire(timeout, unit)) {
+                return 0;
+            }
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                if (!globalPermits.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                    return 0;
+                }
+                globalPermits.release();
+            } finally {
+                localPermits.release();
+            }
+            return Math.max(1, Math.min(localPermits.availablePermits(), globalPermits.availablePermits()));
+        }
+
+        public void release() {
+            globalPermits.release();
+            localPermits.release();
+        }
+    }
+}
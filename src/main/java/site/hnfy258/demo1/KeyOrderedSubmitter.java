@@ -0,0 +1,44 @@
+package site.hnfy258.demo1;
+
+import site.hnfy258.demo3.ProcessingResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 按分区键串行提交事件：同一个键的事件要等前一个事件的处理结果返回（成功、失败或异常都算）之后
+ * 才交给 EventProcessorService，不同键之间仍然并发。分片只保证出队顺序，
+ * 流水线本身是异步的，不这样串起来的话同键事件的校验、转换和存储会交错，存储的先后也就无法保证。
+ * <p>
+ * submit 只由持有该分片的那个消费者线程调用；链尾表的清理发生在结果回调的线程上，所以用 ConcurrentHashMap。
+ * 表里只留着还有事件在处理的键。
+ */
+final class KeyOrderedSubmitter {
+    // PartitionKey 取值为 null 的事件都路由到 0 号分片，也按同一个键排队
+    private static final Object NULL_KEY = new Object();
+
+    private final PartitionKey partitionKey;
+    private final ConcurrentHashMap<Object, CompletableFuture<ProcessingResult>> tails = new ConcurrentHashMap<>();
+
+    KeyOrderedSubmitter(PartitionKey partitionKey) {
+        this.partitionKey = partitionKey;
+    }
+
+    /**
+     * 没有同键事件在处理时直接提交（processor 同步抛出的异常原样抛给调用方）；
+     * 否则排在上一个同键事件之后，此时 processor 的异常体现为返回的 future 异常完成。
+     */
+    CompletableFuture<ProcessingResult> submit(Event event,
+                                               Function<Event, CompletableFuture<ProcessingResult>> processor) {
+        Object key = partitionKey.of(event);
+        Object tailKey = key != null ? key : NULL_KEY;
+        CompletableFuture<ProcessingResult> previous = tails.get(tailKey);
+        CompletableFuture<ProcessingResult> next = previous == null
+                ? processor.apply(event)
+                : previous.handle((result, ex) -> event).thenCompose(processor);
+        tails.put(tailKey, next);
+        next.whenComplete((result, ex) -> tails.remove(tailKey, next));
+        return next;
+    }
+}
@@ -0,0 +1,139 @@
+package site.hnfy258.demo1;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 预分配的无锁多生产者多消费者环形缓冲区（Vyukov 的 sequence-per-slot 算法）。
+ * 每个槽位带一个序号：生产者只在序号等于自己抢到的位置时写入，消费者只在序号等于位置+1 时读取，
+ * 读写游标各自 CAS 推进并做了缓存行填充，生产者之间、消费者之间、生产者与消费者之间都不共享锁。
+ * 本类只提供非阻塞的 offer/poll，等待策略由上层决定。
+ */
+public final class MpmcRingBuffer<E> {
+    private final int capacity;
+    private final int mask;
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+
+    // 生产者游标（下一个要写入的位置）和消费者游标（下一个要读取的位置），分别填充避免伪共享
+    private final PaddedCursor tail = new PaddedCursor();
+    private final PaddedCursor head = new PaddedCursor();
+
+    public MpmcRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        // 容量向上取整到 2 的幂，用位运算代替取模
+        this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.buffer = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException("Element must not be null");
+        }
+        long pos = tail.getVolatile();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.getAcquire(index) - pos;
+            if (diff == 0) {
+                long witness = tail.compareAndExchange(pos, pos + 1);
+                if (witness == pos) {
+                    buffer[index] = element;
+                    // release 写序号，把元素发布给消费者
+                    sequences.setRelease(index, pos + 1);
+                    return true;
+                }
+                pos = witness;
+            } else if (diff < 0) {
+                // 槽位还没被上一轮消费者释放：缓冲区已满
+                return false;
+            } else {
+                pos = tail.getVolatile();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = head.getVolatile();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.getAcquire(index) - (pos + 1);
+            if (diff == 0) {
+                long witness = head.compareAndExchange(pos, pos + 1);
+                if (witness == pos) {
+                    E element = (E) buffer[index];
+                    buffer[index] = null;
+                    // 序号推进一整圈，把槽位交还给下一轮的生产者
+                    sequences.setRelease(index, pos + capacity);
+                    return element;
+                }
+                pos = witness;
+            } else if (diff < 0) {
+                // 槽位还没被生产者发布：缓冲区为空
+                return null;
+            } else {
+                pos = head.getVolatile();
+            }
+        }
+    }
+
+    public int size() {
+        // 先读 head 再读 tail，若期间 head 被推进则重读，保证得到一个不越界的近似值
+        while (true) {
+            long before = head.getVolatile();
+            long currentTail = tail.getVolatile();
+            long after = head.getVolatile();
+            if (before == after) {
+                long size = currentTail - after;
+                return (int) Math.max(0, Math.min(size, capacity));
+            }
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // --- 缓存行填充：父类字段排在子类字段之前，value 两侧各留 56 字节 ---
+    abstract static class LhsPadding {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    abstract static class CursorValue extends LhsPadding {
+        volatile long value;
+    }
+
+    static final class PaddedCursor extends CursorValue {
+        long p11, p12, p13, p14, p15, p16, p17;
+
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(CursorValue.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        long getVolatile() {
+            return value;
+        }
+
+        long compareAndExchange(long expected, long newValue) {
+            return (long) VALUE.compareAndExchange(this, expected, newValue);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package site.hnfy258.demo1;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 开环压测生产者：按固定速率排好每个事件的计划发送时刻，发送节奏不受下游处理快慢影响。
+ * 事件的 timestamp 取计划发送时刻，队列满导致的发送滞后也会计入端到端延迟；
+ * 落后于计划时不补睡，直接连续发送追赶。
+ */
+public class OpenLoopLoadGenerator implements Runnable {
+    private final EventSink queue;
+    private final long intervalNanos;
+    private final long eventCount;
+    private final long startNanos;
+    private final long startEpochMillis;
+    private final TraceIdGenerator traceIdGenerator = TraceIdGenerator.defaultGenerator();
+
+    private long sent = 0;
+    private long maxLagNanos = 0;
+
+    /**
+     * @param eventsPerSecond 本生产者的目标速率
+     * @param phaseNanos      相对 startNanos 的起始偏移，多个生产者错开发送时刻
+     */
+    public OpenLoopLoadGenerator(EventSink queue, double eventsPerSecond, long duration, TimeUnit unit,
+                                 long startNanos, long startEpochMillis, long phaseNanos) {
+        if (eventsPerSecond <= 0) {
+            throw new IllegalArgumentException("eventsPerSecond must be positive: " + eventsPerSecond);
+        }
+        this.queue = queue;
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / eventsPerSecond));
+        this.eventCount = Math.max(1, unit.toNanos(duration) / intervalNanos);
+        this.startNanos = startNanos + phaseNanos;
+        this.startEpochMillis = startEpochMillis + TimeUnit.NANOSECONDS.toMillis(phaseNanos);
+    }
+
+    @Override
+    public void run() {
+        for (long i = 0; i < eventCount; i++) {
+            long intendedOffset = i * intervalNanos;
+            long intendedNanos = startNanos + intendedOffset;
+            long now;
+            while ((now = System.nanoTime()) < intendedNanos) {
+                LockSupport.parkNanos(intendedNanos - now);
+            }
+            maxLagNanos = Math.max(maxLagNanos, now - intendedNanos);
+            Event event = new Event(startEpochMillis + TimeUnit.NANOSECONDS.toMillis(intendedOffset), "type",
+                    "payload-" + i, traceIdGenerator.next());
+            try {
+                queue.putEvent(event);
+                sent++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println(Thread.currentThread().getName() + " 压测生产者被中断，已发送 " + sent + " 个事件。");
+                return;
+            }
+        }
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    // 实际发送时刻相对计划时刻的最大滞后
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+}
@@ -0,0 +1,26 @@
+package site.hnfy258.demo1;
+
+// PartitionedEventQueue 的路由字段，同一个键的事件总是进入同一个分片；
+// EventConsumer 以它为 orderingKey 时，同键事件按出队顺序逐个处理
+public enum PartitionKey {
+    TYPE {
+        @Override
+        public Object of(Event event) {
+            return event.type();
+        }
+    },
+    TRACE_ID {
+        @Override
+        public Object of(Event event) {
+            return event.traceId();
+        }
+    },
+    PAYLOAD {
+        @Override
+        public Object of(Event event) {
+            return event.payload();
+        }
+    };
+
+    public abstract Object of(Event event);
+}
@@ -0,0 +1,203 @@
+package site.hnfy258.demo1;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 按分区键哈希分片的事件队列。每个分片是一个独立的 EventBufferQueue，交给一个消费者独占，
+ * 消费者之间不再争用同一把锁，同一个键的事件只会被同一个消费者按入队顺序取出。
+ * 取出之后的处理是异步的，要让同键事件按顺序处理完，消费者还需要用 getOrderingKey() 构造 EventConsumer，
+ * 让同键的下一个事件等前一个的结果返回后再提交。
+ *
+ * 可选的工作窃取：分片自己空闲时，从积压不少于 stealThreshold 的其它分片偷取事件。
+ * 被偷走的事件会和原分片上同键的后续事件并发处理，所以开启窃取后不再保证按键有序，getOrderingKey() 返回 null。
+ */
+public class PartitionedEventQueue implements EventSink {
+    // 窃取时每轮等待自己分片的时长，期间有机会再去看其它分片
+    private static final long STEAL_WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final PartitionKey partitionKey;
+    private final EventQueueBackend[] backends;
+    private final EventBufferQueue[] shards;
+    private final boolean workStealing;
+    private final int stealThreshold;
+
+    public PartitionedEventQueue(int shardCount, int shardCapacity, PartitionKey partitionKey) {
+        this(shardCount, () -> EventQueueBackend.arrayBlocking(shardCapacity), partitionKey, false, 0);
+    }
+
+    public PartitionedEventQueue(int shardCount,
+                                 Supplier<EventQueueBackend> backendFactory,
+                                 PartitionKey partitionKey,
+                                 boolean workStealing,
+                                 int stealThreshold) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be greater than 0");
+        }
+        this.partitionKey = partitionKey;
+        this.workStealing = workStealing;
+        this.stealThreshold = Math.max(1, stealThreshold);
+        this.backends = new EventQueueBackend[shardCount];
+        this.shards = new EventBufferQueue[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            backends[i] = backendFactory.get();
+        }
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new EventBufferQueue(workStealing ? new StealingShardBackend(i) : backends[i]);
+        }
+    }
+
+    // 第 index 个分片，交给对应的消费者使用
+    public EventBufferQueue shard(int index) {
+        return shards[index];
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    // 各分片能保证有序的键；开启工作窃取时为 null
+    public PartitionKey getOrderingKey() {
+        return workStealing ? null : partitionKey;
+    }
+
+    public int shardFor(Event event) {
+        Object key = partitionKey.of(event);
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        // 与 HashMap 相同的扰动，让高位也参与分片选择
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
+    }
+
+    @Override
+    public boolean offerEvent(Event event) {
+        return shards[shardFor(event)].offerEvent(event);
+    }
+
+    @Override
+    public boolean offerEvent(Event event, long timeout, TimeUnit unit) throws InterruptedException {
+        return shards[shardFor(event)].offerEvent(event, timeout, unit);
+    }
+
+    @Override
+    public void putEvent(Event event) throws InterruptedException {
+        shards[shardFor(event)].putEvent(event);
+    }
+
+    public void markProductionComplete() {
+        for (EventBufferQueue shard : shards) {
+            shard.markProductionComplete();
+        }
+    }
+
+    public int size() {
+        int total = 0;
+        for (EventBufferQueue shard : shards) {
+            total += shard.size();
+        }
+        return total;
+    }
+
+    public long getRejectedOfferCount() {
+        long total = 0;
+        for (EventBufferQueue shard : shards) {
+            total += shard.getRejectedOfferCount();
+        }
+        return total;
+    }
+
+    // 按顺序检查其它分片，从第一个积压达到阈值的分片偷一个事件放进 sink
+    private boolean trySteal(int thief, Collection<? super Event> sink) {
+        for (int i = 1; i < backends.length; i++) {
+            int victim = (thief + i) % backends.length;
+            if (backends[victim].size() >= stealThreshold && backends[victim].drainTo(sink, 1) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 分片视图：写入和读取都走自己的后端，只有自己为空时才去别的分片窃取。
+     */
+    private final class StealingShardBackend implements EventQueueBackend {
+        private final int index;
+        private final EventQueueBackend own;
+
+        private StealingShardBackend(int index) {
+            this.index = index;
+            this.own = backends[index];
+        }
+
+        @Override
+        public boolean offer(Event event) {
+            return own.offer(event);
+        }
+
+        @Override
+        public boolean offer(Event event, long timeout, TimeUnit unit) throws InterruptedException {
+            return own.offer(event, timeout, unit);
+        }
+
+        @Override
+        public void put(Event event) throws InterruptedException {
+            own.put(event);
+        }
+
+        @Override
+        public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            List<Event> stolen = new ArrayList<>(1);
+            while (true) {
+                Event event = own.poll(0, TimeUnit.NANOSECONDS);
+                if (event != null) {
+                    return event;
+                }
+                if (trySteal(index, stolen)) {
+                    return stolen.remove(0);
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                event = own.poll(Math.min(remaining, STEAL_WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS);
+                if (event != null) {
+                    return event;
+                }
+            }
+        }
+
+        @Override
+        public Event take() throws InterruptedException {
+            Event event;
+            while ((event = poll(STEAL_WAIT_SLICE_NANOS, TimeUnit.NANOSECONDS)) == null) {
+                // 继续在自己的分片和其它分片之间轮询
+            }
+            return event;
+        }
+
+        @Override
+        public int drainTo(Collection<? super Event> sink, int maxEvents) {
+            int drained = own.drainTo(sink, maxEvents);
+            if (drained == 0 && trySteal(index, sink)) {
+                drained = 1;
+            }
+            return drained;
+        }
+
+        @Override
+        public int size() {
+            return own.size();
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return own.remainingCapacity();
+        }
+    }
+}
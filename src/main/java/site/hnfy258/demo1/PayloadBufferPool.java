@@ -0,0 +1,54 @@
+package site.hnfy258.demo1;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 定长槽位的堆外缓冲池：启动时一次性分配一整块 direct 内存并切成 slotSize 大小的槽位，
+ * 空闲槽位放在无锁环形缓冲区里。超过槽位大小或池已耗尽时退化为一次性的堆内缓冲，不归还。
+ */
+public final class PayloadBufferPool {
+    private final int slotSize;
+    private final MpmcRingBuffer<ByteBuffer> freeSlots;
+    private final LongAdder misses = new LongAdder();
+
+    public PayloadBufferPool(int slotCount, int slotSize) {
+        this.slotSize = slotSize;
+        this.freeSlots = new MpmcRingBuffer<>(slotCount);
+        ByteBuffer region = ByteBuffer.allocateDirect(Math.multiplyExact(slotCount, slotSize));
+        for (int i = 0; i < slotCount; i++) {
+            freeSlots.offer(region.slice(i * slotSize, slotSize));
+        }
+    }
+
+    public ByteBuffer acquire(int size) {
+        if (size <= slotSize) {
+            ByteBuffer slot = freeSlots.poll();
+            if (slot != null) {
+                slot.clear();
+                return slot;
+            }
+        }
+        misses.increment();
+        return ByteBuffer.allocate(size);
+    }
+
+    public void release(ByteBuffer buffer) {
+        // 只有池里切出来的槽位才归还，退化分配的堆内缓冲交给 GC
+        if (buffer.isDirect() && buffer.capacity() == slotSize) {
+            freeSlots.offer(buffer);
+        }
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public int getFreeSlots() {
+        return freeSlots.size();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+}
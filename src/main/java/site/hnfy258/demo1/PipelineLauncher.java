@@ -3,30 +3,101 @@ package site.hnfy258.demo1;
 import site.hnfy258.demo2.ConfigUpdater;
 import site.hnfy258.demo2.DynamicProcessingConfig;
 import site.hnfy258.demo2.EventMetrics;
+import site.hnfy258.demo2.MetricsReporter;
+import site.hnfy258.demo2.PrometheusEndpoint;
+import site.hnfy258.demo3.CoalescingExternalService;
 import site.hnfy258.demo3.EventProcessorService;
+import site.hnfy258.demo3.ExternalService;
+import site.hnfy258.demo3.GeoEnricher;
+import site.hnfy258.demo3.HedgingExternalService;
+import site.hnfy258.demo3.InstrumentedExternalService;
 import site.hnfy258.demo3.MockExternalService;
+import site.hnfy258.demo3.NotificationStage;
+import site.hnfy258.demo3.ResilientExternalService;
+import site.hnfy258.demo3.ServiceExecutionMode;
+import site.hnfy258.demo3.StorageStage;
+import site.hnfy258.demo3.StructuredEventPipeline;
+import site.hnfy258.demo3.TransformationStage;
+import site.hnfy258.demo3.ValidationStage;
+import site.hnfy258.demo3.model.DependencyModel;
+import site.hnfy258.demo3.pipeline.EventPipeline;
+import site.hnfy258.demo3.pipeline.RetryBudget;
+import site.hnfy258.demo3.pipeline.StageStats;
+import site.hnfy258.demo3.pipeline.StagedPipeline;
 import site.hnfy258.demo4.ConcurrentBlocklist;
 import site.hnfy258.demo4.VirtualThreadFileLogger;
+import site.hnfy258.demo4.store.EventLogStore;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.function.IntSupplier;
 
 public class PipelineLauncher {
+    private static final int SPILL_SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final long MAX_SPILL_BYTES = 1024L * 1024 * 1024;
+    // 分片模式下，其它分片积压达到这个数量才允许窃取
+    private static final int STEAL_THRESHOLD = 4;
+    private static final int COMPACT_PAYLOAD_SLOT_SIZE = 256;
+
     public static void main(String[] args) {
-        EventBufferQueue eventBufferQueue = new EventBufferQueue();
-        final int EVENT_PER_CONSUMER = 100;
-        final int PRODUCER_COUNT = 5;
-        final int CONSUMER_COUNT = 10;
+        String unsupported = unsupportedCompactOptions();
+        if (unsupported != null) {
+            System.err.println("-Dpipeline.event.encoding=compact cannot be combined with " + unsupported
+                    + "; CompactEventConsumer only consumes one event at a time from a single in-memory queue");
+            return;
+        }
+        // 存储服务写入 -Dpipeline.store.dir 下的本地日志引擎，重启后已存储的事件仍可按 traceId 查到
+        EventLogStore eventLogStore;
+        try {
+            eventLogStore = new EventLogStore(Path.of(System.getProperty("pipeline.store.dir", "event-store")),
+                    Integer.getInteger("pipeline.store.segmentBytes", EventLogStore.DEFAULT_SEGMENT_BYTES),
+                    EventLogStore.DEFAULT_COMPACTION_LIVE_RATIO);
+        } catch (IOException e) {
+            System.err.println("Failed to open event log store: " + e.getMessage());
+            return;
+        }
+        EventQueueBackend queueBackend = createQueueBackend();
+        EventBufferQueue eventBufferQueue = new EventBufferQueue(queueBackend);
+        // -Dpipeline.producer.count / -Dpipeline.producer.events 调整生产者数量和每个生产者的事件数
+        final int EVENT_PER_CONSUMER = Integer.getInteger("pipeline.producer.events", 100);
+        final int PRODUCER_COUNT = Integer.getInteger("pipeline.producer.count", 5);
+        // -Dpipeline.load.rate=<events/s> 开启开环压测：生产者按总速率均分、错开发送，
+        // 持续 -Dpipeline.load.durationSeconds 秒，此时忽略 pipeline.producer.events
+        final double LOAD_RATE = Double.parseDouble(System.getProperty("pipeline.load.rate", "0"));
+        final long LOAD_DURATION_SECONDS = Long.getLong("pipeline.load.durationSeconds", 30);
+        // -Dpipeline.consumer.count 调整消费者数量，虚拟线程模式下可以开到上千个
+        final int CONSUMER_COUNT = Integer.getInteger("pipeline.consumer.count", 10);
 
         ExecutorService producerExecutor = Executors.newFixedThreadPool(PRODUCER_COUNT);
         List<Future<?>> producersFutures = new ArrayList<>();
         List<EventProducer> producers = new ArrayList<>();
+        List<OpenLoopLoadGenerator> loadGenerators = new ArrayList<>();
 
-        EventMetrics eventMetrics = new EventMetrics(new ConcurrentHashMap<>());
+        // -Dpipeline.queue.partitionBy=type|trace_id|payload 时按键分片，每个消费者独占一个分片，同键事件按顺序逐个处理；
+        // -Dpipeline.queue.workStealing=true 允许空闲分片从其它分片窃取（不再保证按键有序）
+        PartitionedEventQueue partitionedQueue = createPartitionedQueue(CONSUMER_COUNT);
+        // -Dpipeline.event.encoding=compact 时队列中存放 CompactEvent（类型 id + 二进制 traceId + 堆外 payload）
+        CompactEventQueue compactQueue = createCompactQueue();
+        EventSink producerSink = compactQueue != null ? compactQueue
+                : partitionedQueue != null ? partitionedQueue : eventBufferQueue;
+
+        EventMetrics eventMetrics = new EventMetrics();
 
         DynamicProcessingConfig config = new DynamicProcessingConfig();
+        // 处理开关翻转时打印一行，不需要轮询配置
+        config.addChangeListener((oldConfig, newConfig) -> {
+            if (oldConfig.processingEnabled() != newConfig.processingEnabled()) {
+                System.out.println("Config v" + newConfig.version() + ": processing "
+                        + (newConfig.processingEnabled() ? "resumed" : "paused"));
+            }
+        });
 
         // 初始化黑名单，添加一些会被生产者实际生产的黑名单项
         // 不阻止所有事件，而是阻止特定的载荷，这样可以看到过滤效果
@@ -54,33 +125,142 @@ public class PipelineLauncher {
         ConfigUpdater configUpdater = new ConfigUpdater(config);
         configUpdaterExecutor.submit(configUpdater);
 
-        MockExternalService service = new MockExternalService();
-        EventProcessorService processorService = new EventProcessorService(service,blackList);
+        // -Dpipeline.service.coalesce=true 时把并发的单事件服务调用合并成批量往返，
+        // 窗口由 -Dpipeline.service.batchSize 和 -Dpipeline.service.batchDelayMs 控制
+        // -Dpipeline.service.profile=<文件> 加载依赖模型（延迟分布、失败率、故障窗口），
+        // -Dpipeline.service.seed 覆盖随机种子，便于同一配置下对比不同的流水线改动
+        DependencyModel dependencyModel = createDependencyModel();
+        if (dependencyModel == null) {
+            return;
+        }
+        System.out.println("Dependency model: " + dependencyModel);
+        // -Dpipeline.service.executor=pooled|virtual 选择模拟调用的线程模型
+        ServiceExecutionMode executionMode = ServiceExecutionMode.valueOf(
+                System.getProperty("pipeline.service.executor", "pooled").toUpperCase());
+        MockExternalService mockService = new MockExternalService(eventLogStore, dependencyModel, executionMode);
+        ExternalService service = mockService;
+        // -Dpipeline.service.resilience=true 时每个依赖前加熔断器和自适应并发上限，
+        // 初始/最大上限由 -Dpipeline.service.limit.initial / -Dpipeline.service.limit.max 设置
+        ResilientExternalService resilientService = null;
+        if (Boolean.getBoolean("pipeline.service.resilience")) {
+            resilientService = new ResilientExternalService(service,
+                    Integer.getInteger("pipeline.service.limit.initial", 20),
+                    Integer.getInteger("pipeline.service.limit.max", 200));
+            service = resilientService;
+            System.out.println("Guarding external dependencies with circuit breakers and adaptive limits");
+        }
+        CoalescingExternalService coalescingService = null;
+        if (Boolean.getBoolean("pipeline.service.coalesce")) {
+            coalescingService = new CoalescingExternalService(service,
+                    Integer.getInteger("pipeline.service.batchSize", 32),
+                    Long.getLong("pipeline.service.batchDelayMs", 5), TimeUnit.MILLISECONDS);
+            service = coalescingService;
+            System.out.println("Coalescing external service calls into batches");
+        }
+        // -Dpipeline.service.hedge=true 时对幂等调用做对冲请求：超过 -Dpipeline.service.hedgePercentile 分位延迟仍未返回就再发一次，
+        // 对冲次数不超过调用数的 -Dpipeline.service.hedgeMaxRatio
+        HedgingExternalService hedgingService = null;
+        if (Boolean.getBoolean("pipeline.service.hedge")) {
+            hedgingService = new HedgingExternalService(service,
+                    Double.parseDouble(System.getProperty("pipeline.service.hedgePercentile", "95")),
+                    Double.parseDouble(System.getProperty("pipeline.service.hedgeMaxRatio", "0.1")));
+            service = hedgingService;
+            System.out.println("Hedging idempotent external service calls");
+        }
+        // 最外层按操作记录每次调用的往返时间，看到的是流水线实际等待的时间
+        service = new InstrumentedExternalService(service, eventMetrics);
+        // -Dpipeline.geo.enabled=false 关闭地理位置补全
+        GeoEnricher geoEnricher = Boolean.parseBoolean(System.getProperty("pipeline.geo.enabled", "true"))
+                ? new GeoEnricher(service) : null;
+        EventPipeline pipeline = createPipeline(service, geoEnricher);
+        // -Dpipeline.idempotency.capacity 设置幂等结果表能记住的 traceId 数量
+        EventProcessorService processorService = new EventProcessorService(blackList, pipeline,
+                EventProcessorService.idempotencyStore(
+                        Integer.getInteger("pipeline.idempotency.capacity", EventProcessorService.DEFAULT_IDEMPOTENCY_CAPACITY),
+                        EventProcessorService.DEFAULT_IDEMPOTENCY_TTL_MINUTES));
 
         // 初始化文件日志器
         VirtualThreadFileLogger fileLogger = new VirtualThreadFileLogger();
 
         System.out.println("Starting producers...");
-        for(int i=0;i<PRODUCER_COUNT;i++){
-            EventProducer producer = new EventProducer(eventBufferQueue, EVENT_PER_CONSUMER);
-            producers.add(producer);
-            producersFutures.add(producerExecutor.submit(producer));
+        long runStartNanos = System.nanoTime();
+        if (LOAD_RATE > 0) {
+            System.out.println("Open-loop load: " + LOAD_RATE + " events/s for " + LOAD_DURATION_SECONDS + "s across "
+                    + PRODUCER_COUNT + " producers");
+            double ratePerProducer = LOAD_RATE / PRODUCER_COUNT;
+            long producerIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerProducer);
+            long startEpochMillis = System.currentTimeMillis();
+            for (int i = 0; i < PRODUCER_COUNT; i++) {
+                OpenLoopLoadGenerator generator = new OpenLoopLoadGenerator(producerSink, ratePerProducer,
+                        LOAD_DURATION_SECONDS, TimeUnit.SECONDS, runStartNanos, startEpochMillis,
+                        producerIntervalNanos * i / PRODUCER_COUNT);
+                loadGenerators.add(generator);
+                producersFutures.add(producerExecutor.submit(generator));
+            }
+        } else {
+            for(int i=0;i<PRODUCER_COUNT;i++){
+                EventProducer producer = new EventProducer(producerSink, EVENT_PER_CONSUMER);
+                producers.add(producer);
+                producersFutures.add(producerExecutor.submit(producer));
+            }
+        }
+
+        // -Dpipeline.consumer.mode=single|batch，批量模式按 DynamicProcessingConfig.batchSize 取事件
+        ConsumptionMode consumptionMode = ConsumptionMode.valueOf(
+                System.getProperty("pipeline.consumer.mode", "single").toUpperCase());
+
+        // 在途事件上限：-Dpipeline.inflight.global / -Dpipeline.inflight.perConsumer / -Dpipeline.inflight.policy=block|shed|throttle
+        InFlightLimiter inFlightLimiter = new InFlightLimiter(
+                Integer.getInteger("pipeline.inflight.global", 200),
+                Integer.getInteger("pipeline.inflight.perConsumer", 50),
+                InFlightLimiter.OverloadPolicy.valueOf(
+                        System.getProperty("pipeline.inflight.policy", "block").toUpperCase()));
+
+        // 运行期间的速率和饱和度：每秒汇总一次，每 -Dpipeline.metrics.printIntervalSeconds 秒打印一行（0 关闭），
+        // Prometheus 文本格式在 http://127.0.0.1:<-Dpipeline.metrics.port>/metrics（默认 9464，0 关闭）
+        MetricsReporter metricsReporter = new MetricsReporter(eventMetrics, 1, TimeUnit.SECONDS,
+                Integer.getInteger("pipeline.metrics.printIntervalSeconds", 5));
+        IntSupplier queueDepth = compactQueue != null ? compactQueue::size
+                : partitionedQueue != null ? partitionedQueue::size : eventBufferQueue::size;
+        metricsReporter.gauge("pipeline_queue_depth", "Events waiting in the consumer queue.", queueDepth::getAsInt);
+        metricsReporter.gauge("pipeline_in_flight_events", "Events submitted to the processor and not yet completed.",
+                inFlightLimiter::getInFlightCount);
+        if (pipeline instanceof StagedPipeline stagedPipeline) {
+            for (StageStats stageStats : stagedPipeline.getStageStats()) {
+                metricsReporter.gauge("pipeline_stage_queue_depth", "Events waiting for a stage's concurrency slot.",
+                        "stage", stageStats.getName(), stageStats::getQueueDepth);
+                metricsReporter.gauge("pipeline_stage_in_flight", "Events currently inside a stage.",
+                        "stage", stageStats.getName(), stageStats::getInFlight);
+            }
         }
+        metricsReporter.start();
+        PrometheusEndpoint metricsEndpoint = startMetricsEndpoint(metricsReporter,
+                Integer.getInteger("pipeline.metrics.port", 9464));
 
-        ExecutorService consumersExecutor = Executors.newFixedThreadPool(CONSUMER_COUNT);
+        // -Dpipeline.consumer.runtime=platform|virtual
+        ConsumerRuntime consumerRuntime = ConsumerRuntime.valueOf(
+                System.getProperty("pipeline.consumer.runtime", "platform").toUpperCase());
+        System.out.println("Starting " + CONSUMER_COUNT + " consumers on " + consumerRuntime + " threads");
+        ExecutorService consumersExecutor = consumerRuntime.newExecutor(CONSUMER_COUNT);
         List<Future<?>> consumerFutures = new ArrayList<>();
-        List<EventConsumer> consumers = new ArrayList<>();
+        List<Runnable> consumers = new ArrayList<>();
 
         // 创建消费者时传入黑名单
         for (int i = 0; i < CONSUMER_COUNT; i++) {
-            EventConsumer consumer = new EventConsumer(
-                eventBufferQueue,
-                eventMetrics,
-                config,
-                processorService,
-                fileLogger,
-                blackList  // 传入黑名单
-            );
+            Runnable consumer = compactQueue != null
+                ? new CompactEventConsumer(compactQueue, eventMetrics, config, processorService,
+                        fileLogger, blackList, inFlightLimiter)
+                : new EventConsumer(
+                    partitionedQueue != null ? partitionedQueue.shard(i) : eventBufferQueue,
+                    eventMetrics,
+                    config,
+                    processorService,
+                    fileLogger,
+                    blackList,  // 传入黑名单
+                    consumptionMode,
+                    inFlightLimiter,
+                    partitionedQueue != null ? partitionedQueue.getOrderingKey() : null
+                );
             consumers.add(consumer);
             consumerFutures.add(consumersExecutor.submit(consumer));
         }
@@ -90,7 +270,7 @@ public class PipelineLauncher {
         System.out.println("Producers started shutdown");
 
         try{
-            if(!producerExecutor.awaitTermination(1, TimeUnit.MINUTES)){
+            if(!producerExecutor.awaitTermination(LOAD_RATE > 0 ? LOAD_DURATION_SECONDS + 60 : 60, TimeUnit.SECONDS)){
                 producerExecutor.shutdownNow();
             }
             else{
@@ -104,6 +284,12 @@ public class PipelineLauncher {
 
         // 标记生产完成，让消费者知道不会再有新事件
         eventBufferQueue.markProductionComplete();
+        if (partitionedQueue != null) {
+            partitionedQueue.markProductionComplete();
+        }
+        if (compactQueue != null) {
+            compactQueue.markProductionComplete();
+        }
         System.out.println("Production marked as complete");
 
         // 关闭消费者执行器
@@ -122,6 +308,22 @@ public class PipelineLauncher {
             System.err.println("Consumers interrupted during shutdown");
         }
 
+        // 消费者退出时最后一批事件可能还在异步处理中，等它们返回后再统计延迟和吞吐
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlightLimiter.getInFlightCount() > 0 && System.nanoTime() < drainDeadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        long runElapsedNanos = System.nanoTime() - runStartNanos;
+        if (metricsEndpoint != null) {
+            metricsEndpoint.close();
+        }
+        metricsReporter.close();
+
         // 关闭配置更新器
         configUpdaterExecutor.shutdown();
         try{
@@ -135,6 +337,205 @@ public class PipelineLauncher {
             System.err.println("Config updater interrupted during shutdown");
         }
 
+        int throttled = 0;
+        int dropped = 0;
+        for (EventProducer producer : producers) {
+            throttled += producer.getThrottled();
+            dropped += producer.getFail();
+        }
+        System.out.println("Producer backpressure waits: " + throttled + ", dropped events: " + dropped
+                + ", rejected offers: " + (compactQueue != null ? compactQueue.getRejectedOfferCount()
+                        : partitionedQueue != null ? partitionedQueue.getRejectedOfferCount()
+                        : eventBufferQueue.getRejectedOfferCount()));
+        if (!loadGenerators.isEmpty()) {
+            long sent = 0;
+            long expected = 0;
+            long maxLagNanos = 0;
+            for (OpenLoopLoadGenerator generator : loadGenerators) {
+                sent += generator.getSent();
+                expected += generator.getEventCount();
+                maxLagNanos = Math.max(maxLagNanos, generator.getMaxLagNanos());
+            }
+            System.out.println("Load generator sent " + sent + "/" + expected + " events, max schedule lag: "
+                    + TimeUnit.NANOSECONDS.toMillis(maxLagNanos) + "ms");
+        }
+        inFlightLimiter.printMetrics();
+        pipeline.printStageStats();
+        mockService.printExecutorMetrics();
+        printRuntimeFootprint();
+        processorService.printDeduplicationMetrics();
+        if (geoEnricher != null) {
+            geoEnricher.printMetrics();
+        }
+        if (resilientService != null) {
+            resilientService.printMetrics();
+        }
+        if (coalescingService != null) {
+            coalescingService.printMetrics();
+        }
+        if (hedgingService != null) {
+            hedgingService.printMetrics();
+        }
+        if (queueBackend instanceof DiskSpillBackend spillBackend) {
+            spillBackend.printSpillMetrics();
+            try {
+                spillBackend.close();
+            } catch (IOException e) {
+                System.err.println("Failed to clean up spill segments: " + e.getMessage());
+            }
+        }
+        dependencyModel.printMetrics();
+        mockService.getTransformedDataCache().cleanUp();
+        System.out.println("Stored data cache: " + mockService.getTransformedDataCache().stats());
+        eventLogStore.printMetrics();
+        eventLogStore.close();
         eventMetrics.printMetrics();
+        eventMetrics.printLatencyReport(runElapsedNanos);
+    }
+
+    // 端口被占用等情况下只打印警告，不影响流水线运行
+    private static PrometheusEndpoint startMetricsEndpoint(MetricsReporter reporter, int port) {
+        if (port <= 0) {
+            return null;
+        }
+        try {
+            PrometheusEndpoint endpoint = new PrometheusEndpoint(reporter, port);
+            System.out.println("Serving metrics at http://127.0.0.1:" + endpoint.getPort() + "/metrics");
+            return endpoint;
+        } catch (IOException e) {
+            System.err.println("Failed to start metrics endpoint on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // 平台线程数（虚拟线程不计入）和堆占用，用于对比不同执行模式
+    private static void printRuntimeFootprint() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        System.out.println("Runtime: platform threads live=" + threads.getThreadCount()
+                + " peak=" + threads.getPeakThreadCount()
+                + ", heap used=" + heap.getUsed() / (1024 * 1024) + "MB / committed=" + heap.getCommitted() / (1024 * 1024) + "MB");
+    }
+
+    private static DependencyModel createDependencyModel() {
+        DependencyModel model = DependencyModel.defaults(DependencyModel.DEFAULT_SEED);
+        String profile = System.getProperty("pipeline.service.profile");
+        if (profile != null) {
+            try {
+                model = DependencyModel.load(Path.of(profile));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to load dependency profile " + profile + ": " + e.getMessage());
+                return null;
+            }
+        }
+        Long seed = Long.getLong("pipeline.service.seed");
+        return seed == null ? model : model.withSeed(seed);
+    }
+
+    // 队列后端通过 -Dpipeline.queue.backend=array|ring 和 -Dpipeline.queue.wait=busy_spin|yield|park 选择，
+    // -Dpipeline.queue.overflow=spill 时内存满后溢出到 -Dpipeline.queue.spillDir 下的映射文件
+    private static EventQueueBackend createQueueBackend() {
+        EventQueueBackend backend = createMemoryBackend(EventBufferQueue.DEFAULT_CAPACITY);
+
+        if ("spill".equalsIgnoreCase(System.getProperty("pipeline.queue.overflow", "drop"))) {
+            Path spillDir = Path.of(System.getProperty("pipeline.queue.spillDir",
+                    Path.of(System.getProperty("java.io.tmpdir"), "event-spill").toString()));
+            try {
+                backend = new DiskSpillBackend(backend, spillDir, SPILL_SEGMENT_SIZE, MAX_SPILL_BYTES);
+                System.out.println("Queue overflow spills to disk: " + spillDir);
+            } catch (IOException e) {
+                System.err.println("Failed to initialize disk spill, falling back to in-memory queue: " + e.getMessage());
+            }
+        }
+        return backend;
+    }
+
+    private static EventQueueBackend createMemoryBackend(int capacity) {
+        String backendType = System.getProperty("pipeline.queue.backend", "array");
+        if ("ring".equalsIgnoreCase(backendType)) {
+            WaitStrategy waitStrategy = WaitStrategy.valueOf(
+                    System.getProperty("pipeline.queue.wait", "park").toUpperCase());
+            return EventQueueBackend.ringBuffer(capacity, waitStrategy);
+        }
+        return EventQueueBackend.arrayBlocking(capacity);
+    }
+
+    // 每个阶段的并发上限：-Dpipeline.stage.<validation|transformation|storage|notification>.concurrency，
+    // 输入队列容量：-Dpipeline.stage.queueCapacity；-Dpipeline.deadline.budgetMs 为每个事件的总时间预算（0 表示不限时）；
+    // 重试：-Dpipeline.retry.maxAttempts（1 表示不重试）/ baseDelayMs / maxDelayMs / budgetRatio
+    // -Dpipeline.processor=structured 时改用结构化并发版本（每个事件一个虚拟线程，校验和转换并发），
+    // 此时只有 -Dpipeline.deadline.budgetMs 生效
+    private static EventPipeline createPipeline(ExternalService service, GeoEnricher geoEnricher) {
+        long budgetMs = Long.getLong("pipeline.deadline.budgetMs", 0);
+        if ("structured".equalsIgnoreCase(System.getProperty("pipeline.processor", "staged"))) {
+            System.out.println("Processing events with the structured-concurrency pipeline");
+            return new StructuredEventPipeline(service, geoEnricher, budgetMs, TimeUnit.MILLISECONDS);
+        }
+        int queueCapacity = Integer.getInteger("pipeline.stage.queueCapacity",
+                EventProcessorService.DEFAULT_STAGE_QUEUE_CAPACITY);
+        return StagedPipeline.builder()
+                .eventBudget(budgetMs, TimeUnit.MILLISECONDS)
+                .retry(EventProcessorService.retryPolicy(
+                                Integer.getInteger("pipeline.retry.maxAttempts", EventProcessorService.DEFAULT_RETRY_MAX_ATTEMPTS),
+                                Long.getLong("pipeline.retry.baseDelayMs", EventProcessorService.DEFAULT_RETRY_BASE_DELAY_MS),
+                                Long.getLong("pipeline.retry.maxDelayMs", EventProcessorService.DEFAULT_RETRY_MAX_DELAY_MS)),
+                        new RetryBudget(Double.parseDouble(System.getProperty("pipeline.retry.budgetRatio",
+                                String.valueOf(EventProcessorService.DEFAULT_RETRY_BUDGET_RATIO))),
+                                EventProcessorService.DEFAULT_RETRY_BUDGET_TOKENS))
+                .stage(new ValidationStage(service, geoEnricher), Integer.getInteger("pipeline.stage.validation.concurrency",
+                        EventProcessorService.DEFAULT_VALIDATION_CONCURRENCY), queueCapacity)
+                .stage(new TransformationStage(service), Integer.getInteger("pipeline.stage.transformation.concurrency",
+                        EventProcessorService.DEFAULT_TRANSFORMATION_CONCURRENCY), queueCapacity)
+                .stage(new StorageStage(service), Integer.getInteger("pipeline.stage.storage.concurrency",
+                        EventProcessorService.DEFAULT_STORAGE_CONCURRENCY), queueCapacity)
+                .stage(new NotificationStage(service), Integer.getInteger("pipeline.stage.notification.concurrency",
+                        EventProcessorService.DEFAULT_NOTIFICATION_CONCURRENCY), queueCapacity)
+                .build();
+    }
+
+    // 紧凑编码只有 CompactEventConsumer 这一条消费路径，它不支持的选项在启动时报错，而不是悄悄忽略
+    private static String unsupportedCompactOptions() {
+        if (!"compact".equalsIgnoreCase(System.getProperty("pipeline.event.encoding", "record"))) {
+            return null;
+        }
+        List<String> options = new ArrayList<>();
+        if (!"single".equalsIgnoreCase(System.getProperty("pipeline.consumer.mode", "single"))) {
+            options.add("-Dpipeline.consumer.mode=" + System.getProperty("pipeline.consumer.mode"));
+        }
+        if (System.getProperty("pipeline.queue.partitionBy") != null) {
+            options.add("-Dpipeline.queue.partitionBy=" + System.getProperty("pipeline.queue.partitionBy"));
+        }
+        if ("spill".equalsIgnoreCase(System.getProperty("pipeline.queue.overflow", "drop"))) {
+            options.add("-Dpipeline.queue.overflow=spill");
+        }
+        return options.isEmpty() ? null : String.join(", ", options);
+    }
+
+    private static CompactEventQueue createCompactQueue() {
+        if (!"compact".equalsIgnoreCase(System.getProperty("pipeline.event.encoding", "record"))) {
+            return null;
+        }
+        WaitStrategy waitStrategy = WaitStrategy.valueOf(
+                System.getProperty("pipeline.queue.wait", "park").toUpperCase());
+        // 每个在队列中的事件占一个槽位，槽位数与队列容量一致，多出的一倍留给在途和生产者手里的事件
+        PayloadBufferPool bufferPool = new PayloadBufferPool(EventBufferQueue.DEFAULT_CAPACITY * 2, COMPACT_PAYLOAD_SLOT_SIZE);
+        System.out.println("Using compact off-heap event encoding");
+        return new CompactEventQueue(EventBufferQueue.DEFAULT_CAPACITY, waitStrategy,
+                EventTypeRegistry.global(), bufferPool);
+    }
+
+    private static PartitionedEventQueue createPartitionedQueue(int shardCount) {
+        String partitionBy = System.getProperty("pipeline.queue.partitionBy");
+        if (partitionBy == null) {
+            return null;
+        }
+        PartitionKey partitionKey = PartitionKey.valueOf(partitionBy.toUpperCase());
+        boolean workStealing = Boolean.getBoolean("pipeline.queue.workStealing");
+        // 总容量与单队列模式保持一致，平均分给各分片
+        int shardCapacity = Math.max(64, EventBufferQueue.DEFAULT_CAPACITY / shardCount);
+        System.out.println("Using " + shardCount + " queue shards partitioned by " + partitionKey
+                + (workStealing ? " with work stealing" : ""));
+        return new PartitionedEventQueue(shardCount, () -> createMemoryBackend(shardCapacity),
+                partitionKey, workStealing, STEAL_THRESHOLD);
     }
 }
@@ -0,0 +1,55 @@
+package site.hnfy258.demo1;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于无锁 MPMC 环形缓冲区的队列后端，阻塞语义由 BlockingRingBuffer 按 WaitStrategy 实现。
+ */
+public class RingBufferBackend implements EventQueueBackend {
+    private final BlockingRingBuffer<Event> ring;
+
+    public RingBufferBackend(int capacity, WaitStrategy waitStrategy) {
+        this.ring = new BlockingRingBuffer<>(capacity, waitStrategy);
+    }
+
+    @Override
+    public boolean offer(Event event) {
+        return ring.offer(event);
+    }
+
+    @Override
+    public boolean offer(Event event, long timeout, TimeUnit unit) throws InterruptedException {
+        return ring.offer(event, timeout, unit);
+    }
+
+    @Override
+    public void put(Event event) throws InterruptedException {
+        ring.put(event);
+    }
+
+    @Override
+    public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return ring.poll(timeout, unit);
+    }
+
+    @Override
+    public Event take() throws InterruptedException {
+        return ring.take();
+    }
+
+    @Override
+    public int drainTo(Collection<? super Event> sink, int maxEvents) {
+        return ring.drainTo(sink, maxEvents);
+    }
+
+    @Override
+    public int size() {
+        return ring.size();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return ring.remainingCapacity();
+    }
+}
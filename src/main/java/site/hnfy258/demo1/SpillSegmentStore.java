@@ -0,0 +1,165 @@
+package site.hnfy258.demo1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 溢出到磁盘的事件存储：一组内存映射的定长段文件，按追加顺序写、按同样顺序读，读完的段立即删除。
+ * 每条记录是 int 长度 + EventCodec 编码，长度 0 表示本段后面没有记录了。
+ * 本类不是线程安全的，由 DiskSpillBackend 的锁保护。
+ */
+public class SpillSegmentStore implements AutoCloseable {
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSpillBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId = 0;
+
+    private long pendingEvents = 0;
+    private long pendingBytes = 0;
+    private long spilledEvents = 0;
+    private long spilledBytes = 0;
+    private long refilledEvents = 0;
+    private long refilledBytes = 0;
+    private long segmentsCreated = 0;
+
+    public SpillSegmentStore(Path directory, int segmentSize, long maxSpillBytes) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSpillBytes = maxSpillBytes;
+        Files.createDirectories(directory);
+        // 上次进程残留的段文件没有对应的内存状态，直接清理
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stale) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    public boolean append(Event event) throws IOException {
+        byte[] record = EventCodec.encode(event);
+        int recordSize = Integer.BYTES + record.length;
+        if (pendingBytes + recordSize > maxSpillBytes) {
+            return false;
+        }
+        Segment tail = segments.peekLast();
+        // 结束标记需要 4 字节，所以记录之后至少还要留出 4 字节
+        if (tail == null || tail.writeBuffer.remaining() < recordSize + Integer.BYTES) {
+            if (tail != null) {
+                tail.writeBuffer.putInt(0);
+            }
+            tail = newSegment(Math.max(segmentSize, recordSize + Integer.BYTES));
+        }
+        tail.writeBuffer.putInt(record.length);
+        tail.writeBuffer.put(record);
+        pendingEvents++;
+        pendingBytes += recordSize;
+        spilledEvents++;
+        spilledBytes += recordSize;
+        return true;
+    }
+
+    // 按写入顺序取出下一个事件，没有时返回 null
+    public Event poll() throws IOException {
+        if (pendingEvents == 0) {
+            return null;
+        }
+        while (true) {
+            Segment head = segments.peekFirst();
+            ByteBuffer readBuffer = head.readBuffer;
+            int length = readBuffer.remaining() < Integer.BYTES ? 0 : readBuffer.getInt(readBuffer.position());
+            if (length == 0) {
+                // 本段已读完，还有待读事件说明后面一定有新段
+                segments.pollFirst();
+                Files.deleteIfExists(head.path);
+                continue;
+            }
+            readBuffer.position(readBuffer.position() + Integer.BYTES);
+            ByteBuffer record = readBuffer.slice(readBuffer.position(), length);
+            readBuffer.position(readBuffer.position() + length);
+            Event event = EventCodec.decode(record);
+            int recordSize = Integer.BYTES + length;
+            pendingEvents--;
+            pendingBytes -= recordSize;
+            refilledEvents++;
+            refilledBytes += recordSize;
+            return event;
+        }
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        Path path = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射在 channel 关闭后依然有效
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        Segment segment = new Segment(path, mapped);
+        segments.addLast(segment);
+        segmentsCreated++;
+        return segment;
+    }
+
+    public long getPendingEvents() {
+        return pendingEvents;
+    }
+
+    public long getSpilledEvents() {
+        return spilledEvents;
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    public long getRefilledEvents() {
+        return refilledEvents;
+    }
+
+    public long getRefilledBytes() {
+        return refilledBytes;
+    }
+
+    public long getSegmentsCreated() {
+        return segmentsCreated;
+    }
+
+    public int getLiveSegments() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Segment segment;
+        while ((segment = segments.pollFirst()) != null) {
+            Files.deleteIfExists(segment.path);
+        }
+        pendingEvents = 0;
+        pendingBytes = 0;
+    }
+
+    private static final class Segment {
+        final Path path;
+        final ByteBuffer writeBuffer;
+        final ByteBuffer readBuffer;
+
+        Segment(Path path, MappedByteBuffer mapped) {
+            this.path = path;
+            this.writeBuffer = mapped;
+            // 读写各用一个独立 position 的视图，共享同一块映射内存
+            this.readBuffer = mapped.duplicate();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package site.hnfy258.demo1;
+
+/**
+ * 128 位追踪 id：hi 的高 48 位是毫秒时间戳，低 16 位是节点号；lo 是节点内单调递增的序号。
+ * 比较和哈希只看两个 long，文本形式（32 位小写十六进制）只在第一次 toString() 时渲染并缓存。
+ */
+public final class TraceId implements Comparable<TraceId> {
+    public static final int TEXT_LENGTH = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long hi;
+    private final long lo;
+    // 懒渲染的文本，多个线程同时渲染也只是各自算一遍同样的不可变字符串
+    private String text;
+
+    public TraceId(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    // 解析 32 位十六进制文本，格式不对时抛出 IllegalArgumentException
+    public static TraceId parse(CharSequence text) {
+        if (!isTraceId(text)) {
+            throw new IllegalArgumentException("Not a trace id: " + text);
+        }
+        return new TraceId(parseHex(text, 0), parseHex(text, 16));
+    }
+
+    public static boolean isTraceId(CharSequence text) {
+        if (text == null || text.length() != TEXT_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < TEXT_LENGTH; i++) {
+            if (Character.digit(text.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long hi() {
+        return hi;
+    }
+
+    public long lo() {
+        return lo;
+    }
+
+    public long timestampMillis() {
+        return hi >>> 16;
+    }
+
+    public int nodeId() {
+        return (int) (hi & 0xFFFF);
+    }
+
+    public long sequence() {
+        return lo;
+    }
+
+    /**
+     * 把文本形式写入 dst[offset, offset + 32)，不产生分配。
+     */
+    public static void writeAscii(long hi, long lo, byte[] dst, int offset) {
+        for (int i = 0; i < 16; i++) {
+            dst[offset + i] = (byte) HEX[(int) (hi >>> (60 - 4 * i)) & 0xF];
+            dst[offset + 16 + i] = (byte) HEX[(int) (lo >>> (60 - 4 * i)) & 0xF];
+        }
+    }
+
+    public StringBuilder appendTo(StringBuilder sb) {
+        String rendered = text;
+        if (rendered != null) {
+            return sb.append(rendered);
+        }
+        for (int i = 0; i < 16; i++) {
+            sb.append(HEX[(int) (hi >>> (60 - 4 * i)) & 0xF]);
+        }
+        for (int i = 0; i < 16; i++) {
+            sb.append(HEX[(int) (lo >>> (60 - 4 * i)) & 0xF]);
+        }
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        String rendered = text;
+        if (rendered == null) {
+            char[] chars = new char[TEXT_LENGTH];
+            for (int i = 0; i < 16; i++) {
+                chars[i] = HEX[(int) (hi >>> (60 - 4 * i)) & 0xF];
+                chars[16 + i] = HEX[(int) (lo >>> (60 - 4 * i)) & 0xF];
+            }
+            rendered = new String(chars);
+            text = rendered;
+        }
+        return rendered;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof TraceId other && hi == other.hi && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(hi, lo);
+    }
+
+    // 序号位变化集中在低位，先做一次 64 位混合再折叠，避免哈希表里聚集
+    public static int hash(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public int compareTo(TraceId other) {
+        int c = Long.compareUnsigned(hi, other.hi);
+        return c != 0 ? c : Long.compareUnsigned(lo, other.lo);
+    }
+
+    private static long parseHex(CharSequence text, int offset) {
+        long value = 0;
+        for (int i = 0; i < 16; i++) {
+            value = (value << 4) | Character.digit(text.charAt(offset + i), 16);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,45 @@
+package site.hnfy258.demo1;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁的 TraceId 生成器：时间 + 节点号 + 序号。
+ * 同一进程内序号由一个 AtomicLong 递增保证唯一，不同进程靠节点号区分，
+ * 同一节点重启后靠时间戳和随机的初始序号区分。生成时不拼接字符串，唯一的分配是 TraceId 本身。
+ */
+public final class TraceIdGenerator {
+    private static final TraceIdGenerator DEFAULT = new TraceIdGenerator(defaultNodeId());
+
+    private final long nodeId;
+    private final AtomicLong sequence;
+
+    public TraceIdGenerator(int nodeId) {
+        this.nodeId = nodeId & 0xFFFF;
+        // 初始序号取随机值的高位，重启后的序号区间与上次几乎不可能重叠
+        this.sequence = new AtomicLong(ThreadLocalRandom.current().nextLong() >>> 1);
+    }
+
+    public static TraceIdGenerator defaultGenerator() {
+        return DEFAULT;
+    }
+
+    public TraceId next() {
+        long lo = sequence.getAndIncrement();
+        long hi = (System.currentTimeMillis() << 16) | nodeId;
+        return new TraceId(hi, lo);
+    }
+
+    public int getNodeId() {
+        return (int) nodeId;
+    }
+
+    // 节点号优先取 -Dtrace.node.id，否则用进程号
+    private static int defaultNodeId() {
+        Integer configured = Integer.getInteger("trace.node.id");
+        if (configured != null) {
+            return configured;
+        }
+        return (int) ProcessHandle.current().pid();
+    }
+}
@@ -0,0 +1,47 @@
+package site.hnfy258.demo1;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无锁队列在满/空时的等待策略。
+ * attempt 是本次等待已经空转的次数，策略可以据此逐级退让。
+ */
+public enum WaitStrategy {
+    // 纯自旋：延迟最低，但会一直占满一个核，只适合线程数不超过核数的场景
+    BUSY_SPIN {
+        @Override
+        void idle(int attempt) {
+            Thread.onSpinWait();
+        }
+    },
+    // 先短暂自旋，然后让出 CPU 时间片
+    YIELD {
+        @Override
+        void idle(int attempt) {
+            if (attempt < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    },
+    // 自旋 -> 让出 -> 短暂 park，空闲时几乎不耗 CPU，适合消费者数量多于核数的场景
+    PARK {
+        @Override
+        void idle(int attempt) {
+            if (attempt < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (attempt < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 50_000L;
+
+    abstract void idle(int attempt);
+}
@@ -21,8 +21,7 @@ public class ConfigUpdater implements Runnable{
                 int newBatchSize = random.nextInt(50) + 50; // 50到100之间的随机数
                 String newFeature = "feature" + (random.nextInt(5) + 1) + "_enabled";
 
-                Map<String,Boolean> updateFlags =config.getAllFeatureFlags();
-                Map<String,Boolean> newFlags = new HashMap<>(updateFlags);
+                Map<String,Boolean> newFlags = new HashMap<>(config.snapshot().featureFlags());
                 newFlags.put(newFeature,newEnabled);
                 config.updateAllConfig(newEnabled, newBatchSize, newFlags);
                 config.printConfig();
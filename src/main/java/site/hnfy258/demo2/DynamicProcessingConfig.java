@@ -2,120 +2,170 @@ package site.hnfy258.demo2;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
 
+/**
+ * 运行期可修改的处理配置。全部配置项放在一个不可变、带版本号的 Snapshot 里，通过一个 volatile 引用发布：
+ * 消费者每轮循环读配置只是一次 volatile 读，不加锁，多个读方之间也不会争抢锁状态所在的缓存行。
+ * 修改时复制出新的 Snapshot 再整体替换（写时复制），写方之间用一把锁串行，读方永远看到某个完整的版本，
+ * 不会读到一半新一半旧的组合。每次发布新版本后按注册顺序通知 ConfigChangeListener。
+ */
 public class DynamicProcessingConfig {
-    private volatile boolean processingEnabled;
-    private volatile int batchSize;
-    private Map<String,Boolean> featureFlags;
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
-    private Lock readLock= lock.readLock();
-    private Lock writeLock = lock.writeLock();
+
+    /**
+     * 某一版本的全部配置。featureFlags 不可修改，version 每发布一次加 1。
+     */
+    public record Snapshot(long version, boolean processingEnabled, int batchSize, Map<String, Boolean> featureFlags) {
+    }
+
+    /**
+     * 配置变更回调，在发布新版本的写线程上、写锁内同步调用，所以各监听器看到的版本严格递增；
+     * 回调里不要做耗时操作。抛出的异常只打印，不影响本次发布和其他监听器。
+     */
+    @FunctionalInterface
+    public interface ConfigChangeListener {
+        void onConfigChange(Snapshot oldConfig, Snapshot newConfig);
+    }
+
+    private volatile Snapshot current;
+    private final List<ConfigChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // 只串行化写方；读方不碰这把锁
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // 处理从关闭变为开启时唤醒所有在 awaitProcessingEnabled 上等待的消费者
+    private final Condition processingEnabledCondition = writeLock.newCondition();
 
 
     public DynamicProcessingConfig(){
-        this.processingEnabled = true; // 默认启用处理
-        this.batchSize = 100; // 默认批处理大小
-        this.featureFlags = new HashMap<>();
+        Map<String, Boolean> featureFlags = new HashMap<>();
         featureFlags.put("featureA_enabled",true);
         featureFlags.put("featureB_enabled",false);
+        // 默认启用处理，默认批处理大小 100
+        this.current = new Snapshot(0, true, 100, Collections.unmodifiableMap(featureFlags));
+    }
+
+    // 当前版本的配置，需要同时读多个配置项时应取一次快照再读，保证各项属于同一版本
+    public Snapshot snapshot() {
+        return current;
     }
 
     public boolean isProcessingEnabled(){
-        readLock.lock();
-        try{
-            return processingEnabled;
-        }finally {
-            readLock.unlock();
-        }
+        return current.processingEnabled();
     }
 
-    public int getBatchSize(){
-        readLock.lock();
-        try{
-            return batchSize;
-        }finally {
-            readLock.unlock();
+    /**
+     * 等待处理被开启，最多等待 timeout。已开启时直接返回 true，不加锁；
+     * 否则挂起当前线程，直到配置更新把 processingEnabled 置为 true 时被唤醒，期间不占用 CPU。
+     * 返回 false 表示超时时仍处于关闭状态。
+     */
+    public boolean awaitProcessingEnabled(long timeout, TimeUnit unit) throws InterruptedException {
+        if (current.processingEnabled()) {
+            return true;
         }
-    }
-    public Boolean isFeatureEnabled(String featureName) {
-        readLock.lock();
+        long nanos = unit.toNanos(timeout);
+        writeLock.lock();
         try {
-            return featureFlags.getOrDefault(featureName, false);
+            while (!current.processingEnabled()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = processingEnabledCondition.awaitNanos(nanos);
+            }
+            return true;
         } finally {
-            readLock.unlock();
+            writeLock.unlock();
         }
     }
 
+    public int getBatchSize(){
+        return current.batchSize();
+    }
+
+    public Boolean isFeatureEnabled(String featureName) {
+        return current.featureFlags().getOrDefault(featureName, false);
+    }
+
     public Map<String, Boolean> getAllFeatureFlags() {
-        readLock.lock();
-        try {
-            return Collections.unmodifiableMap(new HashMap<>(featureFlags));
-        } finally {
-            readLock.unlock();
-        }
+        return current.featureFlags();
+    }
+
+    public void addChangeListener(ConfigChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ConfigChangeListener listener) {
+        listeners.remove(listener);
     }
 
     public void updateAllConfig(boolean enabled, int newBatchSize, Map<String, Boolean> newFlags) {
-        writeLock.lock();
-        try {
-            this.processingEnabled = enabled;
-            if (newBatchSize > 0) {
-                this.batchSize = newBatchSize;
-            } else {
-                throw new IllegalArgumentException("New batch size must be greater than 0");
-            }
-            this.featureFlags = new HashMap<>(newFlags != null ? newFlags : Map.of());
-        } finally {
-            writeLock.unlock();
+        if (newBatchSize <= 0) {
+            throw new IllegalArgumentException("New batch size must be greater than 0");
         }
+        Map<String, Boolean> flags = Collections.unmodifiableMap(new HashMap<>(newFlags != null ? newFlags : Map.of()));
+        update(old -> new Snapshot(old.version() + 1, enabled, newBatchSize, flags));
     }
 
     public void updateProcessingEnabled(boolean enabled){
-        writeLock.lock();
-        try{
-            this.processingEnabled = enabled;
-        }finally {
-            writeLock.unlock();
-        }
+        update(old -> new Snapshot(old.version() + 1, enabled, old.batchSize(), old.featureFlags()));
     }
 
     public void updateBatchSize(int newSize){
-        writeLock.lock();
-        try{
-            if(newSize > 0) {
-                this.batchSize = newSize;
-            } else {
-                throw new IllegalArgumentException("Batch size must be greater than 0");
-            }
-        }finally {
-            writeLock.unlock();
+        if (newSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be greater than 0");
         }
+        update(old -> new Snapshot(old.version() + 1, old.processingEnabled(), newSize, old.featureFlags()));
     }
 
     public void setFeatureFlag(String featureName, boolean enabled) {
+        update(old -> {
+            Map<String, Boolean> flags = new HashMap<>(old.featureFlags());
+            flags.put(featureName, enabled);
+            return new Snapshot(old.version() + 1, old.processingEnabled(), old.batchSize(),
+                    Collections.unmodifiableMap(flags));
+        });
+    }
+
+    /**
+     * 在写锁内由当前版本算出新版本并发布。配置项没有任何变化时不发布，版本号不变，也不通知监听器。
+     */
+    private void update(UnaryOperator<Snapshot> change) {
         writeLock.lock();
         try {
-            this.featureFlags.put(featureName, enabled);
+            Snapshot old = current;
+            Snapshot updated = change.apply(old);
+            if (updated.processingEnabled() == old.processingEnabled()
+                    && updated.batchSize() == old.batchSize()
+                    && updated.featureFlags().equals(old.featureFlags())) {
+                return;
+            }
+            current = updated;
+            if (updated.processingEnabled()) {
+                processingEnabledCondition.signalAll();
+            }
+            for (ConfigChangeListener listener : listeners) {
+                try {
+                    listener.onConfigChange(old, updated);
+                } catch (RuntimeException e) {
+                    System.err.println("Config change listener failed: " + e.getMessage());
+                }
+            }
         } finally {
             writeLock.unlock();
         }
     }
 
     public void printConfig() {
-        readLock.lock();
-        try {
-            System.out.println("\n--- Current Processing Config ---");
-            System.out.println("Processing Enabled: " + processingEnabled);
-            System.out.println("Batch Size: " + batchSize);
-            System.out.println("Feature Flags: " + featureFlags);
-            System.out.println("---------------------------------");
-        } finally {
-            readLock.unlock();
-        }
+        Snapshot snapshot = current;
+        System.out.println("\n--- Current Processing Config ---");
+        System.out.println("Version: " + snapshot.version());
+        System.out.println("Processing Enabled: " + snapshot.processingEnabled());
+        System.out.println("Batch Size: " + snapshot.batchSize());
+        System.out.println("Feature Flags: " + snapshot.featureFlags());
+        System.out.println("---------------------------------");
     }
 }
@@ -1,49 +1,220 @@
 package site.hnfy258.demo2;
 
+import site.hnfy258.demo1.EventTypeRegistry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * 消费端的全局指标。每个异步回调都会更新这里的计数，所以计数用 LongAdder 分散到多个单元，
+ * 延迟用 LatencyRecorder 记录，写入路径上没有锁，也没有所有线程都去改的同一个缓存行。
+ * 需要看整体状态时用 snapshot() 取一份各项一起读出的快照。
+ * <p>
+ * 按类别的统计以 EventTypeRegistry 的稠密 id 为下标（Event.typeId 在创建事件时就已解析好），
+ * 热路径上不对类型字符串做哈希和查表，类别名到计数的 Map 只在汇报时按注册表拼出来。
+ */
 public class EventMetrics {
-    private final AtomicLong totalEventsProcessed = new AtomicLong(0);
-    private final AtomicLong eventErrorCount = new AtomicLong(0);
+    // 延迟以微秒记录，上限 1 小时，更慢的只计入最后一个桶
+    private static final long HIGHEST_TRACKABLE_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    /**
+     * 事件处理中分开统计耗时的各段。外部调用的几段是单次调用的往返时间（含重试时的每一次），
+     * 排队等待和端到端以 Event.timestamp 为起点，只有毫秒精度。
+     */
+    public enum Phase {
+        QUEUE_WAIT,
+        VALIDATE,
+        TRANSFORM,
+        STORE,
+        NOTIFY,
+        GEO_LOCATE,
+        END_TO_END
+    }
+
+    private final LongAdder totalEventsProcessed = new LongAdder();
+    private final LongAdder eventErrorCount = new LongAdder();
+    private final EventTypeRegistry typeRegistry;
+    private final PaddedCounterArray eventCategoryCounts = new PaddedCounterArray();
 
-    private final Map<String,AtomicLong> eventCategoryCounts;
+    private final Map<Phase, LatencyRecorder> phaseLatency = new EnumMap<>(Phase.class);
+    // 按事件类别 id 下标的端到端延迟，第一次见到某个类别时复制扩容后整体发布
+    private volatile LatencyRecorder[] categoryLatency = new LatencyRecorder[0];
 
-    public EventMetrics(Map<String,AtomicLong> initMap){
-        this.eventCategoryCounts = initMap;
+    public EventMetrics() {
+        this(EventTypeRegistry.global());
     }
 
-    public long incrementProcessedCount(){
-        return totalEventsProcessed.incrementAndGet();
+    public EventMetrics(EventTypeRegistry typeRegistry) {
+        this.typeRegistry = typeRegistry;
+        for (Phase phase : Phase.values()) {
+            phaseLatency.put(phase, new LatencyRecorder(HIGHEST_TRACKABLE_LATENCY_MICROS));
+        }
     }
 
-    public long incrementErrorCount(){
-        return eventErrorCount.incrementAndGet();
+    public void incrementProcessedCount() {
+        totalEventsProcessed.increment();
     }
 
-    public Map<String,AtomicLong> getEventCategoryCounts() {
-        return eventCategoryCounts;
+    public void incrementErrorCount() {
+        eventErrorCount.increment();
     }
 
+    // typeId 来自 typeRegistry，NULL_TYPE_ID（null 类型）不计
+    public void incrementEventCategoryCount(int typeId) {
+        if (typeId >= 0) {
+            eventCategoryCounts.increment(typeId);
+        }
+    }
+
+    // 只有类型名时先查一次注册表；热路径应直接传 Event.typeId
     public void incrementEventCategoryCount(String category) {
-        AtomicLong count =eventCategoryCounts.computeIfAbsent(category,k -> new AtomicLong(0L));
-        count.incrementAndGet();
+        incrementEventCategoryCount(typeRegistry.idOf(category));
     }
+
     public long getTotalEventsProcessed() {
-        return totalEventsProcessed.get();
+        return totalEventsProcessed.sum();
     }
 
     public long getEventErrorCount() {
-        return eventErrorCount.get();
+        return eventErrorCount.sum();
+    }
+
+    public Map<String, Long> getEventCategoryCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        int limit = Math.min(typeRegistry.size(), eventCategoryCounts.capacity());
+        for (int id = 0; id < limit; id++) {
+            long count = eventCategoryCounts.get(id);
+            if (count > 0) {
+                result.put(typeRegistry.nameOf(id), count);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    public EventTypeRegistry getTypeRegistry() {
+        return typeRegistry;
+    }
+
+    public void recordLatency(Phase phase, long nanos) {
+        phaseLatency.get(phase).recordNanos(nanos);
+    }
+
+    /**
+     * 记录事件从产生到被消费者取出的时间，Event.timestamp 只有毫秒精度。
+     */
+    public void recordQueueWait(long eventTimestampMillis) {
+        phaseLatency.get(Phase.QUEUE_WAIT).recordValue(millisSince(eventTimestampMillis));
+    }
+
+    /**
+     * 记录一个事件的端到端延迟。Event.timestamp 只有毫秒精度，所以这里的分辨率也是毫秒。
+     * 开环压测时 timestamp 是计划发送时刻而不是实际入队时刻，排队和发送滞后都会算进延迟里，
+     * 不会因为系统变慢、发送被推迟而漏记（协调遗漏）。
+     */
+    public void recordEndToEndLatency(long eventTimestampMillis) {
+        phaseLatency.get(Phase.END_TO_END).recordValue(millisSince(eventTimestampMillis));
+    }
+
+    // 同时计入该类别（typeRegistry 中的 id）自己的端到端延迟
+    public void recordEndToEndLatency(int typeId, long eventTimestampMillis) {
+        long micros = millisSince(eventTimestampMillis);
+        phaseLatency.get(Phase.END_TO_END).recordValue(micros);
+        if (typeId >= 0) {
+            categoryRecorder(typeId).recordValue(micros);
+        }
+    }
+
+    private LatencyRecorder categoryRecorder(int typeId) {
+        LatencyRecorder[] current = categoryLatency;
+        LatencyRecorder recorder = typeId < current.length ? current[typeId] : null;
+        return recorder != null ? recorder : addCategoryRecorder(typeId);
+    }
+
+    private synchronized LatencyRecorder addCategoryRecorder(int typeId) {
+        LatencyRecorder[] current = categoryLatency;
+        if (typeId < current.length && current[typeId] != null) {
+            return current[typeId];
+        }
+        LatencyRecorder[] updated = Arrays.copyOf(current, Math.max(current.length, typeId + 1));
+        updated[typeId] = new LatencyRecorder(HIGHEST_TRACKABLE_LATENCY_MICROS);
+        categoryLatency = updated;
+        return updated[typeId];
+    }
+
+    private static long millisSince(long eventTimestampMillis) {
+        return TimeUnit.MILLISECONDS.toMicros(Math.max(0, System.currentTimeMillis() - eventTimestampMillis));
+    }
+
+    /**
+     * 一次读出所有计数和延迟分布。每个直方图本身是一致的（总数、各桶、最大值对得上）；
+     * 计数和各直方图依次读取，彼此之间只差读取它们的那几微秒，不需要停下写入方。
+     */
+    public Snapshot snapshot() {
+        long takenAtMillis = System.currentTimeMillis();
+        Map<Phase, LatencyHistogram.Snapshot> phases = new EnumMap<>(Phase.class);
+        for (Map.Entry<Phase, LatencyRecorder> entry : phaseLatency.entrySet()) {
+            phases.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        Map<String, LatencyHistogram.Snapshot> categories = new TreeMap<>();
+        LatencyRecorder[] recorders = categoryLatency;
+        for (int id = 0; id < recorders.length; id++) {
+            if (recorders[id] != null) {
+                categories.put(typeRegistry.nameOf(id), recorders[id].snapshot());
+            }
+        }
+        return new Snapshot(takenAtMillis, totalEventsProcessed.sum(), eventErrorCount.sum(), getEventCategoryCounts(),
+                Collections.unmodifiableMap(phases), Collections.unmodifiableMap(categories));
+    }
+
+    public record Snapshot(long takenAtMillis,
+                           long totalEventsProcessed,
+                           long eventErrorCount,
+                           Map<String, Long> eventCategoryCounts,
+                           Map<Phase, LatencyHistogram.Snapshot> phaseLatency,
+                           Map<String, LatencyHistogram.Snapshot> categoryLatency) {
+    }
+
+    // 打印延迟分位数和实际达到的吞吐，elapsedNanos 为从开始发送到全部结果返回的时间
+    public void printLatencyReport(long elapsedNanos) {
+        LatencyHistogram.Snapshot snapshot = phaseLatency.get(Phase.END_TO_END).snapshot();
+        double elapsedSeconds = elapsedNanos / 1_000_000_000.0;
+        System.out.println("\n--- End-to-End Latency (ms) ---");
+        System.out.println("Completed: " + snapshot.getTotalCount()
+                + String.format(", Achieved Throughput: %.1f events/s", snapshot.getTotalCount() / elapsedSeconds));
+        System.out.println(String.format("p50: %.1f, p99: %.1f, p99.9: %.1f, max: %.1f, mean: %.1f",
+                snapshot.getValueAtPercentile(50.0) / 1000.0,
+                snapshot.getValueAtPercentile(99.0) / 1000.0,
+                snapshot.getValueAtPercentile(99.9) / 1000.0,
+                snapshot.getMaxValue() / 1000.0,
+                snapshot.getMean() / 1000.0));
+        System.out.println("-------------------------------");
     }
 
     // 打印当前统计数据
     public void printMetrics() {
+        Snapshot snapshot = snapshot();
         System.out.println("\n--- Current Event Metrics ---");
-        System.out.println("Total Events Processed: " + totalEventsProcessed.get());
-        System.out.println("Event Error Count: " + eventErrorCount.get());
-        System.out.println("Event Category Counts: " + eventCategoryCounts);
+        System.out.println("Total Events Processed: " + snapshot.totalEventsProcessed());
+        System.out.println("Event Error Count: " + snapshot.eventErrorCount());
+        System.out.println("Event Category Counts: " + snapshot.eventCategoryCounts());
+        System.out.println("Latency by phase (ms):");
+        snapshot.phaseLatency().forEach((phase, histogram) -> printLatencyLine(phase.name(), histogram));
+        System.out.println("End-to-end latency by category (ms):");
+        snapshot.categoryLatency().forEach(EventMetrics::printLatencyLine);
         System.out.println("----------------------------");
     }
 
+    private static void printLatencyLine(String name, LatencyHistogram.Snapshot histogram) {
+        System.out.println(String.format("  %-11s count=%d p50=%.1f p99=%.1f max=%.1f mean=%.1f",
+                name, histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50.0) / 1000.0,
+                histogram.getValueAtPercentile(99.0) / 1000.0,
+                histogram.getMaxValue() / 1000.0,
+                histogram.getMean() / 1000.0));
+    }
 }
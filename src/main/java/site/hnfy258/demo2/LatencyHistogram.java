@@ -0,0 +1,165 @@
+package site.hnfy258.demo2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的高动态范围（HDR）直方图，按对数-线性分桶：
+ * 小于 128 的值每个值一个桶，之后每翻一倍分 64 个等宽子桶，相对误差不超过 1/64（约 1.6%）。
+ * 写入只是一次 AtomicLongArray 自增，适合在异步回调线程上直接记录。
+ * 单位由调用方决定，本项目统一使用微秒。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    private final long highestTrackableValue;
+    private final AtomicLongArray counts;
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+    public LatencyHistogram(long highestTrackableValue) {
+        if (highestTrackableValue < SUB_BUCKET_COUNT) {
+            throw new IllegalArgumentException("highestTrackableValue must be at least " + SUB_BUCKET_COUNT);
+        }
+        this.highestTrackableValue = highestTrackableValue;
+        this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+    }
+
+    public void recordValue(long value) {
+        recordValue(value, 1);
+    }
+
+    private void recordValue(long value, long count) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Histogram values must be non-negative: " + value);
+        }
+        // 超出范围的值计入最后一个桶，但最大值仍然精确记录
+        counts.getAndAdd(indexOf(Math.min(value, highestTrackableValue)), count);
+        totalCount.add(count);
+        totalSum.add(value * count);
+        long currentMax = maxValue.get();
+        while (value > currentMax && !maxValue.compareAndSet(currentMax, value)) {
+            currentMax = maxValue.get();
+        }
+    }
+
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0.0 : (double) totalSum.sum() / count;
+    }
+
+    /**
+     * 返回不小于 percentile% 样本的值（桶内取最大等价值，偏保守）。percentile 取 0~100。
+     */
+    public long getValueAtPercentile(double percentile) {
+        return snapshot().getValueAtPercentile(percentile);
+    }
+
+    // 复制当前各桶计数。各桶之间不是原子的一次性快照，但每个桶的值都是某一时刻的真实值
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, maxValue.get(), totalSum.sum());
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalSum.reset();
+        maxValue.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // value >= 128 时，bucket 从 1 开始；把 value 右移 bucket 位后落在 [64, 128)
+        int bucket = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> bucket);
+        return SUB_BUCKET_COUNT + (bucket - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+    }
+
+    // 下标对应桶中的最大值
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int bucket = offset / SUB_BUCKET_HALF + 1;
+        long subBucket = offset % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    /**
+     * 直方图在某一时刻的只读副本，可以安全地多次查询分位数。
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+        private final long maxValue;
+        private final long totalSum;
+
+        Snapshot(long[] counts, long totalCount, long maxValue, long totalSum) {
+            this.counts = counts;
+            this.totalCount = totalCount;
+            this.maxValue = maxValue;
+            this.totalSum = totalSum;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        public long getMaxValue() {
+            return maxValue;
+        }
+
+        public double getMean() {
+            return totalCount == 0 ? 0.0 : (double) totalSum / totalCount;
+        }
+
+        // 两个快照合并后的快照，要求两者来自上限相同的直方图
+        Snapshot plus(Snapshot other) {
+            long[] merged = counts.clone();
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += other.counts[i];
+            }
+            return new Snapshot(merged, totalCount + other.totalCount, Math.max(maxValue, other.maxValue),
+                    totalSum + other.totalSum);
+        }
+
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    // 最后一个桶里可能有超出范围的值，直接用精确的最大值
+                    return i == counts.length - 1 ? maxValue : Math.min(highestEquivalentValue(i), maxValue);
+                }
+            }
+            return maxValue;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package site.hnfy258.demo2;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可以随时取一致快照的延迟记录器：两个 LatencyHistogram 双缓冲，用 WriterReaderPhaser 切换。
+ * 写入与 LatencyHistogram 一样无锁，只多两次原子自增；取快照时把活动缓冲换下来，
+ * 等在它上面写的线程全部离开后再读，所以快照里的总数、各桶计数和最大值是同一时刻的，
+ * 不会出现 LatencyHistogram.snapshot() 那种边读边写造成的各桶之间不一致。
+ * 单位由调用方决定，本项目统一使用微秒。
+ */
+public class LatencyRecorder {
+    private final WriterReaderPhaser phaser = new WriterReaderPhaser();
+    private volatile LatencyHistogram active;
+    // 以下由 phaser 的 readerLock 保护
+    private LatencyHistogram inactive;
+    private LatencyHistogram.Snapshot cumulative;
+
+    public LatencyRecorder(long highestTrackableValue) {
+        this.active = new LatencyHistogram(highestTrackableValue);
+        this.inactive = new LatencyHistogram(highestTrackableValue);
+        this.cumulative = inactive.snapshot();
+    }
+
+    public void recordValue(long value) {
+        long token = phaser.writerCriticalSectionEnter();
+        try {
+            active.recordValue(value);
+        } finally {
+            phaser.writerCriticalSectionExit(token);
+        }
+    }
+
+    // 本项目的直方图以微秒为单位
+    public void recordNanos(long nanos) {
+        recordValue(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    /**
+     * 从创建以来记录的全部值的一致快照。
+     */
+    public LatencyHistogram.Snapshot snapshot() {
+        phaser.readerLock();
+        try {
+            LatencyHistogram drained = active;
+            active = inactive;
+            inactive = drained;
+            phaser.flipPhase(TimeUnit.MICROSECONDS.toNanos(10));
+            // 换下来的缓冲已经没有写者，读完清空，下次切换时作为活动缓冲使用
+            cumulative = cumulative.plus(drained.snapshot());
+            drained.reset();
+            return cumulative;
+        } finally {
+            phaser.readerUnlock();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package site.hnfy258.demo2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 运行期间的指标汇报：一个定时线程每个 tick 读一次 EventMetrics 的累计计数（只是几次 LongAdder.sum()），
+ * 推算处理数、错误数和各类别的滑动窗口速率与 EWMA，结果以不可变的 Report 发布；
+ * 每隔 printIntervalTicks 个 tick 在控制台打印一行当前速率和注册的 gauge。
+ * scrape() 按 Prometheus 文本格式（0.0.4）输出计数、速率、gauge 和各阶段的延迟分位数，由 PrometheusEndpoint 对外提供。
+ * 延迟分布只在 scrape 时取快照，定时线程不碰直方图。
+ */
+public class MetricsReporter implements AutoCloseable {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final EventMetrics metrics;
+    private final long tickNanos;
+    private final int printIntervalTicks;
+    private final ScheduledExecutorService scheduler;
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    // 以下只由定时线程访问
+    private final RateTracker processedRate;
+    private final RateTracker errorRate;
+    private final Map<String, RateTracker> categoryRates = new HashMap<>();
+    private long ticks = 0;
+
+    private volatile Report latest = new Report(RateTracker.Rates.ZERO, RateTracker.Rates.ZERO, Collections.emptyMap());
+
+    /**
+     * 某个 tick 时的速率。
+     */
+    public record Report(RateTracker.Rates processed, RateTracker.Rates errors, Map<String, RateTracker.Rates> categories) {
+    }
+
+    private record Gauge(String name, String help, String labelName, String labelValue, DoubleSupplier value) {
+    }
+
+    /**
+     * @param printIntervalTicks 每隔多少个 tick 打印一行，0 表示不打印
+     */
+    public MetricsReporter(EventMetrics metrics, long tickInterval, TimeUnit unit, int printIntervalTicks) {
+        this.metrics = metrics;
+        this.tickNanos = unit.toNanos(tickInterval);
+        this.printIntervalTicks = printIntervalTicks;
+        this.processedRate = new RateTracker(tickInterval, unit);
+        this.errorRate = new RateTracker(tickInterval, unit);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Metrics-Reporter-Thread");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // 注册一个在打印和 scrape 时读取的瞬时值，例如队列深度、在途数
+    public MetricsReporter gauge(String name, String help, DoubleSupplier value) {
+        gauges.add(new Gauge(name, help, null, null, value));
+        return this;
+    }
+
+    // 带一个标签的 gauge，同名的多个 gauge 在输出里归为同一个指标族
+    public MetricsReporter gauge(String name, String help, String labelName, String labelValue, DoubleSupplier value) {
+        gauges.add(new Gauge(name, help, labelName, labelValue, value));
+        return this;
+    }
+
+    public void start() {
+        scheduler.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void tick() {
+        // 异常会让 scheduleAtFixedRate 悄悄停掉后续的 tick，这里吞掉只打印
+        try {
+            RateTracker.Rates processed = processedRate.tick(metrics.getTotalEventsProcessed());
+            RateTracker.Rates errors = errorRate.tick(metrics.getEventErrorCount());
+            Map<String, RateTracker.Rates> categories = new TreeMap<>();
+            metrics.getEventCategoryCounts().forEach((category, count) -> categories.put(category,
+                    categoryRates.computeIfAbsent(category, k -> new RateTracker(tickNanos, TimeUnit.NANOSECONDS))
+                            .tick(count)));
+            latest = new Report(processed, errors, Collections.unmodifiableMap(categories));
+            ticks++;
+            if (printIntervalTicks > 0 && ticks % printIntervalTicks == 0) {
+                printLive(latest);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Metrics reporter tick failed: " + e.getMessage());
+        }
+    }
+
+    private void printLive(Report report) {
+        StringBuilder line = new StringBuilder(String.format(
+                "Live: processed %.1f/s (10s) %.1f/s (1m ewma), errors %.1f/s (10s), total %d ok / %d errors",
+                report.processed().rate10s(), report.processed().ewma1m(), report.errors().rate10s(),
+                report.processed().count(), report.errors().count()));
+        for (Gauge gauge : gauges) {
+            if (gauge.labelName() == null) {
+                line.append(", ").append(gauge.name()).append('=').append(formatValue(gauge.value().getAsDouble()));
+            }
+        }
+        System.out.println(line);
+    }
+
+    public Report latest() {
+        return latest;
+    }
+
+    /**
+     * Prometheus 文本格式的全部指标。计数直接读当前值，速率取最近一个 tick 的结果。
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        Report report = latest;
+        EventMetrics.Snapshot snapshot = metrics.snapshot();
+
+        family(out, "pipeline_events_processed_total", "counter", "Events processed successfully.");
+        sample(out, "pipeline_events_processed_total", "", snapshot.totalEventsProcessed());
+        family(out, "pipeline_event_errors_total", "counter", "Events that failed, were filtered or were shed.");
+        sample(out, "pipeline_event_errors_total", "", snapshot.eventErrorCount());
+        family(out, "pipeline_events_by_category_total", "counter", "Events processed successfully, by category.");
+        snapshot.eventCategoryCounts().forEach((category, count) ->
+                sample(out, "pipeline_events_by_category_total", label("category", category), count));
+
+        family(out, "pipeline_event_rate", "gauge", "Per-second rate over a sliding window.");
+        windowRates(out, "pipeline_event_rate", label("outcome", "processed"), report.processed());
+        windowRates(out, "pipeline_event_rate", label("outcome", "error"), report.errors());
+        report.categories().forEach((category, rates) -> windowRates(out, "pipeline_event_rate",
+                label("outcome", "processed") + "," + label("category", category), rates));
+        family(out, "pipeline_event_rate_ewma", "gauge", "Exponentially weighted moving average of the per-second rate.");
+        ewmaRates(out, label("outcome", "processed"), report.processed());
+        ewmaRates(out, label("outcome", "error"), report.errors());
+        report.categories().forEach((category, rates) -> ewmaRates(out,
+                label("outcome", "processed") + "," + label("category", category), rates));
+
+        Map<String, List<Gauge>> gaugeFamilies = new LinkedHashMap<>();
+        for (Gauge gauge : gauges) {
+            gaugeFamilies.computeIfAbsent(gauge.name(), k -> new ArrayList<>()).add(gauge);
+        }
+        gaugeFamilies.forEach((name, members) -> {
+            family(out, name, "gauge", members.get(0).help());
+            for (Gauge gauge : members) {
+                sample(out, name, gauge.labelName() == null ? "" : label(gauge.labelName(), gauge.labelValue()),
+                        gauge.value().getAsDouble());
+            }
+        });
+
+        family(out, "pipeline_phase_latency_seconds", "summary", "Latency of each processing phase since start.");
+        snapshot.phaseLatency().forEach((phase, histogram) -> summary(out, "pipeline_phase_latency_seconds",
+                label("phase", phase.name().toLowerCase()), histogram));
+        family(out, "pipeline_category_latency_seconds", "summary", "End-to-end latency by event category since start.");
+        snapshot.categoryLatency().forEach((category, histogram) -> summary(out, "pipeline_category_latency_seconds",
+                label("category", category), histogram));
+        return out.toString();
+    }
+
+    private static void windowRates(StringBuilder out, String name, String labels, RateTracker.Rates rates) {
+        sample(out, name, labels + "," + label("window", "10s"), rates.rate10s());
+        sample(out, name, labels + "," + label("window", "1m"), rates.rate1m());
+    }
+
+    private static void ewmaRates(StringBuilder out, String labels, RateTracker.Rates rates) {
+        sample(out, "pipeline_event_rate_ewma", labels + "," + label("window", "1m"), rates.ewma1m());
+        sample(out, "pipeline_event_rate_ewma", labels + "," + label("window", "5m"), rates.ewma5m());
+        sample(out, "pipeline_event_rate_ewma", labels + "," + label("window", "15m"), rates.ewma15m());
+    }
+
+    // 直方图以微秒记录，Prometheus 约定以秒为单位
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram.Snapshot histogram) {
+        for (double quantile : QUANTILES) {
+            sample(out, name, labels + "," + label("quantile", String.valueOf(quantile)),
+                    histogram.getValueAtPercentile(quantile * 100) / 1e6);
+        }
+        sample(out, name + "_sum", labels, histogram.getMean() * histogram.getTotalCount() / 1e6);
+        sample(out, name + "_count", labels, histogram.getTotalCount());
+    }
+
+    private static void family(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    private static String formatValue(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    // 标签值里的反斜杠、双引号和换行需要转义
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,71 @@
+package site.hnfy258.demo2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 只监听本机回环地址的 HTTP 端点，GET /metrics 返回 MetricsReporter.scrape() 的 Prometheus 文本。
+ * 请求由一个守护线程依次处理，抓取频率一般是每几秒一次，不需要更多线程。
+ */
+public class PrometheusEndpoint implements AutoCloseable {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param port 0 表示由系统分配一个空闲端口，实际端口见 getPort()
+     */
+    public PrometheusEndpoint(MetricsReporter reporter, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Metrics-HTTP-Thread");
+            t.setDaemon(true);
+            return t;
+        });
+        server.createContext("/metrics", exchange -> handle(exchange, reporter));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private static void handle(HttpExchange exchange, MetricsReporter reporter) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body;
+            try {
+                body = reporter.scrape().getBytes(StandardCharsets.UTF_8);
+            } catch (RuntimeException e) {
+                System.err.println("Metrics scrape failed: " + e.getMessage());
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
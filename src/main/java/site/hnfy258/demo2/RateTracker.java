@@ -0,0 +1,69 @@
+package site.hnfy258.demo2;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 由一个累计计数推算速率：最近 10 秒和 1 分钟的滑动窗口平均，以及 1/5/15 分钟的指数加权移动平均（EWMA，
+ * 与 Unix load average 的算法相同）。调用方按固定间隔把累计值喂给 tick()，速率都是"每秒多少个"。
+ * <p>
+ * 只能由一个线程调用 tick()（MetricsReporter 的定时线程），读方通过 tick() 返回的不可变 Rates 拿结果。
+ */
+public class RateTracker {
+    private static final long[] WINDOW_SECONDS = {10, 60};
+    private static final long[] EWMA_MINUTES = {1, 5, 15};
+
+    private final long tickNanos;
+    // 最近每个 tick 的增量，环形存放，够覆盖最长的窗口
+    private final long[] deltas;
+    private final int[] windowTicks = new int[WINDOW_SECONDS.length];
+    private final double[] ewmaAlpha = new double[EWMA_MINUTES.length];
+    private final double[] ewmaRates = new double[EWMA_MINUTES.length];
+    private int ticks = 0;
+    private long lastCount = 0;
+
+    /**
+     * 1/5/15 分钟的平均速率和 10 秒/1 分钟窗口内的平均速率，都是每秒的个数。
+     * 窗口还没填满时按已经经过的时间平均。
+     */
+    public record Rates(long count, double rate10s, double rate1m, double ewma1m, double ewma5m, double ewma15m) {
+        static final Rates ZERO = new Rates(0, 0, 0, 0, 0, 0);
+    }
+
+    public RateTracker(long tickInterval, TimeUnit unit) {
+        this.tickNanos = unit.toNanos(tickInterval);
+        if (tickNanos <= 0 || tickNanos > TimeUnit.SECONDS.toNanos(WINDOW_SECONDS[0])) {
+            throw new IllegalArgumentException("tick interval must be within (0, " + WINDOW_SECONDS[0] + "s]");
+        }
+        for (int i = 0; i < WINDOW_SECONDS.length; i++) {
+            windowTicks[i] = (int) Math.max(1, TimeUnit.SECONDS.toNanos(WINDOW_SECONDS[i]) / tickNanos);
+        }
+        this.deltas = new long[windowTicks[windowTicks.length - 1]];
+        for (int i = 0; i < EWMA_MINUTES.length; i++) {
+            // 每个 tick 的衰减：经过一个时间常数后旧值的权重衰减到 1/e
+            ewmaAlpha[i] = 1 - Math.exp(-(double) tickNanos / TimeUnit.MINUTES.toNanos(EWMA_MINUTES[i]));
+        }
+    }
+
+    public Rates tick(long currentCount) {
+        long delta = Math.max(0, currentCount - lastCount);
+        lastCount = currentCount;
+        deltas[ticks % deltas.length] = delta;
+        double instantRate = delta / (tickNanos / 1e9);
+        for (int i = 0; i < ewmaRates.length; i++) {
+            // 第一个 tick 直接取当前速率，否则要很久才能从 0 爬上来
+            ewmaRates[i] = ticks == 0 ? instantRate : ewmaRates[i] + ewmaAlpha[i] * (instantRate - ewmaRates[i]);
+        }
+        ticks++;
+        return new Rates(currentCount, windowRate(windowTicks[0]), windowRate(windowTicks[1]),
+                ewmaRates[0], ewmaRates[1], ewmaRates[2]);
+    }
+
+    private double windowRate(int windowTickCount) {
+        int filled = Math.min(ticks, windowTickCount);
+        long sum = 0;
+        for (int i = 1; i <= filled; i++) {
+            sum += deltas[(ticks - i) % deltas.length];
+        }
+        return filled == 0 ? 0.0 : sum / (filled * tickNanos / 1e9);
+    }
+}
@@ -0,0 +1,68 @@
+package site.hnfy258.demo2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 写者无等待、读者负责同步的相位切换器（与 HdrHistogram 的 WriterReaderPhaser 同一算法）。
+ * 典型用法是双缓冲：写者在临界区里写当前的活动缓冲，读者交换活动/非活动缓冲后调用 flipPhase()，
+ * flipPhase 返回时所有可能还在写旧缓冲的写者都已离开，读者就能独占地读它，得到一个一致的快照。
+ * <pre>
+ * long token = phaser.writerCriticalSectionEnter();
+ * try { active.recordValue(v); } finally { phaser.writerCriticalSectionExit(token); }
+ * </pre>
+ * 写者每次只做两次原子自增，不会被读者阻塞；读者之间由 readerLock 互斥。
+ */
+public class WriterReaderPhaser {
+    // startEpoch 的符号表示当前相位：偶数相位从 0 往上数，奇数相位从 Long.MIN_VALUE 往上数
+    private final AtomicLong startEpoch = new AtomicLong(0);
+    private final AtomicLong evenEndEpoch = new AtomicLong(0);
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+    private final ReentrantLock readerLock = new ReentrantLock();
+
+    public long writerCriticalSectionEnter() {
+        return startEpoch.getAndIncrement();
+    }
+
+    public void writerCriticalSectionExit(long criticalValueAtEnter) {
+        (criticalValueAtEnter < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+    }
+
+    public void readerLock() {
+        readerLock.lock();
+    }
+
+    public void readerUnlock() {
+        readerLock.unlock();
+    }
+
+    /**
+     * 切换相位，并等到在旧相位进入临界区的写者全部退出。必须在持有 readerLock 时调用。
+     *
+     * @param yieldTimeNanos 等待写者时每轮停顿的时间，0 表示只让出 CPU
+     */
+    public void flipPhase(long yieldTimeNanos) {
+        if (!readerLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("flipPhase() can only be called while holding the reader lock");
+        }
+        boolean nextPhaseIsEven = startEpoch.get() < 0;
+        // 先把新相位的结束计数复位，再切换开始计数，进入新相位的写者退出时一定计在复位之后
+        long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).lazySet(initialStartValue);
+        long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+
+        AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (previousEndEpoch.get() != startValueAtFlip) {
+            if (yieldTimeNanos == 0) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(yieldTimeNanos);
+            }
+        }
+    }
+
+    public void flipPhase() {
+        flipPhase(0);
+    }
+}
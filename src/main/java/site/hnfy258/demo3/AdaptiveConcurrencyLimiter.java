@@ -0,0 +1,118 @@
+package site.hnfy258.demo3;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按观测延迟自适应调整的并发上限（AIMD）：
+ * 响应时间不超过基线的 latencyTolerance 倍、且并发确实用到了上限附近时，每轮（约 limit 次成功）上限加一；
+ * 响应明显变慢或调用超时（被丢弃）时上限乘以 backoffRatio，且每个基线 RTT 内最多收缩一次，避免一批慢响应把上限瞬间压到底。
+ * 基线是所有成功样本的慢速 EWMA，依赖的正常延迟长期变化时会慢慢跟上。
+ * 超出上限的调用直接拒绝，不占用 I/O 线程。
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final double BASELINE_ALPHA = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder decreases = new LongAdder();
+    private volatile int currentLimit;
+
+    // 以下字段由 this 保护
+    private double limit;
+    private double baselineRttNanos = -1;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double latencyTolerance, double backoffRatio) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Require 0 < minLimit <= initialLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = initialLimit;
+        this.currentLimit = initialLimit;
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= currentLimit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void onSuccess(long rttNanos) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        synchronized (this) {
+            if (baselineRttNanos < 0) {
+                baselineRttNanos = rttNanos;
+            } else {
+                baselineRttNanos += BASELINE_ALPHA * (rttNanos - baselineRttNanos);
+            }
+            if (rttNanos > latencyTolerance * baselineRttNanos) {
+                decrease();
+            } else if (inFlightBefore * 2 >= limit) {
+                // 并发远低于上限时说明上限不是约束，不再继续抬高
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+                currentLimit = (int) limit;
+            }
+        }
+    }
+
+    // 超时视为过载信号
+    public void onDropped() {
+        inFlight.decrementAndGet();
+        synchronized (this) {
+            decrease();
+        }
+    }
+
+    // 业务错误或调用被主动取消（对冲落败等），不反映依赖的负载，只归还名额
+    public void onIgnored() {
+        inFlight.decrementAndGet();
+    }
+
+    private void decrease() {
+        long now = System.nanoTime();
+        if (baselineRttNanos > 0 && now - lastDecreaseNanos < baselineRttNanos) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        limit = Math.max(minLimit, limit * backoffRatio);
+        currentLimit = (int) limit;
+        decreases.increment();
+    }
+
+    public int getLimit() {
+        return currentLimit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getDecreaseCount() {
+        return decreases.sum();
+    }
+
+    public synchronized double getBaselineRttMillis() {
+        return baselineRttNanos < 0 ? 0.0 : baselineRttNanos / 1_000_000.0;
+    }
+}
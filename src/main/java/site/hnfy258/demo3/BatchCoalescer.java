@@ -0,0 +1,146 @@
+package site.hnfy258.demo3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 把并发到达的单条请求攒成一批，通过一次批量调用完成，再把批量结果分发回每条请求各自的 future。
+ * 一批在以下任一条件满足时发出：攒满 maxBatchSize 条，或第一条请求进入后已过去 maxDelay。
+ * 攒满时由提交请求的线程直接发出；超时由共享的调度线程发出。
+ */
+public class BatchCoalescer<T, R> {
+    private final String name;
+    private final Function<List<T>, CompletableFuture<List<ItemResult<R>>>> batchCall;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private List<Pending<T, R>> pending;
+    // 每开始攒一批就加一，定时器只冲刷自己那一批，避免把之后新开的批次提前发出
+    private long generation = 0;
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder itemCount = new LongAdder();
+
+    public BatchCoalescer(String name,
+                          Function<List<T>, CompletableFuture<List<ItemResult<R>>>> batchCall,
+                          int maxBatchSize, long maxDelay, TimeUnit unit,
+                          ScheduledExecutorService scheduler) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.name = name;
+        this.batchCall = batchCall;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.scheduler = scheduler;
+        this.pending = new ArrayList<>(maxBatchSize);
+    }
+
+    public CompletableFuture<R> submit(T request) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        List<Pending<T, R>> ready = null;
+        long scheduleGeneration = -1;
+        synchronized (lock) {
+            pending.add(new Pending<>(request, future));
+            if (pending.size() >= maxBatchSize) {
+                ready = takePending();
+            } else if (pending.size() == 1) {
+                scheduleGeneration = generation;
+            }
+        }
+        if (ready != null) {
+            dispatch(ready);
+        } else if (scheduleGeneration >= 0) {
+            long expectedGeneration = scheduleGeneration;
+            scheduler.schedule(() -> flush(expectedGeneration), maxDelayNanos, TimeUnit.NANOSECONDS);
+        }
+        return future;
+    }
+
+    private void flush(long expectedGeneration) {
+        List<Pending<T, R>> ready;
+        synchronized (lock) {
+            if (generation != expectedGeneration || pending.isEmpty()) {
+                return;
+            }
+            ready = takePending();
+        }
+        dispatch(ready);
+    }
+
+    // 调用方需持有 lock
+    private List<Pending<T, R>> takePending() {
+        List<Pending<T, R>> ready = pending;
+        pending = new ArrayList<>(maxBatchSize);
+        generation++;
+        return ready;
+    }
+
+    private void dispatch(List<Pending<T, R>> batch) {
+        batchCount.increment();
+        itemCount.add(batch.size());
+        List<T> requests = new ArrayList<>(batch.size());
+        for (Pending<T, R> p : batch) {
+            requests.add(p.request());
+        }
+
+        CompletableFuture<List<ItemResult<R>>> call;
+        try {
+            call = batchCall.apply(requests);
+        } catch (RuntimeException e) {
+            failAll(batch, e);
+            return;
+        }
+        call.whenComplete((results, ex) -> {
+            if (ex != null) {
+                failAll(batch, (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex);
+                return;
+            }
+            if (results == null || results.size() != batch.size()) {
+                failAll(batch, new IllegalStateException(name + " batch returned "
+                        + (results == null ? "null" : results.size()) + " results for " + batch.size() + " requests"));
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                ItemResult<R> result = results.get(i);
+                if (result.isSuccess()) {
+                    batch.get(i).future().complete(result.value());
+                } else {
+                    batch.get(i).future().completeExceptionally(result.error());
+                }
+            }
+        });
+    }
+
+    private void failAll(List<Pending<T, R>> batch, Throwable error) {
+        for (Pending<T, R> p : batch) {
+            p.future().completeExceptionally(error);
+        }
+    }
+
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    public long getItemCount() {
+        return itemCount.sum();
+    }
+
+    public void printMetrics() {
+        long batches = batchCount.sum();
+        long items = itemCount.sum();
+        System.out.println(name + " coalescer: " + items + " requests in " + batches + " batches"
+                + (batches == 0 ? "" : String.format(" (avg %.1f per batch)", (double) items / batches)));
+    }
+
+    private record Pending<T, R>(T request, CompletableFuture<R> future) {
+    }
+}
@@ -0,0 +1,163 @@
+package site.hnfy258.demo3;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于最近 windowSize 次调用失败率的熔断器。
+ * CLOSED：正常放行，失败率达到阈值后转为 OPEN；
+ * OPEN：直接拒绝，openDuration 之后转为 HALF_OPEN；
+ * HALF_OPEN：只放行 halfOpenProbes 个探测调用，全部成功则恢复 CLOSED，任一失败重新 OPEN。
+ * 每次状态切换 epoch 加一，旧状态下放行的调用晚到的结果会被忽略，不会误算成探测结果。
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static final long NOT_PERMITTED = -1;
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openDurationNanos;
+    private final int halfOpenProbes;
+
+    private final LongAdder rejected = new LongAdder();
+    private volatile State stateView = State.CLOSED;
+
+    // 以下字段由 this 保护
+    private State state = State.CLOSED;
+    private long epoch = 0;
+    private final boolean[] outcomes;
+    private int outcomeIndex = 0;
+    private int outcomeCount = 0;
+    private int failureCount = 0;
+    private long openedAtNanos;
+    private int probesInFlight = 0;
+    private int probeSuccesses = 0;
+    private long openCount = 0;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          long openDuration, TimeUnit unit, int halfOpenProbes) {
+        this.name = name;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationNanos = unit.toNanos(openDuration);
+        this.halfOpenProbes = halfOpenProbes;
+        this.outcomes = new boolean[windowSize];
+    }
+
+    /**
+     * @return 放行时返回当前 epoch，调用结束后原样传给 onSuccess/onFailure/release；拒绝时返回 NOT_PERMITTED
+     */
+    public synchronized long tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAtNanos < openDurationNanos) {
+                rejected.increment();
+                return NOT_PERMITTED;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= halfOpenProbes) {
+                rejected.increment();
+                return NOT_PERMITTED;
+            }
+            probesInFlight++;
+        }
+        return epoch;
+    }
+
+    public synchronized void onSuccess(long permitEpoch) {
+        if (permitEpoch != epoch) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            probesInFlight--;
+            if (++probeSuccesses >= halfOpenProbes) {
+                System.out.println("CircuitBreaker[" + name + "] probes succeeded, closing");
+                transitionTo(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure(long permitEpoch) {
+        if (permitEpoch != epoch) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            System.err.println("CircuitBreaker[" + name + "] probe failed, reopening");
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (outcomeCount >= minimumCalls && (double) failureCount / outcomeCount >= failureRateThreshold) {
+                System.err.println("CircuitBreaker[" + name + "] failure rate "
+                        + String.format("%.0f%%", 100.0 * failureCount / outcomeCount) + " over last "
+                        + outcomeCount + " calls, opening");
+                open();
+            }
+        }
+    }
+
+    // 放行了但调用被取消或没有发出，归还探测名额，不计入统计
+    public synchronized void release(long permitEpoch) {
+        if (permitEpoch == epoch && state == State.HALF_OPEN) {
+            probesInFlight--;
+        }
+    }
+
+    private void record(boolean failure) {
+        if (outcomeCount == windowSize) {
+            if (outcomes[outcomeIndex]) {
+                failureCount--;
+            }
+        } else {
+            outcomeCount++;
+        }
+        outcomes[outcomeIndex] = failure;
+        if (failure) {
+            failureCount++;
+        }
+        outcomeIndex = (outcomeIndex + 1) % windowSize;
+    }
+
+    private void open() {
+        openedAtNanos = System.nanoTime();
+        openCount++;
+        transitionTo(State.OPEN);
+    }
+
+    private void transitionTo(State newState) {
+        state = newState;
+        stateView = newState;
+        epoch++;
+        probesInFlight = 0;
+        probeSuccesses = 0;
+        if (newState == State.CLOSED) {
+            outcomeIndex = 0;
+            outcomeCount = 0;
+            failureCount = 0;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return stateView;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+}
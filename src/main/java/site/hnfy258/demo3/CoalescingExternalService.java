@@ -0,0 +1,102 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo1.TraceId;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在 ExternalService 前面加一层微批：并发到达的单事件调用在一个很小的时间/数量窗口内合并成一次批量往返。
+ * 负载越高每批越满，每个事件分摊到的往返开销越小；负载很低时最多多等 maxDelay。
+ * 批量接口和 geoLocateIp 直接透传给被包装的服务。
+ */
+public class CoalescingExternalService implements ExternalService {
+    private final ExternalService delegate;
+    private final ScheduledExecutorService flushScheduler;
+    private final BatchCoalescer<Event, Boolean> validateCoalescer;
+    private final BatchCoalescer<Event, String> transformCoalescer;
+    private final BatchCoalescer<Event, Void> storeCoalescer;
+    private final BatchCoalescer<TraceId, Void> notifyCoalescer;
+
+    public CoalescingExternalService(ExternalService delegate, int maxBatchSize, long maxDelay, TimeUnit unit) {
+        this.delegate = delegate;
+        this.flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Coalescer-Flush-Thread");
+            t.setDaemon(true);
+            return t;
+        });
+        this.validateCoalescer = new BatchCoalescer<>("validate", delegate::validateEvents,
+                maxBatchSize, maxDelay, unit, flushScheduler);
+        this.transformCoalescer = new BatchCoalescer<>("transform", delegate::transformDataBatch,
+                maxBatchSize, maxDelay, unit, flushScheduler);
+        this.storeCoalescer = new BatchCoalescer<>("store", delegate::storeDataBatch,
+                maxBatchSize, maxDelay, unit, flushScheduler);
+        this.notifyCoalescer = new BatchCoalescer<>("notify", delegate::sendNotifications,
+                maxBatchSize, maxDelay, unit, flushScheduler);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> validateEvent(Event event) {
+        return validateCoalescer.submit(event);
+    }
+
+    @Override
+    public CompletableFuture<String> transformData(Event event) {
+        return transformCoalescer.submit(event);
+    }
+
+    @Override
+    public CompletableFuture<Void> storeData(String transformedData, Event originalEvent) {
+        // 批量存储接口以事件为单位，转换结果放进 payload 里，与单次存储写入缓存的内容一致
+        return storeCoalescer.submit(originalEvent.withPayload(transformedData));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendNotification(TraceId eventId) {
+        return notifyCoalescer.submit(eventId);
+    }
+
+    @Override
+    public CompletableFuture<String> geoLocateIp(String ipAddress) {
+        return delegate.geoLocateIp(ipAddress);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Boolean>>> validateEvents(List<Event> events) {
+        return delegate.validateEvents(events);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<String>>> transformDataBatch(List<Event> events) {
+        return delegate.transformDataBatch(events);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> storeDataBatch(List<Event> transformedEvents) {
+        return delegate.storeDataBatch(transformedEvents);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> sendNotifications(List<TraceId> eventIds) {
+        return delegate.sendNotifications(eventIds);
+    }
+
+    public void printMetrics() {
+        System.out.println("\n--- Service Call Coalescing ---");
+        validateCoalescer.printMetrics();
+        transformCoalescer.printMetrics();
+        storeCoalescer.printMetrics();
+        notifyCoalescer.printMetrics();
+        System.out.println("-------------------------------");
+    }
+
+    @Override
+    public void shutdownExecutors() {
+        flushScheduler.shutdown();
+        delegate.shutdownExecutors();
+    }
+}
@@ -0,0 +1,95 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo3.exception.CircuitOpenException;
+import site.hnfy258.demo3.exception.ConcurrencyLimitExceededException;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 一个外部依赖前面的熔断器 + 自适应并发上限。先问熔断器，再占并发名额，都通过才真正发起调用；
+ * 被拒绝的调用立即以异常完成，不会发出请求。
+ */
+public class DependencyGuard {
+    private final String name;
+    private final CircuitBreaker circuitBreaker;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    public DependencyGuard(String name, CircuitBreaker circuitBreaker, AdaptiveConcurrencyLimiter limiter) {
+        this.name = name;
+        this.circuitBreaker = circuitBreaker;
+        this.limiter = limiter;
+    }
+
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> call) {
+        long permit = circuitBreaker.tryAcquirePermission();
+        if (permit == CircuitBreaker.NOT_PERMITTED) {
+            return CompletableFuture.failedFuture(
+                    new CircuitOpenException("Circuit breaker for " + name + " is " + circuitBreaker.getState()));
+        }
+        if (!limiter.tryAcquire()) {
+            circuitBreaker.release(permit);
+            return CompletableFuture.failedFuture(new ConcurrencyLimitExceededException(
+                    "Concurrency limit " + limiter.getLimit() + " reached for " + name));
+        }
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            limiter.onIgnored();
+            circuitBreaker.onFailure(permit);
+            return CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((result, ex) -> {
+            Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+            if (cause == null) {
+                limiter.onSuccess(System.nanoTime() - startNanos);
+                circuitBreaker.onSuccess(permit);
+            } else if (cause instanceof CancellationException) {
+                limiter.onIgnored();
+                circuitBreaker.release(permit);
+            } else {
+                // 只有超时说明依赖过载，需要收缩并发；其它错误交给熔断器按失败率判断
+                if (isTimeout(cause)) {
+                    limiter.onDropped();
+                } else {
+                    limiter.onIgnored();
+                }
+                circuitBreaker.onFailure(permit);
+            }
+        });
+        return future;
+    }
+
+    // 截止时间到期是 java.util.concurrent.TimeoutException，依赖自身超时是同名的 exception.TimeoutException，只能写全名
+    private static boolean isTimeout(Throwable cause) {
+        return cause instanceof TimeoutException
+                || cause instanceof site.hnfy258.demo3.exception.TimeoutException;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-10s breaker=%s opens=%d breakerRejected=%d limit=%d inFlight=%d limitRejected=%d"
+                        + " limitDecreases=%d baselineRtt=%.1fms",
+                name, circuitBreaker.getState(), circuitBreaker.getOpenCount(), circuitBreaker.getRejectedCount(),
+                limiter.getLimit(), limiter.getInFlight(), limiter.getRejectedCount(),
+                limiter.getDecreaseCount(), limiter.getBaselineRttMillis());
+    }
+}
@@ -1,91 +1,202 @@
 package site.hnfy258.demo3;
 
+import site.hnfy258.demo1.CompactEvent;
 import site.hnfy258.demo1.Event;
-import site.hnfy258.demo3.exception.*; // 导入你的自定义异常包
+import site.hnfy258.demo1.TraceId;
+import site.hnfy258.demo3.exception.RetryableExceptions;
+import site.hnfy258.demo3.pipeline.EventPipeline;
+import site.hnfy258.demo3.pipeline.RetryBudget;
+import site.hnfy258.demo3.pipeline.RetryPolicy;
+import site.hnfy258.demo3.pipeline.StagedPipeline;
+import site.hnfy258.demo4.BoundedCache;
 import site.hnfy258.demo4.ConcurrentBlocklist;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException; // 用于处理 CompletableFuture 包装的异常
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class EventProcessorService {
-    private final MockExternalService mockExternalService;
+    // 默认阶段配置：每个阶段的输入队列容量，以及各阶段的并发上限
+    public static final int DEFAULT_STAGE_QUEUE_CAPACITY = 10_000;
+    public static final int DEFAULT_VALIDATION_CONCURRENCY = 64;
+    public static final int DEFAULT_TRANSFORMATION_CONCURRENCY = Runtime.getRuntime().availableProcessors() + 1;
+    public static final int DEFAULT_STORAGE_CONCURRENCY = 32;
+    public static final int DEFAULT_NOTIFICATION_CONCURRENCY = 64;
+    // 默认重试：最多 3 次尝试，退避 20ms 起、上限 500ms；重试量不超过首次调用的 10%，突发最多 10 次
+    public static final int DEFAULT_RETRY_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_RETRY_BASE_DELAY_MS = 20;
+    public static final long DEFAULT_RETRY_MAX_DELAY_MS = 500;
+    public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_RETRY_BUDGET_TOKENS = 10;
+    // 默认记住最近 10 万个成功处理过的 traceId，最长 10 分钟
+    public static final int DEFAULT_IDEMPOTENCY_CAPACITY = 100_000;
+    public static final long DEFAULT_IDEMPOTENCY_TTL_MINUTES = 10;
+
     private final ConcurrentBlocklist blackList;
+    private final EventPipeline pipeline;
+    // 正在处理中的 traceId，同一个 traceId 并发到达时共用一次处理
+    private final ConcurrentHashMap<TraceId, CompletableFuture<ProcessingResult>> inFlight = new ConcurrentHashMap<>();
+    // 最近处理成功的结果，重复事件直接返回，不再调用外部服务
+    private final BoundedCache<TraceId, ProcessingResult> completedResults;
+    private final LongAdder collapsedCount = new LongAdder();
+    private final LongAdder replayedCount = new LongAdder();
 
-    public EventProcessorService(MockExternalService mockExternalService,
+    public EventProcessorService(ExternalService externalService,
                                  ConcurrentBlocklist blackList) {
-        this.mockExternalService = mockExternalService;
+        this(blackList, defaultPipeline(externalService));
+    }
+
+    public EventProcessorService(ConcurrentBlocklist blackList, EventPipeline pipeline) {
+        this(blackList, pipeline, idempotencyStore(DEFAULT_IDEMPOTENCY_CAPACITY, DEFAULT_IDEMPOTENCY_TTL_MINUTES));
+    }
+
+    public EventProcessorService(ConcurrentBlocklist blackList, EventPipeline pipeline,
+                                 BoundedCache<TraceId, ProcessingResult> completedResults) {
         this.blackList = blackList;
+        this.pipeline = pipeline;
+        this.completedResults = completedResults;
+    }
+
+    // 按条目数限制大小的幂等结果表
+    public static BoundedCache<TraceId, ProcessingResult> idempotencyStore(int capacity, long ttlMinutes) {
+        return BoundedCache.<TraceId, ProcessingResult>builder()
+                .maximumWeight(capacity)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .expectedEntries(capacity)
+                .build();
+    }
 
+    /**
+     * 校验（同时查询地理位置）→ 转换 → 存储 → 通知。转换是 CPU 密集型，并发上限与 CPU 线程池大小一致。
+     * 地理位置放在成功结果 processedDate 的 GeoEnricher.GEO_LOCATION 下。
+     */
+    public static StagedPipeline defaultPipeline(ExternalService externalService) {
+        return StagedPipeline.builder()
+                .retry(retryPolicy(DEFAULT_RETRY_MAX_ATTEMPTS, DEFAULT_RETRY_BASE_DELAY_MS, DEFAULT_RETRY_MAX_DELAY_MS),
+                        new RetryBudget(DEFAULT_RETRY_BUDGET_RATIO, DEFAULT_RETRY_BUDGET_TOKENS))
+                .stage(new ValidationStage(externalService, new GeoEnricher(externalService)), DEFAULT_VALIDATION_CONCURRENCY, DEFAULT_STAGE_QUEUE_CAPACITY)
+                .stage(new TransformationStage(externalService), DEFAULT_TRANSFORMATION_CONCURRENCY, DEFAULT_STAGE_QUEUE_CAPACITY)
+                .stage(new StorageStage(externalService), DEFAULT_STORAGE_CONCURRENCY, DEFAULT_STAGE_QUEUE_CAPACITY)
+                .stage(new NotificationStage(externalService), DEFAULT_NOTIFICATION_CONCURRENCY, DEFAULT_STAGE_QUEUE_CAPACITY)
+                .build();
+    }
+
+    // 只重试 RetryableExceptions 判定为瞬时故障的异常
+    public static RetryPolicy retryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        return new RetryPolicy(maxAttempts, baseDelayMs, maxDelayMs, TimeUnit.MILLISECONDS,
+                RetryableExceptions::isRetryable);
     }
 
     public CompletableFuture<ProcessingResult> processEvent(Event event) {
         System.out.println("Processor: Starting processing for event: " + event.traceId());
         if(blackList.contains(event.traceId())){
-            System.out.println("Processor: Event " + event.traceId() + " is in the blacklist. Skipping processing.");
-            return CompletableFuture.completedFuture(
-                    new ProcessingResult(event, false, "Event is blacklisted", Collections.emptyMap()));
+            return blacklistedResult(event);
+        }
+        return runPipeline(event);
+    }
+
+    /**
+     * 紧凑事件入口。MockExternalService 的接口以 String 为参数，所以在调用外部服务之前才还原出 Event 视图，
+     * 同时归还紧凑事件占用的堆外缓冲。
+     */
+    public CompletableFuture<ProcessingResult> processEvent(CompactEvent compactEvent) {
+        Event event = compactEvent.toEvent();
+        compactEvent.release();
+        return processEvent(event);
+    }
+
+    /**
+     * 批量提交：整批只打一次日志，每个事件仍然各自走完整的处理链，返回的 future 与 events 一一对应。
+     */
+    public List<CompletableFuture<ProcessingResult>> processEvents(List<Event> events) {
+        System.out.println("Processor: Starting processing for batch of " + events.size() + " events");
+        List<CompletableFuture<ProcessingResult>> futures = new ArrayList<>(events.size());
+        for (Event event : events) {
+            if (blackList.contains(event.traceId())) {
+                futures.add(blacklistedResult(event));
+            } else {
+                futures.add(runPipeline(event));
+            }
         }
+        return futures;
+    }
 
-        return mockExternalService.validateEvent(event)
-                .thenCompose(isValid -> {
-                    if (isValid) {
-                        System.out.println("Processor: Validation SUCCESS for event: " + event.traceId() + ". Proceeding to transform.");
-                        return mockExternalService.transformData(event)
-                                .thenCompose(transformedData -> {
-                                    System.out.println("Processor: Transformation SUCCESS for event: " + event.traceId() + ". Proceeding to store.");
-
-                                    return mockExternalService.storeData(transformedData, event)
-                                            .thenCompose(v -> {
-                                                System.out.println("Processor: Storage SUCCESS for event: " + event.traceId() + ". Proceeding to notify.");
-
-                                                return mockExternalService.sendNotification(event.traceId())
-                                                        .thenApply(nv -> {
-                                                            System.out.println("Processor: Notification SUCCESS for event: " + event.traceId() + ". ALL STEPS COMPLETE.");
-                                                            Map<String, Object> data = new HashMap<>();
-                                                            data.put("transformedPayload", transformedData);
-                                                            return new ProcessingResult(event, true, null, data);
-                                                        })
-                                                        .exceptionally(ex -> {
-                                                            Throwable actualEx = (ex instanceof CompletionException) ? ex.getCause() : ex;
-                                                            String errorMsg = "Notification failed: " + actualEx.getMessage();
-                                                            System.err.println("Processor: " + errorMsg + " for event: " + event.traceId());
-                                                            return new ProcessingResult(event, false, errorMsg, Collections.emptyMap());
-                                                        });
-                                            })
-                                            .exceptionally(ex -> {
-                                                Throwable actualEx = (ex instanceof CompletionException) ? ex.getCause() : ex;
-                                                String errorMsg = "Storage failed: " + actualEx.getMessage();
-                                                System.err.println("Processor: " + errorMsg + " for event: " + event.traceId());
-                                                return new ProcessingResult(event, false, errorMsg, Collections.emptyMap());
-                                            });
-                                })
-                                .exceptionally(ex -> {
-                                    Throwable actualEx = (ex instanceof CompletionException) ? ex.getCause() : ex;
-                                    String errorMsg = "Transformation failed: " + actualEx.getMessage();
-                                    System.err.println("Processor: " + errorMsg + " for event: " + event.traceId());
-                                    return new ProcessingResult(event, false, errorMsg, Collections.emptyMap());
-                                });
-                    } else {
-                        System.out.println("Processor: Validation FAILED (result: FALSE) for event: " + event.traceId() + ". Stopping chain.");
-                        return CompletableFuture.completedFuture(
-                                new ProcessingResult(event, false, "Validation failed: Event is invalid", Collections.emptyMap()));
-                    }
-                })
-                .exceptionally(ex -> {
-                    Throwable actualEx = (ex instanceof CompletionException) ? ex.getCause() : ex;
-                    String errorMsg = "Validation failed: " + actualEx.getMessage();
-                    System.err.println("Processor: " + errorMsg + " for event: " + event.traceId());
-                    return new ProcessingResult(event, false, errorMsg, Collections.emptyMap());
-                })
-
-                .exceptionally(ex -> {
-                    Throwable actualEx = (ex instanceof CompletionException) ? ex.getCause() : ex;
-                    String errorMsg = "Event processing failed due to an unexpected error in pipeline: " + actualEx.getMessage();
-                    System.err.println("Processor: " + errorMsg + " for event: " + event.traceId());
-                    return new ProcessingResult(event, false, errorMsg, Collections.emptyMap());
-                });
-    }
-}
\ No newline at end of file
+    private CompletableFuture<ProcessingResult> blacklistedResult(Event event) {
+        System.out.println("Processor: Event " + event.traceId() + " is in the blacklist. Skipping processing.");
+        return CompletableFuture.completedFuture(
+                new ProcessingResult(event, false, "Event is blacklisted", Collections.emptyMap()));
+    }
+
+    /**
+     * 同一个 traceId 只跑一遍处理链：最近成功过的直接返回记住的结果，正在处理的共用同一次处理。
+     * 失败的结果不记住，生产者重发时还有机会重新处理。
+     * 每个调用方拿到的是共享结果的副本，某个调用方取消自己的 future 不会影响其它调用方。
+     */
+    private CompletableFuture<ProcessingResult> runPipeline(Event event) {
+        TraceId traceId = event.traceId();
+        if (traceId == null) {
+            return pipeline.execute(event);
+        }
+        ProcessingResult completed = completedResults.getIfPresent(traceId);
+        if (completed != null) {
+            return replayed(traceId, completed);
+        }
+        CompletableFuture<ProcessingResult> leader = new CompletableFuture<>();
+        CompletableFuture<ProcessingResult> existing = inFlight.putIfAbsent(traceId, leader);
+        if (existing != null) {
+            collapsedCount.increment();
+            System.out.println("Processor: Event " + traceId + " is already in flight, sharing its result.");
+            return existing.copy();
+        }
+        // 上一次处理可能恰好在两次检查之间完成
+        completed = completedResults.getIfPresent(traceId);
+        if (completed != null) {
+            inFlight.remove(traceId, leader);
+            leader.complete(completed);
+            return replayed(traceId, completed);
+        }
+        pipeline.execute(event).whenComplete((result, ex) -> {
+            // 先记住结果再移出在途表，中间到达的重复事件总能命中其中之一
+            if (ex == null && result.success()) {
+                completedResults.put(traceId, result);
+            }
+            inFlight.remove(traceId, leader);
+            if (ex != null) {
+                leader.completeExceptionally(ex);
+            } else {
+                leader.complete(result);
+            }
+        });
+        return leader.copy();
+    }
+
+    private CompletableFuture<ProcessingResult> replayed(TraceId traceId, ProcessingResult completed) {
+        replayedCount.increment();
+        System.out.println("Processor: Event " + traceId + " was already processed, returning the recorded result.");
+        return CompletableFuture.completedFuture(completed);
+    }
+
+    public EventPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public long getCollapsedCount() {
+        return collapsedCount.sum();
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.sum();
+    }
+
+    public void printDeduplicationMetrics() {
+        System.out.println("\n--- Deduplication ---");
+        System.out.println("Collapsed Into In-Flight: " + getCollapsedCount());
+        System.out.println("Served From Idempotency Store: " + getReplayedCount());
+        System.out.println("Idempotency Store: " + completedResults.stats());
+        System.out.println("---------------------");
+    }
+}
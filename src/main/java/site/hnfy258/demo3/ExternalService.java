@@ -0,0 +1,38 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo1.TraceId;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * EventProcessorService 依赖的外部服务。
+ * 单事件接口每次调用都是一次完整的往返；批量接口一次往返处理一组事件，
+ * 返回的列表与入参一一对应，单个事件的失败放在对应的 ItemResult 里，整个 future 失败表示整批往返失败。
+ */
+public interface ExternalService {
+
+    CompletableFuture<Boolean> validateEvent(Event event);
+
+    CompletableFuture<String> transformData(Event event);
+
+    CompletableFuture<Void> storeData(String transformedData, Event originalEvent);
+
+    CompletableFuture<Void> sendNotification(TraceId eventId);
+
+    CompletableFuture<String> geoLocateIp(String ipAddress);
+
+    CompletableFuture<List<ItemResult<Boolean>>> validateEvents(List<Event> events);
+
+    CompletableFuture<List<ItemResult<String>>> transformDataBatch(List<Event> events);
+
+    /**
+     * 批量存储，transformedEvents 中每个事件的 payload 是转换后的数据。
+     */
+    CompletableFuture<List<ItemResult<Void>>> storeDataBatch(List<Event> transformedEvents);
+
+    CompletableFuture<List<ItemResult<Void>>> sendNotifications(List<TraceId> eventIds);
+
+    void shutdownExecutors();
+}
@@ -0,0 +1,113 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo1.TraceId;
+import site.hnfy258.demo4.IpRangeCache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 给事件补上客户端 IP 的地理位置。查询先走按网段缓存的 IpRangeCache，同一个 /24 内的地址只调用一次 geoLocateIp；
+ * 地理位置只是附加信息，查询失败、超时或 IP 无法解析时都以 UNKNOWN_LOCATION 正常完成，不会让事件失败。
+ * 只有地理库明确回答"这个网段没有数据"时才按负缓存记住一段时间；查询失败不缓存（IpRangeCache 的约定），
+ * 下一个事件会重新查询，依赖出故障时由外部服务前面的熔断器快速失败，不会每个事件都真正去撞一次。
+ */
+public class GeoEnricher {
+    // 地理位置在上下文中的键，也是成功结果 processedDate 中的键
+    public static final String GEO_LOCATION = "geoLocation";
+    public static final String UNKNOWN_LOCATION = "unknown";
+
+    // 地理库的粒度按 /24 网段
+    public static final int DEFAULT_PREFIX_LENGTH = 24;
+    public static final int DEFAULT_MAX_RANGES = 65_536;
+    public static final long DEFAULT_TTL_MINUTES = 10;
+    public static final long DEFAULT_REFRESH_MINUTES = 5;
+    public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 30;
+
+    // 模拟的客户端分布在 1024 个 /24 网段里，越靠前的网段流量越大
+    private static final int SYNTHETIC_NETWORKS = 1024;
+    private static final int SYNTHETIC_BASE_ADDRESS = IpRangeCache.parseIpv4("11.0.0.0");
+
+    private final IpRangeCache<String> cache;
+    private final Function<Event, String> clientIp;
+    private final LongAdder located = new LongAdder();
+    private final LongAdder unknown = new LongAdder();
+
+    public GeoEnricher(ExternalService externalService) {
+        this(externalService, GeoEnricher::syntheticClientIp);
+    }
+
+    public GeoEnricher(ExternalService externalService, Function<Event, String> clientIp) {
+        this.clientIp = clientIp;
+        this.cache = IpRangeCache.<String>builder(address -> lookup(externalService, address))
+                .maximumRanges(DEFAULT_MAX_RANGES)
+                .loadPrefixLength(DEFAULT_PREFIX_LENGTH)
+                .expireAfterWrite(DEFAULT_TTL_MINUTES, TimeUnit.MINUTES)
+                .refreshAfterWrite(DEFAULT_REFRESH_MINUTES, TimeUnit.MINUTES)
+                .negativeTtl(DEFAULT_NEGATIVE_TTL_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    // 地理库返回 null 表示网段没有数据，整段按负缓存处理；失败原样传给缓存，不会被当成没有数据记住，
+    // 刷新失败时也保留原来的值
+    private static CompletableFuture<IpRangeCache.Range<String>> lookup(ExternalService externalService, int address) {
+        return externalService.geoLocateIp(IpRangeCache.formatIpv4(address))
+                .thenApply(location -> IpRangeCache.Range.ofPrefix(address, DEFAULT_PREFIX_LENGTH, location));
+    }
+
+    /**
+     * 返回的 future 总是正常完成；调用方可以随时取消它，已经发出的查询会继续完成并写入缓存。
+     */
+    public CompletableFuture<String> locate(Event event) {
+        int address;
+        try {
+            address = IpRangeCache.parseIpv4(clientIp.apply(event));
+        } catch (RuntimeException e) {
+            unknown.increment();
+            return CompletableFuture.completedFuture(UNKNOWN_LOCATION);
+        }
+        return cache.get(address).handle((location, ex) -> {
+            if (ex != null || location == null) {
+                unknown.increment();
+                return UNKNOWN_LOCATION;
+            }
+            located.increment();
+            return location;
+        });
+    }
+
+    /**
+     * 事件里还没有客户端 IP 字段，按 traceId 确定性地映射出一个地址：
+     * 网段按 u^3 取（u 在 [0,1) 均匀），少数网段承担大部分流量，与真实客户端的分布类似；主机号均匀分布。
+     */
+    public static String syntheticClientIp(Event event) {
+        TraceId traceId = event.traceId();
+        long hash = traceId == null ? event.timestamp() : traceId.hi() * 31 + traceId.lo();
+        hash = mix(hash);
+        double u = (hash >>> 11) * 0x1.0p-53;
+        int network = (int) (SYNTHETIC_NETWORKS * u * u * u);
+        int host = (int) (mix(hash) & 0xFF);
+        return IpRangeCache.formatIpv4(SYNTHETIC_BASE_ADDRESS + (network << 8) + host);
+    }
+
+    // SplitMix64 的终混函数
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public IpRangeCache<String> getCache() {
+        return cache;
+    }
+
+    public void printMetrics() {
+        System.out.println("\n--- Geo Enrichment ---");
+        System.out.println("Located: " + located.sum() + ", unknown: " + unknown.sum());
+        System.out.println("IP range cache: " + cache.stats());
+        System.out.println("----------------------");
+    }
+}
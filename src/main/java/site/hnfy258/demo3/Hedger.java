@@ -0,0 +1,140 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo2.LatencyHistogram;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 对冲请求：首个请求在观测到的 P{hedgePercentile} 延迟内还没返回时，再发一个相同的请求，谁先成功用谁，
+ * 结果确定后取消另一个。只有慢于该分位数的那一小部分请求会被对冲，
+ * 并且对冲次数不超过总调用数的 maxHedgeRatio，所以额外负载有上限。
+ * 只能用于幂等的调用。
+ * <p>
+ * 延迟直方图记录的是调用方实际等待的时间：从首个请求发出到结果确定。
+ * 对冲赢了、或调用方因截止时间放弃时，首个请求被取消，它的真实耗时至少是这么长，按这个下限计入；
+ * 如果只记录跑完的成功请求，慢请求总被取消，分位数会越算越低，对冲越发越早。
+ */
+public class Hedger {
+    // 样本不足时分位数不可靠，先不对冲
+    private static final long MIN_SAMPLES = 100;
+    // 每隔这么多次调用重新计算一次对冲延迟，避免每次调用都遍历直方图
+    private static final int DELAY_REFRESH_INTERVAL = 64;
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final String name;
+    private final double hedgePercentile;
+    private final double maxHedgeRatio;
+    private final ScheduledExecutorService scheduler;
+    private final LatencyHistogram latency = new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    // 结果确定时首个请求还没返回的调用（对冲赢了或调用方放弃），延迟按下限计入
+    private final LongAdder censored = new LongAdder();
+    private final AtomicInteger callsSinceRefresh = new AtomicInteger();
+    private volatile long hedgeDelayMicros = -1;
+
+    public Hedger(String name, double hedgePercentile, double maxHedgeRatio, ScheduledExecutorService scheduler) {
+        this.name = name;
+        this.hedgePercentile = hedgePercentile;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.scheduler = scheduler;
+    }
+
+    public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> attempt) {
+        calls.increment();
+        refreshDelayIfDue();
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // 还没结束的尝试数，全部失败才让 result 失败
+        AtomicInteger outstanding = new AtomicInteger(1);
+        AtomicReference<CompletableFuture<T>> hedge = new AtomicReference<>();
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> primary = attempt.get();
+        track(primary, false, result, outstanding);
+
+        long delayMicros = hedgeDelayMicros;
+        if (delayMicros >= 0 && !primary.isDone()) {
+            scheduler.schedule(() -> {
+                if (result.isDone() || hedges.sum() >= maxHedgeRatio * calls.sum()) {
+                    return;
+                }
+                outstanding.incrementAndGet();
+                hedges.increment();
+                CompletableFuture<T> secondary = attempt.get();
+                hedge.set(secondary);
+                track(secondary, true, result, outstanding);
+                if (result.isDone()) {
+                    secondary.cancel(true);
+                }
+            }, delayMicros, TimeUnit.MICROSECONDS);
+        }
+
+        // 结果确定后（包括调用方因截止时间放弃）记录等待时间，并取消仍在进行的尝试
+        result.whenComplete((v, ex) -> {
+            // outstanding 归零说明所有尝试都失败了，快速失败不代表正常调用的耗时，不计入
+            if (ex == null || outstanding.get() > 0) {
+                latency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+                if (!primary.isDone()) {
+                    censored.increment();
+                }
+            }
+            primary.cancel(true);
+            CompletableFuture<T> secondary = hedge.get();
+            if (secondary != null) {
+                secondary.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private <T> void track(CompletableFuture<T> attempt, boolean isHedge,
+                           CompletableFuture<T> result, AtomicInteger outstanding) {
+        attempt.whenComplete((value, ex) -> {
+            if (ex == null) {
+                if (result.complete(value) && isHedge) {
+                    hedgeWins.increment();
+                }
+            } else if (outstanding.decrementAndGet() == 0) {
+                result.completeExceptionally(ex);
+            }
+        });
+    }
+
+    private void refreshDelayIfDue() {
+        if (callsSinceRefresh.incrementAndGet() < DELAY_REFRESH_INTERVAL) {
+            return;
+        }
+        callsSinceRefresh.set(0);
+        if (latency.getTotalCount() >= MIN_SAMPLES) {
+            hedgeDelayMicros = latency.getValueAtPercentile(hedgePercentile);
+        }
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    public void printMetrics() {
+        long delay = hedgeDelayMicros;
+        System.out.println(name + " hedger: " + calls.sum() + " calls, " + hedges.sum() + " hedged, "
+                + hedgeWins.sum() + " won by hedge, " + censored.sum() + " primary cut short, delay "
+                + (delay < 0 ? "n/a (warming up)" : String.format("%.1fms (p%s)", delay / 1000.0, hedgePercentile)));
+    }
+}
@@ -0,0 +1,95 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo1.TraceId;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 对幂等的单事件调用（校验、转换、按 traceId 覆盖写的存储、地理定位）做对冲请求，压低尾延迟。
+ * 通知不是幂等的，批量接口本身已经摊薄了往返，二者直接透传。
+ */
+public class HedgingExternalService implements ExternalService {
+    private final ExternalService delegate;
+    private final ScheduledExecutorService hedgeScheduler;
+    private final Hedger validateHedger;
+    private final Hedger transformHedger;
+    private final Hedger storeHedger;
+    private final Hedger geoHedger;
+
+    public HedgingExternalService(ExternalService delegate, double hedgePercentile, double maxHedgeRatio) {
+        this.delegate = delegate;
+        this.hedgeScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Hedge-Scheduler-Thread");
+            t.setDaemon(true);
+            return t;
+        });
+        this.validateHedger = new Hedger("validate", hedgePercentile, maxHedgeRatio, hedgeScheduler);
+        this.transformHedger = new Hedger("transform", hedgePercentile, maxHedgeRatio, hedgeScheduler);
+        this.storeHedger = new Hedger("store", hedgePercentile, maxHedgeRatio, hedgeScheduler);
+        this.geoHedger = new Hedger("geo", hedgePercentile, maxHedgeRatio, hedgeScheduler);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> validateEvent(Event event) {
+        return validateHedger.call(() -> delegate.validateEvent(event));
+    }
+
+    @Override
+    public CompletableFuture<String> transformData(Event event) {
+        return transformHedger.call(() -> delegate.transformData(event));
+    }
+
+    @Override
+    public CompletableFuture<Void> storeData(String transformedData, Event originalEvent) {
+        return storeHedger.call(() -> delegate.storeData(transformedData, originalEvent));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendNotification(TraceId eventId) {
+        return delegate.sendNotification(eventId);
+    }
+
+    @Override
+    public CompletableFuture<String> geoLocateIp(String ipAddress) {
+        return geoHedger.call(() -> delegate.geoLocateIp(ipAddress));
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Boolean>>> validateEvents(List<Event> events) {
+        return delegate.validateEvents(events);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<String>>> transformDataBatch(List<Event> events) {
+        return delegate.transformDataBatch(events);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> storeDataBatch(List<Event> transformedEvents) {
+        return delegate.storeDataBatch(transformedEvents);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> sendNotifications(List<TraceId> eventIds) {
+        return delegate.sendNotifications(eventIds);
+    }
+
+    public void printMetrics() {
+        System.out.println("\n--- Hedged Requests ---");
+        validateHedger.printMetrics();
+        transformHedger.printMetrics();
+        storeHedger.printMetrics();
+        geoHedger.printMetrics();
+        System.out.println("-----------------------");
+    }
+
+    @Override
+    public void shutdownExecutors() {
+        hedgeScheduler.shutdown();
+        delegate.shutdownExecutors();
+    }
+}
@@ -0,0 +1,82 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo1.TraceId;
+import site.hnfy258.demo2.EventMetrics;
+import site.hnfy258.demo2.EventMetrics.Phase;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 把每次外部调用的往返时间按操作记入 EventMetrics，成功、失败、超时、被取消都算。
+ * 批量接口每次往返记一个样本。返回的就是被包装服务返回的那个 future，
+ * 调用方的取消和超时照常传到被包装的服务。
+ */
+public class InstrumentedExternalService implements ExternalService {
+    private final ExternalService delegate;
+    private final EventMetrics metrics;
+
+    public InstrumentedExternalService(ExternalService delegate, EventMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    private <T> CompletableFuture<T> timed(Phase phase, Supplier<CompletableFuture<T>> call) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> future = call.get();
+        future.whenComplete((value, ex) -> metrics.recordLatency(phase, System.nanoTime() - startNanos));
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> validateEvent(Event event) {
+        return timed(Phase.VALIDATE, () -> delegate.validateEvent(event));
+    }
+
+    @Override
+    public CompletableFuture<String> transformData(Event event) {
+        return timed(Phase.TRANSFORM, () -> delegate.transformData(event));
+    }
+
+    @Override
+    public CompletableFuture<Void> storeData(String transformedData, Event originalEvent) {
+        return timed(Phase.STORE, () -> delegate.storeData(transformedData, originalEvent));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendNotification(TraceId eventId) {
+        return timed(Phase.NOTIFY, () -> delegate.sendNotification(eventId));
+    }
+
+    @Override
+    public CompletableFuture<String> geoLocateIp(String ipAddress) {
+        return timed(Phase.GEO_LOCATE, () -> delegate.geoLocateIp(ipAddress));
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Boolean>>> validateEvents(List<Event> events) {
+        return timed(Phase.VALIDATE, () -> delegate.validateEvents(events));
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<String>>> transformDataBatch(List<Event> events) {
+        return timed(Phase.TRANSFORM, () -> delegate.transformDataBatch(events));
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> storeDataBatch(List<Event> transformedEvents) {
+        return timed(Phase.STORE, () -> delegate.storeDataBatch(transformedEvents));
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> sendNotifications(List<TraceId> eventIds) {
+        return timed(Phase.NOTIFY, () -> delegate.sendNotifications(eventIds));
+    }
+
+    @Override
+    public void shutdownExecutors() {
+        delegate.shutdownExecutors();
+    }
+}
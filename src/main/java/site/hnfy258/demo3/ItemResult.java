@@ -0,0 +1,19 @@
+package site.hnfy258.demo3;
+
+/**
+ * 批量调用中单个条目的结果：成功时 error 为 null。
+ */
+public record ItemResult<T>(T value, Throwable error) {
+
+    public static <T> ItemResult<T> success(T value) {
+        return new ItemResult<>(value, null);
+    }
+
+    public static <T> ItemResult<T> failure(Throwable error) {
+        return new ItemResult<>(null, error);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
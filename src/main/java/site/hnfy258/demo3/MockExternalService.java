@@ -1,52 +1,89 @@
 package site.hnfy258.demo3;
 
 import site.hnfy258.demo1.Event; // 确保 Event 类的包名正确
+import site.hnfy258.demo1.TraceId;
 import site.hnfy258.demo3.exception.*;
+import site.hnfy258.demo3.model.DependencyModel;
+import site.hnfy258.demo3.model.Operation;
+import site.hnfy258.demo4.BoundedCache;
+import site.hnfy258.demo4.IpRangeCache;
+import site.hnfy258.demo4.store.EventLogStore;
 
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 
-public class MockExternalService {
+public class MockExternalService implements ExternalService {
     private final ExecutorService cpuTaskExecutor;
     private final ExecutorService IOTaskExecutor;
-    private final ConcurrentHashMap<String, Event> transformedDataCache = new ConcurrentHashMap<>();
-    private final Random random = new Random();
+    // 已存储数据的缓存上限（估算字节数）和写入后的存活时间
+    private static final long TRANSFORMED_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+    private static final long TRANSFORMED_CACHE_TTL_MINUTES = 10;
+    // 估算一个 Event 的堆占用：对象头、TraceId、两个 String（按 UTF-16 计）
+    private static final int EVENT_OVERHEAD_BYTES = 128;
+    private static final String[] GEO_COUNTRIES = {"USA", "JPN", "CHN", "DEU", "BRA", "IND"};
 
-    public MockExternalService() {
-        this.cpuTaskExecutor = Executors.newFixedThreadPool(
-                Runtime.getRuntime().availableProcessors() + 1,
-                r -> new Thread(r, "Mock-CPU-Task-Thread-" + r.hashCode()) // 命名线程更清晰
-        );
-        this.IOTaskExecutor = Executors.newCachedThreadPool(
-                r -> new Thread(r, "Mock-IO-Task-Thread-" + r.hashCode()) // 命名线程更清晰
-        );
+    // 以 TraceId 为键：哈希和比较只看两个 long，不需要渲染文本。有界，长时间运行不会无限增长
+    private final BoundedCache<TraceId, Event> transformedDataCache = BoundedCache.<TraceId, Event>builder()
+            .maximumWeight(TRANSFORMED_CACHE_MAX_BYTES)
+            .weigher((traceId, event) -> EVENT_OVERHEAD_BYTES + 2 * (event.payload().length() + event.type().length()))
+            .expireAfterWrite(TRANSFORMED_CACHE_TTL_MINUTES, TimeUnit.MINUTES)
+            .expectedEntries(TRANSFORMED_CACHE_MAX_BYTES / 256)
+            .build();
+    // 每个操作的延迟、失败率和故障窗口，随机数按线程隔离
+    private final DependencyModel model;
+    // 存储落在本地日志引擎上，缓存只是它前面的一层热点副本
+    private final EventLogStore eventLogStore;
+    private final ServiceExecutionMode executionMode;
+    // 同时在执行的模拟调用数及其峰值，用来对比不同线程模型下的并发形态
+    private final AtomicInteger runningTasks = new AtomicInteger();
+    private final AtomicInteger peakRunningTasks = new AtomicInteger();
+
+    public MockExternalService(EventLogStore eventLogStore) {
+        this(eventLogStore, DependencyModel.defaults(DependencyModel.DEFAULT_SEED));
+    }
+
+    public MockExternalService(EventLogStore eventLogStore, DependencyModel model) {
+        this(eventLogStore, model, ServiceExecutionMode.POOLED);
+    }
+
+    public MockExternalService(EventLogStore eventLogStore, DependencyModel model, ServiceExecutionMode executionMode) {
+        this.eventLogStore = eventLogStore;
+        this.model = model;
+        this.executionMode = executionMode;
+        this.cpuTaskExecutor = executionMode.newCpuExecutor();
+        this.IOTaskExecutor = executionMode.newIoExecutor();
     }
 
     // --- 模拟事件校验服务 (I/O 密集型) ---
+    @Override
     public CompletableFuture<Boolean> validateEvent(Event event) {
-        return CompletableFuture.supplyAsync(() -> {
+        return supplyCancellable(() -> {
             String threadName = Thread.currentThread().getName();
             System.out.println(threadName + " is validating event: " + event.traceId() + "..."); // 使用 traceId 更简洁
 
             try {
-                Thread.sleep(50); // 模拟延迟
+                model.awaitLatency(Operation.VALIDATE); // 模拟延迟
 
-                int outcome = random.nextInt(100); // 0-99
-                if (outcome < 2) { // 2% 概率抛出 NetworkException
-                    System.err.println(threadName + " Validation FAILED (NetworkError) for event: " + event.traceId());
-                    throw new NetworkException("Simulated network issue for event: " + event.traceId());
-                } else if (outcome < 4) { // 另外 2% 概率抛出 TimeoutException
+                if (model.shouldFail(Operation.VALIDATE)) { // 失败时网络错误和超时各占一半
+                    if (model.random().nextBoolean()) {
+                        System.err.println(threadName + " Validation FAILED (NetworkError) for event: " + event.traceId());
+                        throw new NetworkException("Simulated network issue for event: " + event.traceId());
+                    }
                     System.err.println(threadName + " Validation FAILED (TimeoutError) for event: " + event.traceId());
                     throw new TimeoutException("Simulated timeout for event: " + event.traceId());
-                } else if (outcome < 10) { // 另外 6% 概率校验失败 (返回 false)
+                } else if (model.shouldReject(Operation.VALIDATE)) { // 校验不通过 (返回 false)
                     System.out.println(threadName + " Validation result: **FALSE** for event: " + event.traceId());
                     return false;
-                } else { // 90% 概率校验成功 (返回 true)
+                } else { // 校验成功 (返回 true)
                     System.out.println(threadName + " Validation result: **TRUE** for event: " + event.traceId());
                     return true;
                 }
@@ -59,15 +96,16 @@ public class MockExternalService {
     }
 
     // --- 模拟数据转换服务 (CPU 密集型) ---
+    @Override
     public CompletableFuture<String> transformData(Event event) { // 🚨 修正：返回 CompletableFuture<String>
-        return CompletableFuture.supplyAsync(() -> {
+        return supplyCancellable(() -> {
             String threadName = Thread.currentThread().getName();
             System.out.println(threadName + " is transforming data for event: " + event.traceId() + "...");
 
             try {
-                Thread.sleep(30); // 模拟处理延迟
+                model.awaitLatency(Operation.TRANSFORM); // 模拟处理延迟
 
-                if (random.nextInt(100) < 5) { // 5% 概率抛出 DataFormatException
+                if (model.shouldFail(Operation.TRANSFORM)) { // 按模型的失败率抛出 DataFormatException
                     System.err.println(threadName + " Transformation FAILED (FormatError) for event: " + event.traceId());
                     throw new DataFormatException("Simulated data format error for event: " + event.traceId());
                 }
@@ -85,41 +123,47 @@ public class MockExternalService {
 
     // --- 模拟数据存储服务 (I/O 密集型) ---
     // 🚨 修正：接收转换后的数据 (String) 和原始 Event
+    @Override
     public CompletableFuture<Void> storeData(String transformedData, Event originalEvent) {
-        return CompletableFuture.runAsync(() -> { // 无返回值，用 runAsync
+        return runCancellable(() -> { // 无返回值，用 runAsync
             String threadName = Thread.currentThread().getName();
             System.out.println(threadName + " is storing data for event: " + originalEvent.traceId() + " (payload: " + transformedData.substring(0, Math.min(transformedData.length(), 20)) + "...)");
             try {
-                Thread.sleep(100); // 模拟 I/O 延迟
-
-                if (random.nextInt(100) < 5) { // 5% 概率抛出 StorageException
+                model.awaitLatency(Operation.STORE); // 落盘之外额外模拟的延迟，默认为 0
+                if (model.shouldFail(Operation.STORE)) { // 按模型的失败率抛出 StorageException
                     System.err.println(threadName + " Storage FAILED (StorageError) for event: " + originalEvent.traceId());
                     throw new StorageException("Simulated storage error for event: " + originalEvent.traceId());
                 }
 
                 // 🚨 关键：将原始事件和转换后的数据“存储”到缓存中
                 // 存储一个包含转换后数据的新 Event 对象
-                Event eventToStore = new Event(originalEvent.timestamp(), originalEvent.type(), transformedData, originalEvent.traceId());
-                transformedDataCache.put(eventToStore.traceId(), eventToStore); // 存储到 ConcurrentHashMap
+                Event eventToStore = originalEvent.withPayload(transformedData);
+                // 等待组提交落盘，和其它并发写入共享一次 fsync
+                eventLogStore.append(eventToStore).get();
+                transformedDataCache.put(eventToStore.traceId(), eventToStore); // 存储到有界缓存
 
                 System.out.println(threadName + " Storage **SUCCESS** for event: " + originalEvent.traceId() + ". Data cached.");
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 System.err.println(threadName + " Storage INTERRUPTED for event: " + originalEvent.traceId());
                 throw new RuntimeException("Storage interrupted", e);
+            } catch (ExecutionException e) {
+                System.err.println(threadName + " Storage FAILED (log write) for event: " + originalEvent.traceId());
+                throw new StorageException("Failed to persist event: " + originalEvent.traceId(), e.getCause());
             }
         }, IOTaskExecutor); // 存储是 I/O 密集型
     }
 
     // --- 模拟通知发送服务 (I/O 密集型) ---
-    public CompletableFuture<Void> sendNotification(String eventId) {
-        return CompletableFuture.runAsync(() -> {
+    @Override
+    public CompletableFuture<Void> sendNotification(TraceId eventId) {
+        return runCancellable(() -> {
             String threadName = Thread.currentThread().getName();
             System.out.println(threadName + " is sending notification for event ID: " + eventId + "...");
             try {
-                Thread.sleep(20); // 模拟延迟
+                model.awaitLatency(Operation.NOTIFY); // 模拟延迟
 
-                if (random.nextInt(100) < 2) { // 2% 概率抛出 NotificationException
+                if (model.shouldFail(Operation.NOTIFY)) { // 按模型的失败率抛出 NotificationException
                     System.err.println(threadName + " Notification FAILED (NotificationError) for event ID: " + eventId);
                     throw new NotificationException("Simulated notification error for event ID: " + eventId);
                 }
@@ -133,17 +177,18 @@ public class MockExternalService {
     }
 
     // --- 可选：模拟 IP 地址到地理位置的解析 (新的异步 I/O 模拟服务，用于 thenCombine 演示) ---
+    @Override
     public CompletableFuture<String> geoLocateIp(String ipAddress) {
-        return CompletableFuture.supplyAsync(() -> {
+        return supplyCancellable(() -> {
             String threadName = Thread.currentThread().getName();
             System.out.println(threadName + " is geo-locating IP: " + ipAddress + "...");
             try {
-                Thread.sleep(80); // 模拟 I/O 延迟
-                if (random.nextInt(100) < 10) { // 10% 概率失败
+                model.awaitLatency(Operation.GEO_LOCATE); // 模拟 I/O 延迟
+                if (model.shouldFail(Operation.GEO_LOCATE)) {
                     System.err.println(threadName + " Geo-location FAILED for IP: " + ipAddress);
                     throw new RuntimeException("Simulated geo-location failure for IP: " + ipAddress);
                 }
-                String location = "Location(" + ipAddress + ")_Country(" + (random.nextBoolean() ? "USA" : "JPN") + ")";
+                String location = geoDatabaseEntry(ipAddress);
                 System.out.println(threadName + " Geo-location **SUCCESS** for IP: " + ipAddress + " -> " + location);
                 return location;
             } catch (InterruptedException e) {
@@ -154,7 +199,177 @@ public class MockExternalService {
         }, IOTaskExecutor);
     }
 
+    // 地理库按 /24 网段存数据：同一网段的地址得到同样的结果，国家由网段和模型的 seed 决定
+    private String geoDatabaseEntry(String ipAddress) {
+        int network = IpRangeCache.parseIpv4(ipAddress) & 0xFFFFFF00;
+        long hash = (network * 0x9E3779B97F4A7C15L) ^ model.getSeed();
+        return "Location(" + IpRangeCache.formatIpv4(network) + "/24)_Country("
+                + GEO_COUNTRIES[Math.floorMod(hash ^ (hash >>> 29), GEO_COUNTRIES.length)] + ")";
+    }
+
+    // --- 批量接口：一次往返处理整批，基础延迟与单次调用相同，每多一个事件只增加少量服务端开销 ---
+    // 单个事件的失败概率与单次调用一致，结果按事件逐个返回
+
+    @Override
+    public CompletableFuture<List<ItemResult<Boolean>>> validateEvents(List<Event> events) {
+        return supplyCancellable(() -> {
+            String threadName = Thread.currentThread().getName();
+            System.out.println(threadName + " is validating batch of " + events.size() + " events...");
+            sleepForBatch(Operation.VALIDATE, events.size(), "Validation");
+
+            List<ItemResult<Boolean>> results = new ArrayList<>(events.size());
+            for (Event event : events) {
+                if (model.shouldFail(Operation.VALIDATE)) {
+                    results.add(ItemResult.failure(model.random().nextBoolean()
+                            ? new NetworkException("Simulated network issue for event: " + event.traceId())
+                            : new TimeoutException("Simulated timeout for event: " + event.traceId())));
+                } else {
+                    results.add(ItemResult.success(!model.shouldReject(Operation.VALIDATE)));
+                }
+            }
+            System.out.println(threadName + " Validation batch of " + events.size() + " events **DONE**");
+            return results;
+        }, IOTaskExecutor);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<String>>> transformDataBatch(List<Event> events) {
+        return supplyCancellable(() -> {
+            String threadName = Thread.currentThread().getName();
+            System.out.println(threadName + " is transforming batch of " + events.size() + " events...");
+            sleepForBatch(Operation.TRANSFORM, events.size(), "Transformation");
+
+            List<ItemResult<String>> results = new ArrayList<>(events.size());
+            for (Event event : events) {
+                if (model.shouldFail(Operation.TRANSFORM)) {
+                    results.add(ItemResult.failure(new DataFormatException("Simulated data format error for event: " + event.traceId())));
+                } else {
+                    results.add(ItemResult.success(event.payload() + "-TRANSFORMED-TS(" + System.nanoTime() + ")"));
+                }
+            }
+            System.out.println(threadName + " Transformation batch of " + events.size() + " events **DONE**");
+            return results;
+        }, cpuTaskExecutor);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> storeDataBatch(List<Event> transformedEvents) {
+        return supplyCancellable(() -> {
+            String threadName = Thread.currentThread().getName();
+            System.out.println(threadName + " is storing batch of " + transformedEvents.size() + " events...");
+            sleepForBatch(Operation.STORE, transformedEvents.size(), "Storage");
+
+            List<ItemResult<Void>> results = new ArrayList<>(transformedEvents.size());
+            List<Event> accepted = new ArrayList<>(transformedEvents.size());
+            for (Event event : transformedEvents) {
+                if (model.shouldFail(Operation.STORE)) {
+                    results.add(ItemResult.failure(new StorageException("Simulated storage error for event: " + event.traceId())));
+                } else {
+                    accepted.add(event);
+                    results.add(null);
+                }
+            }
+            // 整批一次追加、一次落盘
+            Throwable writeError = null;
+            try {
+                if (!accepted.isEmpty()) {
+                    eventLogStore.appendAll(accepted).get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println(threadName + " Storage batch INTERRUPTED");
+                throw new RuntimeException("Storage batch interrupted", e);
+            } catch (ExecutionException e) {
+                writeError = e.getCause();
+            }
+            int next = 0;
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) != null) {
+                    continue;
+                }
+                Event event = accepted.get(next++);
+                if (writeError == null) {
+                    transformedDataCache.put(event.traceId(), event);
+                    results.set(i, ItemResult.success(null));
+                } else {
+                    results.set(i, ItemResult.failure(new StorageException("Failed to persist event: " + event.traceId(), writeError)));
+                }
+            }
+            System.out.println(threadName + " Storage batch of " + transformedEvents.size() + " events **DONE**");
+            return results;
+        }, IOTaskExecutor);
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> sendNotifications(List<TraceId> eventIds) {
+        return supplyCancellable(() -> {
+            String threadName = Thread.currentThread().getName();
+            System.out.println(threadName + " is sending batch of " + eventIds.size() + " notifications...");
+            sleepForBatch(Operation.NOTIFY, eventIds.size(), "Notification");
+
+            List<ItemResult<Void>> results = new ArrayList<>(eventIds.size());
+            for (TraceId eventId : eventIds) {
+                if (model.shouldFail(Operation.NOTIFY)) {
+                    results.add(ItemResult.failure(new NotificationException("Simulated notification error for event ID: " + eventId)));
+                } else {
+                    results.add(ItemResult.success(null));
+                }
+            }
+            System.out.println(threadName + " Notification batch of " + eventIds.size() + " events **SENT**");
+            return results;
+        }, IOTaskExecutor);
+    }
+
+    private void sleepForBatch(Operation operation, int size, String operationName) {
+        try {
+            model.awaitBatchLatency(operation, size);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println(Thread.currentThread().getName() + " " + operationName + " batch INTERRUPTED");
+            throw new RuntimeException(operationName + " batch interrupted", e);
+        }
+    }
+
+    /**
+     * 与 CompletableFuture.supplyAsync 相同，区别是返回的 future 被取消或被外部以异常完成（例如 orTimeout 超时、
+     * 对冲请求落败被取消）时，会中断仍在执行的任务，模拟调用方放弃请求后释放连接和线程。
+     */
+    private <T> CompletableFuture<T> supplyCancellable(Supplier<T> supplier, ExecutorService executor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        AtomicBoolean finished = new AtomicBoolean(false);
+        Future<?> task = executor.submit(() -> {
+            T value;
+            peakRunningTasks.accumulateAndGet(runningTasks.incrementAndGet(), Math::max);
+            try {
+                value = supplier.get();
+            } catch (Throwable t) {
+                finished.set(true);
+                future.completeExceptionally(t);
+                return;
+            } finally {
+                runningTasks.decrementAndGet();
+            }
+            finished.set(true);
+            future.complete(value);
+        });
+        // 任务自己抛出的异常不需要再中断自己
+        future.whenComplete((r, ex) -> {
+            if (ex != null && !finished.get()) {
+                task.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Void> runCancellable(Runnable runnable, ExecutorService executor) {
+        return supplyCancellable(() -> {
+            runnable.run();
+            return null;
+        }, executor);
+    }
+
     // 🚨 修正：更名为 shutdownExecutors，并添加 awaitTermination 确保优雅关闭
+    @Override
     public void shutdownExecutors() {
         System.out.println("MockExternalService: Shutting down CPU and I/O executors...");
         cpuTaskExecutor.shutdown();
@@ -178,8 +393,22 @@ public class MockExternalService {
         }
     }
 
+    // 按 traceId 查询已存储的事件：先查缓存，缓存里被淘汰或过期的再从日志引擎读回并重新缓存，从未存储过返回 null
+    public Event findStoredEvent(TraceId traceId) {
+        return transformedDataCache.get(traceId, eventLogStore::get);
+    }
+
+    public void printExecutorMetrics() {
+        System.out.println("Mock executor mode: " + executionMode + ", running calls: " + runningTasks.get()
+                + ", peak concurrent calls: " + peakRunningTasks.get());
+    }
+
+    public EventLogStore getEventLogStore() {
+        return eventLogStore;
+    }
+
     // 获取缓存数据以便在 PipelineLauncher 中验证
-    public ConcurrentHashMap<String, Event> getTransformedDataCache() {
+    public BoundedCache<TraceId, Event> getTransformedDataCache() {
         return transformedDataCache;
     }
 }
\ No newline at end of file
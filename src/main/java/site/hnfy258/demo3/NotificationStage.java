@@ -0,0 +1,34 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo3.pipeline.PipelineContext;
+import site.hnfy258.demo3.pipeline.Stage;
+import site.hnfy258.demo3.pipeline.StageResult;
+
+import java.util.concurrent.CompletableFuture;
+
+public class NotificationStage implements Stage {
+    private final ExternalService externalService;
+
+    public NotificationStage(ExternalService externalService) {
+        this.externalService = externalService;
+    }
+
+    @Override
+    public String name() {
+        return "Notification";
+    }
+
+    // 通知最快，约 20ms
+    @Override
+    public double budgetWeight() {
+        return 20;
+    }
+
+    @Override
+    public CompletableFuture<StageResult> process(PipelineContext context) {
+        return context.withinDeadline(externalService.sendNotification(context.event().traceId())).thenApply(v -> {
+            System.out.println("Processor: Notification SUCCESS for event: " + context.event().traceId() + ".");
+            return StageResult.proceedToNext();
+        });
+    }
+}
@@ -7,5 +7,10 @@ import java.util.Map;
 public record ProcessingResult(Event originalEvent,
                                boolean success,
                                String errorMessage,
-                               Map<String,Object> processedDate) {
+                               Map<String,Object> processedDate,
+                               int retryCount) {
+
+    public ProcessingResult(Event originalEvent, boolean success, String errorMessage, Map<String,Object> processedDate) {
+        this(originalEvent, success, errorMessage, processedDate, 0);
+    }
 }
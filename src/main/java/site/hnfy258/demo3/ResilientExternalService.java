@@ -0,0 +1,108 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo1.TraceId;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 给每个外部依赖套上 DependencyGuard。依赖变慢时并发上限收缩，持续失败时熔断，
+ * 多出来的请求在本地快速失败，而不是继续压向已经降级的依赖、占住 I/O 线程。
+ * 批量接口与对应的单事件接口共用同一个依赖的保护，一次批量往返算一次调用。
+ */
+public class ResilientExternalService implements ExternalService {
+    private static final int BREAKER_WINDOW = 50;
+    private static final int BREAKER_MINIMUM_CALLS = 20;
+    private static final double BREAKER_FAILURE_RATE = 0.5;
+    private static final long BREAKER_OPEN_MILLIS = 5000;
+    private static final int BREAKER_HALF_OPEN_PROBES = 3;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final ExternalService delegate;
+    private final DependencyGuard validateGuard;
+    private final DependencyGuard transformGuard;
+    private final DependencyGuard storeGuard;
+    private final DependencyGuard notifyGuard;
+    private final DependencyGuard geoGuard;
+
+    public ResilientExternalService(ExternalService delegate, int initialLimit, int maxLimit) {
+        this.delegate = delegate;
+        this.validateGuard = newGuard("validate", initialLimit, maxLimit);
+        this.transformGuard = newGuard("transform", initialLimit, maxLimit);
+        this.storeGuard = newGuard("store", initialLimit, maxLimit);
+        this.notifyGuard = newGuard("notify", initialLimit, maxLimit);
+        this.geoGuard = newGuard("geo", initialLimit, maxLimit);
+    }
+
+    private static DependencyGuard newGuard(String name, int initialLimit, int maxLimit) {
+        return new DependencyGuard(name,
+                new CircuitBreaker(name, BREAKER_WINDOW, BREAKER_MINIMUM_CALLS, BREAKER_FAILURE_RATE,
+                        BREAKER_OPEN_MILLIS, TimeUnit.MILLISECONDS, BREAKER_HALF_OPEN_PROBES),
+                new AdaptiveConcurrencyLimiter(initialLimit, 1, maxLimit, LATENCY_TOLERANCE, BACKOFF_RATIO));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> validateEvent(Event event) {
+        return validateGuard.call(() -> delegate.validateEvent(event));
+    }
+
+    @Override
+    public CompletableFuture<String> transformData(Event event) {
+        return transformGuard.call(() -> delegate.transformData(event));
+    }
+
+    @Override
+    public CompletableFuture<Void> storeData(String transformedData, Event originalEvent) {
+        return storeGuard.call(() -> delegate.storeData(transformedData, originalEvent));
+    }
+
+    @Override
+    public CompletableFuture<Void> sendNotification(TraceId eventId) {
+        return notifyGuard.call(() -> delegate.sendNotification(eventId));
+    }
+
+    @Override
+    public CompletableFuture<String> geoLocateIp(String ipAddress) {
+        return geoGuard.call(() -> delegate.geoLocateIp(ipAddress));
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Boolean>>> validateEvents(List<Event> events) {
+        return validateGuard.call(() -> delegate.validateEvents(events));
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<String>>> transformDataBatch(List<Event> events) {
+        return transformGuard.call(() -> delegate.transformDataBatch(events));
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> storeDataBatch(List<Event> transformedEvents) {
+        return storeGuard.call(() -> delegate.storeDataBatch(transformedEvents));
+    }
+
+    @Override
+    public CompletableFuture<List<ItemResult<Void>>> sendNotifications(List<TraceId> eventIds) {
+        return notifyGuard.call(() -> delegate.sendNotifications(eventIds));
+    }
+
+    public List<DependencyGuard> getGuards() {
+        return List.of(validateGuard, transformGuard, storeGuard, notifyGuard, geoGuard);
+    }
+
+    public void printMetrics() {
+        System.out.println("\n--- Dependency Protection ---");
+        for (DependencyGuard guard : getGuards()) {
+            System.out.println(guard);
+        }
+        System.out.println("-----------------------------");
+    }
+
+    @Override
+    public void shutdownExecutors() {
+        delegate.shutdownExecutors();
+    }
+}
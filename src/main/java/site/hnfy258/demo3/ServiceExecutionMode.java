@@ -0,0 +1,38 @@
+package site.hnfy258.demo3;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// MockExternalService 执行模拟调用的线程模型
+public enum ServiceExecutionMode {
+    // I/O 调用用按需增长的平台线程池，负载高时会有几百个平台线程在 sleep；CPU 调用用核数 + 1 个平台线程
+    POOLED {
+        @Override
+        public ExecutorService newIoExecutor() {
+            return Executors.newCachedThreadPool(r -> new Thread(r, "Mock-IO-Task-Thread-" + r.hashCode()));
+        }
+
+        @Override
+        public ExecutorService newCpuExecutor() {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() + 1,
+                    r -> new Thread(r, "Mock-CPU-Task-Thread-" + r.hashCode()));
+        }
+    },
+    // I/O 调用每个任务一个虚拟线程，等待时不占平台线程；CPU 调用用正好等于核数的平台线程池，多出来的任务排队
+    VIRTUAL {
+        @Override
+        public ExecutorService newIoExecutor() {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("Mock-IO-Virtual-", 0).factory());
+        }
+
+        @Override
+        public ExecutorService newCpuExecutor() {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    r -> new Thread(r, "Mock-CPU-Task-Thread-" + r.hashCode()));
+        }
+    };
+
+    public abstract ExecutorService newIoExecutor();
+
+    public abstract ExecutorService newCpuExecutor();
+}
@@ -0,0 +1,35 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo3.pipeline.PipelineContext;
+import site.hnfy258.demo3.pipeline.Stage;
+import site.hnfy258.demo3.pipeline.StageResult;
+
+import java.util.concurrent.CompletableFuture;
+
+public class StorageStage implements Stage {
+    private final ExternalService externalService;
+
+    public StorageStage(ExternalService externalService) {
+        this.externalService = externalService;
+    }
+
+    @Override
+    public String name() {
+        return "Storage";
+    }
+
+    // 存储是最慢的依赖（约 100ms），分到的预算也最多
+    @Override
+    public double budgetWeight() {
+        return 100;
+    }
+
+    @Override
+    public CompletableFuture<StageResult> process(PipelineContext context) {
+        String transformedData = context.get(TransformationStage.TRANSFORMED_PAYLOAD);
+        return context.withinDeadline(externalService.storeData(transformedData, context.event())).thenApply(v -> {
+            System.out.println("Processor: Storage SUCCESS for event: " + context.event().traceId() + ". Proceeding to notify.");
+            return StageResult.proceedToNext();
+        });
+    }
+}
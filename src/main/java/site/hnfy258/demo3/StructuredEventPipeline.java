@@ -0,0 +1,180 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo2.LatencyHistogram;
+import site.hnfy258.demo3.pipeline.EventPipeline;
+import site.hnfy258.demo3.pipeline.FailFastScope;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 结构化并发版本的处理链：每个事件一个虚拟线程，在线程里用阻塞写法依次调用外部服务。
+ * 校验和转换互不依赖，在同一个 FailFastScope 里并发执行：任何一个失败或校验不通过，另一个立即被取消，
+ * 作用域结束时不会留下还在运行的调用。存储依赖转换结果、通知依赖存储成功，之后依次执行。
+ * 配置了 GeoEnricher 时地理位置查询也在这个作用域里和校验一起发出，它总是正常完成，不会让作用域提前结束。
+ * 与 StagedPipeline 相比没有按阶段的并发上限和重试，并发度由上游的在途限流控制。
+ */
+public class StructuredEventPipeline implements EventPipeline {
+    private final ExternalService externalService;
+    private final GeoEnricher geoEnricher;
+    private final long eventBudgetNanos;
+    private final ExecutorService eventExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("structured-event-", 0).factory());
+
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder stopped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder cancelledCalls = new LongAdder();
+    // 单个事件从开始处理到得出结果的耗时，微秒
+    private final LatencyHistogram eventLatency = new LatencyHistogram(TimeUnit.MINUTES.toMicros(10));
+
+    /**
+     * @param eventBudget 每个事件的总时间预算，0 表示不限时
+     */
+    public StructuredEventPipeline(ExternalService externalService, long eventBudget, TimeUnit unit) {
+        this(externalService, null, eventBudget, unit);
+    }
+
+    public StructuredEventPipeline(ExternalService externalService, GeoEnricher geoEnricher, long eventBudget, TimeUnit unit) {
+        this.externalService = externalService;
+        this.geoEnricher = geoEnricher;
+        this.eventBudgetNanos = unit.toNanos(eventBudget);
+    }
+
+    @Override
+    public CompletableFuture<ProcessingResult> execute(Event event) {
+        CompletableFuture<ProcessingResult> result = new CompletableFuture<>();
+        try {
+            eventExecutor.execute(() -> result.complete(process(event)));
+        } catch (RejectedExecutionException e) {
+            result.complete(new ProcessingResult(event, false, "Pipeline is shut down", Collections.emptyMap()));
+        }
+        return result;
+    }
+
+    private ProcessingResult process(Event event) {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = eventBudgetNanos > 0 ? startNanos + eventBudgetNanos : Long.MAX_VALUE;
+        String step = "Validation";
+        try {
+            String transformedData;
+            String location = null;
+            try (FailFastScope scope = new FailFastScope()) {
+                CompletableFuture<Boolean> validation = scope.fork(externalService.validateEvent(event));
+                CompletableFuture<String> transformation = scope.fork(externalService.transformData(event));
+                CompletableFuture<String> geo = geoEnricher == null ? null : scope.fork(geoEnricher.locate(event));
+                validation.thenAccept(valid -> {
+                    if (!valid) {
+                        scope.shutdown();
+                    }
+                });
+                try {
+                    scope.join(deadlineNanos);
+                } catch (ExecutionException | TimeoutException e) {
+                    step = failedStep(validation);
+                    throw e;
+                } finally {
+                    cancelledCalls.add(scope.cancelledCount());
+                }
+                if (!validation.getNow(true)) {
+                    System.out.println("Processor: Validation FAILED (result: FALSE) for event: " + event.traceId()
+                            + ". Transformation cancelled.");
+                    stopped.increment();
+                    return finish(startNanos, new ProcessingResult(event, false, "Validation failed: Event is invalid",
+                            Collections.emptyMap()));
+                }
+                transformedData = transformation.join();
+                if (geo != null) {
+                    location = geo.join();
+                }
+            }
+            System.out.println("Processor: Validation and Transformation SUCCESS for event: " + event.traceId() + ". Proceeding to store.");
+
+            step = "Storage";
+            await(externalService.storeData(transformedData, event), deadlineNanos);
+            step = "Notification";
+            await(externalService.sendNotification(event.traceId()), deadlineNanos);
+
+            System.out.println("Processor: ALL STEPS COMPLETE for event: " + event.traceId());
+            succeeded.increment();
+            Map<String, Object> processedData = location == null
+                    ? Map.of(TransformationStage.TRANSFORMED_PAYLOAD, transformedData)
+                    : Map.of(TransformationStage.TRANSFORMED_PAYLOAD, transformedData, GeoEnricher.GEO_LOCATION, location);
+            return finish(startNanos, new ProcessingResult(event, true, null, processedData));
+        } catch (ExecutionException e) {
+            failed.increment();
+            return failure(startNanos, event, step + " failed: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            timedOut.increment();
+            return failure(startNanos, event, step + " failed: deadline exceeded");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.increment();
+            return failure(startNanos, event, step + " interrupted");
+        }
+    }
+
+    // 作用域里是谁先失败的：校验异常完成（不是被取消）就算校验，否则算转换
+    private static String failedStep(CompletableFuture<Boolean> validation) {
+        return validation.isCompletedExceptionally() && !validation.isCancelled() ? "Validation" : "Transformation";
+    }
+
+    // 超时或被中断时取消这次调用，不让它在后台继续占用依赖
+    private static <T> T await(CompletableFuture<T> call, long deadlineNanos)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            return deadlineNanos == Long.MAX_VALUE
+                    ? call.get()
+                    : call.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException | TimeoutException e) {
+            call.cancel(true);
+            throw e;
+        }
+    }
+
+    private ProcessingResult failure(long startNanos, Event event, String errorMessage) {
+        System.err.println("Processor: " + errorMessage + " for event: " + event.traceId());
+        return finish(startNanos, new ProcessingResult(event, false, errorMessage, Collections.emptyMap()));
+    }
+
+    private ProcessingResult finish(long startNanos, ProcessingResult result) {
+        eventLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        return result;
+    }
+
+    @Override
+    public void printStageStats() {
+        System.out.println("\n--- Structured Pipeline ---");
+        System.out.println("Succeeded: " + succeeded.sum() + ", stopped: " + stopped.sum()
+                + ", failed: " + failed.sum() + ", timed out: " + timedOut.sum());
+        System.out.println("Cancelled sibling calls: " + cancelledCalls.sum());
+        System.out.printf("Event latency: p50=%.1fms p99=%.1fms max=%.1fms%n",
+                eventLatency.getValueAtPercentile(50) / 1000.0,
+                eventLatency.getValueAtPercentile(99) / 1000.0,
+                eventLatency.getMaxValue() / 1000.0);
+        System.out.println("---------------------------");
+    }
+
+    @Override
+    public void shutdown() {
+        eventExecutor.shutdown();
+        try {
+            if (!eventExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                eventExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            eventExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo3.pipeline.PipelineContext;
+import site.hnfy258.demo3.pipeline.Stage;
+import site.hnfy258.demo3.pipeline.StageResult;
+
+import java.util.concurrent.CompletableFuture;
+
+public class TransformationStage implements Stage {
+    // 转换结果在上下文中的键，也是成功结果 processedDate 中的键
+    public static final String TRANSFORMED_PAYLOAD = "transformedPayload";
+
+    private final ExternalService externalService;
+
+    public TransformationStage(ExternalService externalService) {
+        this.externalService = externalService;
+    }
+
+    @Override
+    public String name() {
+        return "Transformation";
+    }
+
+    // 模拟转换约 30ms
+    @Override
+    public double budgetWeight() {
+        return 30;
+    }
+
+    @Override
+    public CompletableFuture<StageResult> process(PipelineContext context) {
+        return context.withinDeadline(externalService.transformData(context.event())).thenApply(transformedData -> {
+            System.out.println("Processor: Transformation SUCCESS for event: " + context.event().traceId() + ". Proceeding to store.");
+            context.put(TRANSFORMED_PAYLOAD, transformedData);
+            return StageResult.proceedToNext();
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package site.hnfy258.demo3;
+
+import site.hnfy258.demo3.pipeline.PipelineContext;
+import site.hnfy258.demo3.pipeline.Stage;
+import site.hnfy258.demo3.pipeline.StageResult;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验阶段。配置了 GeoEnricher 时地理位置查询和校验同时发出，校验通过后再等地理位置（不超过本阶段的截止时间），
+ * 结果放进上下文的 GeoEnricher.GEO_LOCATION；缓存命中时不增加任何等待。
+ */
+public class ValidationStage implements Stage {
+    private final ExternalService externalService;
+    private final GeoEnricher geoEnricher;
+
+    public ValidationStage(ExternalService externalService) {
+        this(externalService, null);
+    }
+
+    public ValidationStage(ExternalService externalService, GeoEnricher geoEnricher) {
+        this.externalService = externalService;
+        this.geoEnricher = geoEnricher;
+    }
+
+    @Override
+    public String name() {
+        return "Validation";
+    }
+
+    // 校验的典型往返约 50ms
+    @Override
+    public double budgetWeight() {
+        return 50;
+    }
+
+    @Override
+    public CompletableFuture<StageResult> process(PipelineContext context) {
+        if (geoEnricher == null) {
+            return validate(context);
+        }
+        CompletableFuture<String> location = geoEnricher.locate(context.event());
+        return validate(context).thenCompose(result -> {
+            if (!result.proceed()) {
+                location.cancel(false);
+                return CompletableFuture.completedFuture(result);
+            }
+            if (context.hasDeadline()) {
+                location.completeOnTimeout(GeoEnricher.UNKNOWN_LOCATION,
+                        Math.max(0, context.stageDeadlineNanos() - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            return location.thenApply(geo -> {
+                context.put(GeoEnricher.GEO_LOCATION, geo);
+                return result;
+            });
+        }).whenComplete((result, ex) -> {
+            if (ex != null) {
+                location.cancel(false);
+            }
+        });
+    }
+
+    private CompletableFuture<StageResult> validate(PipelineContext context) {
+        return context.withinDeadline(externalService.validateEvent(context.event())).thenApply(isValid -> {
+            if (isValid) {
+                System.out.println("Processor: Validation SUCCESS for event: " + context.event().traceId() + ". Proceeding to transform.");
+                return StageResult.proceedToNext();
+            }
+            System.out.println("Processor: Validation FAILED (result: FALSE) for event: " + context.event().traceId() + ". Stopping chain.");
+            return StageResult.stop("Validation failed: Event is invalid");
+        });
+    }
+}
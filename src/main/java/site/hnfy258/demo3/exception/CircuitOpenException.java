@@ -0,0 +1,7 @@
+package site.hnfy258.demo3.exception;
+
+public class CircuitOpenException extends RuntimeException {
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
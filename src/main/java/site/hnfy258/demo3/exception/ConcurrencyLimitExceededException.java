@@ -0,0 +1,7 @@
+package site.hnfy258.demo3.exception;
+
+public class ConcurrencyLimitExceededException extends RuntimeException {
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+}
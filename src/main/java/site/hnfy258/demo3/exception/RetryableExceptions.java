@@ -0,0 +1,20 @@
+package site.hnfy258.demo3.exception;
+
+/**
+ * 判断一次失败是否值得重试。
+ * 可重试：网络抖动、远端超时、通知发送失败、存储写入失败（按 traceId 覆盖写，重试是幂等的）——都是瞬时故障；
+ * 不可重试：数据格式错误（重试结果不会变），以及本地的熔断/并发上限拒绝（重试只会加重依赖的负担），
+ * 其它未知异常也不重试。
+ */
+public final class RetryableExceptions {
+
+    private RetryableExceptions() {
+    }
+
+    public static boolean isRetryable(Throwable error) {
+        return error instanceof NetworkException
+                || error instanceof TimeoutException
+                || error instanceof NotificationException
+                || error instanceof StorageException;
+    }
+}
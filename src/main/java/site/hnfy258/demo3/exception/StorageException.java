@@ -4,4 +4,8 @@ public class StorageException extends RuntimeException {
     public StorageException(String message) {
         super(message);
     }
+
+    public StorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
\ No newline at end of file
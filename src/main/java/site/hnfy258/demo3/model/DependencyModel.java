@@ -0,0 +1,212 @@
+package site.hnfy258.demo3.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.random.RandomGenerator;
+
+/**
+ * MockExternalService 的依赖模型：每个操作的延迟分布、失败率和故障窗口，以及随机数来源。
+ * <p>
+ * 随机数按线程隔离：每个线程第一次用到时用 seed 和线程 id 混合出种子，创建自己的 SplittableRandom，
+ * 整个过程不碰任何共享状态，也就没有共享 Random 上的 CAS 竞争或锁。虚拟线程模式下每个调用都是新线程，
+ * 每次调用都会各建一个生成器，同样不需要加锁。
+ * 同一个 seed 下某个线程 id 的随机序列是确定的，不取决于线程之间谁先取生成器；线程池里哪个任务落到哪个线程
+ * 仍由调度决定，所以两次运行的单次结果可能不同，但延迟和失败的统计分布是可复现、可对比的。
+ * <p>
+ * 配置文件是 Properties 格式，没写的项使用默认值（与原来写死的常量一致）：
+ * <pre>
+ * seed=42
+ * batch.itemCostMicros=500
+ * validate.latency=lognormal:50,0.5
+ * validate.failureRate=0.04
+ * validate.rejectRate=0.0625
+ * store.outages=30-45@1.0,90-100@0.3
+ * </pre>
+ * 操作前缀见 {@link Operation#key()}，延迟写法见 {@link LatencyDistribution#parse}，故障窗口写法见 {@link OutageWindow#parse}。
+ */
+public class DependencyModel {
+    public static final long DEFAULT_SEED = 42;
+    public static final long DEFAULT_BATCH_ITEM_COST_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+    private final long seed;
+    private final Map<Operation, OperationProfile> profiles;
+    private final long batchItemCostNanos;
+    private final long startNanos = System.nanoTime();
+    private final ThreadLocal<RandomGenerator> generators = ThreadLocal.withInitial(this::newThreadGenerator);
+    private final Map<Operation, LongAdder> calls = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> injectedFailures = new EnumMap<>(Operation.class);
+
+    public DependencyModel(long seed, Map<Operation, OperationProfile> profiles, long batchItemCostNanos) {
+        this.seed = seed;
+        this.profiles = new EnumMap<>(defaultProfiles());
+        this.profiles.putAll(profiles);
+        this.batchItemCostNanos = batchItemCostNanos;
+        for (Operation operation : Operation.values()) {
+            calls.put(operation, new LongAdder());
+            injectedFailures.put(operation, new LongAdder());
+        }
+    }
+
+    public static DependencyModel defaults(long seed) {
+        return new DependencyModel(seed, defaultProfiles(), DEFAULT_BATCH_ITEM_COST_NANOS);
+    }
+
+    // 与引入模型之前写死在 MockExternalService 里的延迟和失败率相同；存储已经是真实落盘，不再额外模拟延迟
+    public static Map<Operation, OperationProfile> defaultProfiles() {
+        Map<Operation, OperationProfile> defaults = new EnumMap<>(Operation.class);
+        // 原来是 4% 异常、6% 返回 false：异常之外的 96% 里有 6.25% 被拒，合起来正好 6%
+        defaults.put(Operation.VALIDATE, new OperationProfile(LatencyDistribution.fixed(50), 0.04, 0.0625, List.of()));
+        defaults.put(Operation.TRANSFORM, new OperationProfile(LatencyDistribution.fixed(30), 0.05));
+        defaults.put(Operation.STORE, new OperationProfile(LatencyDistribution.fixed(0), 0.05));
+        defaults.put(Operation.NOTIFY, new OperationProfile(LatencyDistribution.fixed(20), 0.02));
+        defaults.put(Operation.GEO_LOCATE, new OperationProfile(LatencyDistribution.fixed(80), 0.10));
+        return defaults;
+    }
+
+    /**
+     * 从配置文件加载，未知的键直接报错，避免拼写错误悄悄回落到默认值。
+     */
+    public static DependencyModel load(Path profileFile) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(profileFile)) {
+            properties.load(reader);
+        }
+        Path baseDirectory = profileFile.toAbsolutePath().getParent();
+        long seed = Long.parseLong(properties.getProperty("seed", String.valueOf(DEFAULT_SEED)).trim());
+        long itemCostNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(properties.getProperty(
+                "batch.itemCostMicros", String.valueOf(TimeUnit.NANOSECONDS.toMicros(DEFAULT_BATCH_ITEM_COST_NANOS))).trim()));
+
+        Map<Operation, OperationProfile> profiles = defaultProfiles();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.equals("seed") || key.equals("batch.itemCostMicros")) {
+                continue;
+            }
+            int dot = key.indexOf('.');
+            Operation operation = dot < 0 ? null : operationOf(key.substring(0, dot));
+            if (operation == null) {
+                throw new IllegalArgumentException("Unknown dependency profile key: " + key);
+            }
+            String value = properties.getProperty(key).trim();
+            OperationProfile profile = profiles.get(operation);
+            profiles.put(operation, switch (key.substring(dot + 1)) {
+                case "latency" -> profile.withLatency(LatencyDistribution.parse(value, baseDirectory));
+                case "failureRate" -> profile.withFailureRate(Double.parseDouble(value));
+                case "rejectRate" -> profile.withRejectRate(Double.parseDouble(value));
+                case "outages" -> profile.withOutages(parseOutages(value));
+                default -> throw new IllegalArgumentException("Unknown dependency profile key: " + key);
+            });
+        }
+        return new DependencyModel(seed, profiles, itemCostNanos);
+    }
+
+    // 换一个 seed，其余配置不变
+    public DependencyModel withSeed(long seed) {
+        return new DependencyModel(seed, profiles, batchItemCostNanos);
+    }
+
+    private static Operation operationOf(String key) {
+        for (Operation operation : Operation.values()) {
+            if (operation.key().equals(key)) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    private static List<OutageWindow> parseOutages(String value) {
+        List<OutageWindow> outages = new ArrayList<>();
+        for (String spec : value.split(",")) {
+            if (!spec.isBlank()) {
+                outages.add(OutageWindow.parse(spec));
+            }
+        }
+        return outages;
+    }
+
+    // 线程 id 全局唯一，混合之后相邻 id 的种子互不相关
+    private RandomGenerator newThreadGenerator() {
+        return new SplittableRandom(mix64(seed ^ mix64(Thread.currentThread().threadId())));
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // 当前线程自己的生成器，只能在当前线程上使用
+    public RandomGenerator random() {
+        return generators.get();
+    }
+
+    public OperationProfile profile(Operation operation) {
+        return profiles.get(operation);
+    }
+
+    public long sampleLatencyNanos(Operation operation) {
+        return profiles.get(operation).latency().sampleNanos(random());
+    }
+
+    // 按分布抽一个延迟并睡眠，同时计一次调用
+    public void awaitLatency(Operation operation) throws InterruptedException {
+        calls.get(operation).increment();
+        sleepNanos(sampleLatencyNanos(operation));
+    }
+
+    // 批量往返：基础延迟按分布抽取，每多一个条目增加固定的服务端开销
+    public void awaitBatchLatency(Operation operation, int size) throws InterruptedException {
+        calls.get(operation).add(size);
+        sleepNanos(sampleLatencyNanos(operation) + size * batchItemCostNanos);
+    }
+
+    private static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            Thread.sleep(Duration.ofNanos(nanos));
+        }
+    }
+
+    // 按当前时刻的失败率（考虑故障窗口）决定这次调用是否失败
+    public boolean shouldFail(Operation operation) {
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        if (random().nextDouble() < profiles.get(operation).failureRateAt(elapsedMillis)) {
+            injectedFailures.get(operation).increment();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean shouldReject(Operation operation) {
+        return random().nextDouble() < profiles.get(operation).rejectRate();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void printMetrics() {
+        System.out.println("\n--- Dependency Model (seed " + seed + ") ---");
+        for (Operation operation : Operation.values()) {
+            System.out.println(operation.key() + ": " + profiles.get(operation)
+                    + " | calls=" + calls.get(operation).sum()
+                    + ", injected failures=" + injectedFailures.get(operation).sum());
+        }
+        System.out.println("------------------------------------");
+    }
+
+    @Override
+    public String toString() {
+        return "DependencyModel{seed=" + seed + ", profiles=" + profiles
+                + ", batchItemCost=" + TimeUnit.NANOSECONDS.toMicros(batchItemCostNanos) + "us}";
+    }
+}
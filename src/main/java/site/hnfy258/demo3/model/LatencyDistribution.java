@@ -0,0 +1,157 @@
+package site.hnfy258.demo3.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+/**
+ * 单次调用的延迟分布。随机数由调用方传入，分布本身无状态、可以被多个线程共享。
+ */
+public interface LatencyDistribution {
+
+    long sampleNanos(RandomGenerator random);
+
+    static LatencyDistribution fixed(double millis) {
+        return new Fixed(toNanos(millis));
+    }
+
+    // 对数正态：中位数为 medianMillis，sigma 越大尾巴越长（0.5 时 p99 约为中位数的 3.2 倍）
+    static LatencyDistribution lognormal(double medianMillis, double sigma) {
+        if (medianMillis <= 0 || sigma < 0) {
+            throw new IllegalArgumentException("lognormal needs a positive median and non-negative sigma");
+        }
+        return new LogNormal(Math.log(toNanos(medianMillis)), sigma);
+    }
+
+    // 双峰：大多数调用走快路径，slowProbability 的调用落在慢峰（例如缓存未命中、GC、跨机房）
+    static LatencyDistribution bimodal(LatencyDistribution fast, LatencyDistribution slow, double slowProbability) {
+        if (slowProbability < 0 || slowProbability > 1) {
+            throw new IllegalArgumentException("slowProbability must be within [0, 1]: " + slowProbability);
+        }
+        return new Bimodal(fast, slow, slowProbability);
+    }
+
+    // 回放录制的延迟样本（经验分布），每次等概率抽取一个
+    static LatencyDistribution recorded(long[] samplesNanos) {
+        if (samplesNanos.length == 0) {
+            throw new IllegalArgumentException("recorded distribution needs at least one sample");
+        }
+        return new Recorded(samplesNanos.clone());
+    }
+
+    /**
+     * 解析配置文件里的写法，时间单位都是毫秒：
+     * <pre>
+     * fixed:50
+     * lognormal:50,0.5                 中位数, sigma
+     * bimodal:20,400,0.02[,0.25]       快峰中位数, 慢峰中位数, 慢峰比例[, 两个峰共用的 sigma]
+     * recorded:validate-latency.txt    每行一个毫秒值，# 开头为注释，相对路径以配置文件所在目录为准
+     * </pre>
+     */
+    static LatencyDistribution parse(String spec, Path baseDirectory) {
+        String text = spec.trim();
+        int colon = text.indexOf(':');
+        String kind = colon < 0 ? text : text.substring(0, colon).trim();
+        String args = colon < 0 ? "" : text.substring(colon + 1).trim();
+        switch (kind) {
+            case "fixed" -> {
+                return fixed(Double.parseDouble(args));
+            }
+            case "lognormal" -> {
+                double[] values = numbers(args, 2, 2, spec);
+                return lognormal(values[0], values[1]);
+            }
+            case "bimodal" -> {
+                double[] values = numbers(args, 3, 4, spec);
+                double sigma = values.length > 3 ? values[3] : 0.25;
+                return bimodal(lognormal(values[0], sigma), lognormal(values[1], sigma), values[2]);
+            }
+            case "recorded" -> {
+                Path file = baseDirectory == null ? Path.of(args) : baseDirectory.resolve(args);
+                return recorded(readSamples(file));
+            }
+            default -> throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        }
+    }
+
+    private static double[] numbers(String args, int min, int max, String spec) {
+        double[] values = Arrays.stream(args.split(",")).map(String::trim).mapToDouble(Double::parseDouble).toArray();
+        if (values.length < min || values.length > max) {
+            throw new IllegalArgumentException("Wrong number of arguments for latency distribution: " + spec);
+        }
+        return values;
+    }
+
+    private static long[] readSamples(Path file) {
+        try {
+            List<String> lines = Files.readAllLines(file);
+            return lines.stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .mapToLong(line -> toNanos(Double.parseDouble(line)))
+                    .toArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read latency samples from " + file, e);
+        }
+    }
+
+    private static long toNanos(double millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Latency must be non-negative: " + millis);
+        }
+        return Math.round(millis * 1_000_000);
+    }
+
+    record Fixed(long nanos) implements LatencyDistribution {
+        @Override
+        public long sampleNanos(RandomGenerator random) {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return "fixed(" + nanos / 1_000_000.0 + "ms)";
+        }
+    }
+
+    record LogNormal(double mu, double sigma) implements LatencyDistribution {
+        @Override
+        public long sampleNanos(RandomGenerator random) {
+            return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("lognormal(median=%.1fms, sigma=%.2f)", Math.exp(mu) / 1_000_000.0, sigma);
+        }
+    }
+
+    record Bimodal(LatencyDistribution fast, LatencyDistribution slow, double slowProbability)
+            implements LatencyDistribution {
+        @Override
+        public long sampleNanos(RandomGenerator random) {
+            return random.nextDouble() < slowProbability ? slow.sampleNanos(random) : fast.sampleNanos(random);
+        }
+
+        @Override
+        public String toString() {
+            return "bimodal(" + fast + ", " + slow + " @" + slowProbability + ")";
+        }
+    }
+
+    record Recorded(long[] samplesNanos) implements LatencyDistribution {
+        @Override
+        public long sampleNanos(RandomGenerator random) {
+            return samplesNanos[random.nextInt(samplesNanos.length)];
+        }
+
+        @Override
+        public String toString() {
+            return "recorded(" + samplesNanos.length + " samples)";
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package site.hnfy258.demo3.model;
+
+/**
+ * MockExternalService 模拟的外部操作，key 是它在配置文件里的前缀。
+ */
+public enum Operation {
+    VALIDATE("validate"),
+    TRANSFORM("transform"),
+    STORE("store"),
+    NOTIFY("notify"),
+    GEO_LOCATE("geo");
+
+    private final String key;
+
+    Operation(String key) {
+        this.key = key;
+    }
+
+    public String key() {
+        return key;
+    }
+}
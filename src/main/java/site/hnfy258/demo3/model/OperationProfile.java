@@ -0,0 +1,57 @@
+package site.hnfy258.demo3.model;
+
+import java.util.List;
+
+/**
+ * 一个外部操作的行为：延迟分布、平时的失败率、故障窗口。
+ * rejectRate 是调用成功时返回业务否定结果的比例，目前只有校验（返回 false）用到。
+ */
+public record OperationProfile(LatencyDistribution latency,
+                               double failureRate,
+                               double rejectRate,
+                               List<OutageWindow> outages) {
+
+    public OperationProfile {
+        if (failureRate < 0 || failureRate > 1 || rejectRate < 0 || rejectRate > 1) {
+            throw new IllegalArgumentException("Rates must be within [0, 1]: failure=" + failureRate + ", reject=" + rejectRate);
+        }
+        outages = List.copyOf(outages);
+    }
+
+    public OperationProfile(LatencyDistribution latency, double failureRate) {
+        this(latency, failureRate, 0, List.of());
+    }
+
+    // 处于某个故障窗口时使用窗口的失败率，否则使用平时的失败率
+    public double failureRateAt(long elapsedMillis) {
+        for (OutageWindow outage : outages) {
+            if (outage.contains(elapsedMillis)) {
+                return outage.failureRate();
+            }
+        }
+        return failureRate;
+    }
+
+    public OperationProfile withLatency(LatencyDistribution latency) {
+        return new OperationProfile(latency, failureRate, rejectRate, outages);
+    }
+
+    public OperationProfile withFailureRate(double failureRate) {
+        return new OperationProfile(latency, failureRate, rejectRate, outages);
+    }
+
+    public OperationProfile withRejectRate(double rejectRate) {
+        return new OperationProfile(latency, failureRate, rejectRate, outages);
+    }
+
+    public OperationProfile withOutages(List<OutageWindow> outages) {
+        return new OperationProfile(latency, failureRate, rejectRate, outages);
+    }
+
+    @Override
+    public String toString() {
+        return latency + ", failureRate=" + failureRate
+                + (rejectRate > 0 ? ", rejectRate=" + rejectRate : "")
+                + (outages.isEmpty() ? "" : ", outages=" + outages);
+    }
+}
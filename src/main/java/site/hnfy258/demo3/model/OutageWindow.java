@@ -0,0 +1,46 @@
+package site.hnfy258.demo3.model;
+
+/**
+ * 故障窗口：从模型启动算起的 [startMillis, endMillis) 内，操作的失败率被替换为 failureRate。
+ * failureRate 为 1 表示完全不可用，小于 1 表示部分降级。
+ */
+public record OutageWindow(long startMillis, long endMillis, double failureRate) {
+
+    public OutageWindow {
+        if (startMillis < 0 || endMillis <= startMillis) {
+            throw new IllegalArgumentException("Invalid outage window: " + startMillis + "-" + endMillis);
+        }
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("Outage failure rate must be within [0, 1]: " + failureRate);
+        }
+    }
+
+    /**
+     * 解析 "开始秒-结束秒@失败率"，例如 "30-45@1.0"；省略 "@失败率" 时为完全不可用。
+     */
+    public static OutageWindow parse(String spec) {
+        String text = spec.trim();
+        double rate = 1.0;
+        int at = text.indexOf('@');
+        if (at >= 0) {
+            rate = Double.parseDouble(text.substring(at + 1).trim());
+            text = text.substring(0, at);
+        }
+        int dash = text.indexOf('-');
+        if (dash <= 0) {
+            throw new IllegalArgumentException("Outage window must look like <startSec>-<endSec>[@rate]: " + spec);
+        }
+        long start = Math.round(Double.parseDouble(text.substring(0, dash).trim()) * 1000);
+        long end = Math.round(Double.parseDouble(text.substring(dash + 1).trim()) * 1000);
+        return new OutageWindow(start, end, rate);
+    }
+
+    public boolean contains(long elapsedMillis) {
+        return elapsedMillis >= startMillis && elapsedMillis < endMillis;
+    }
+
+    @Override
+    public String toString() {
+        return startMillis / 1000.0 + "s-" + endMillis / 1000.0 + "s@" + failureRate;
+    }
+}
@@ -0,0 +1,18 @@
+package site.hnfy258.demo3.pipeline;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo3.ProcessingResult;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 事件处理链的执行引擎。返回的 future 总是正常完成，失败体现在 ProcessingResult 里。
+ */
+public interface EventPipeline {
+
+    CompletableFuture<ProcessingResult> execute(Event event);
+
+    void printStageStats();
+
+    void shutdown();
+}
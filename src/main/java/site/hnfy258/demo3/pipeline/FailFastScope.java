@@ -0,0 +1,106 @@
+package site.hnfy258.demo3.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 结构化并发的作用域，语义与 JDK 的 StructuredTaskScope.ShutdownOnFailure 相同，
+ * 只是子任务是已经发出的 CompletableFuture（JDK 21 里 StructuredTaskScope 仍是预览 API）：
+ * <ul>
+ *     <li>任一子任务失败、调用 shutdown() 或等待超时，都会取消其余还没完成的子任务；</li>
+ *     <li>join 把第一个失败原因以 ExecutionException 抛出；</li>
+ *     <li>close() 取消所有剩余子任务，try-with-resources 退出后不会有子任务还在运行。</li>
+ * </ul>
+ * 取消通过 future.cancel(true) 传播，子任务是否真的被中断取决于 future 的提供方
+ * （MockExternalService 返回的 future 被取消时会中断正在执行的任务）。
+ * fork/join/close 只能在创建作用域的线程上调用，shutdown() 可以在任意线程调用。
+ */
+public final class FailFastScope implements AutoCloseable {
+    private final List<CompletableFuture<?>> subtasks = new ArrayList<>();
+    private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+    private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+    private final AtomicInteger cancelledCount = new AtomicInteger();
+
+    public <T> CompletableFuture<T> fork(CompletableFuture<T> subtask) {
+        subtasks.add(subtask);
+        subtask.whenComplete((value, ex) -> {
+            // 被本作用域取消的子任务不算失败
+            if (ex != null && !(ex instanceof CancellationException) && firstFailure.compareAndSet(null, unwrap(ex))) {
+                stopped.complete(null);
+            }
+        });
+        return subtask;
+    }
+
+    // 不再需要其余子任务的结果（例如校验已经不通过），让 join 立即返回并取消它们
+    public void shutdown() {
+        stopped.complete(null);
+    }
+
+    public void join() throws InterruptedException, ExecutionException {
+        try {
+            join(Long.MAX_VALUE);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 等到所有子任务完成、某个子任务失败、被 shutdown 或到达 deadlineNanos（System.nanoTime() 时间）为止。
+     * 除了全部正常完成之外，返回或抛出之前都会取消剩余的子任务。
+     */
+    public void join(long deadlineNanos) throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<Object> finished = CompletableFuture.anyOf(
+                CompletableFuture.allOf(subtasks.toArray(new CompletableFuture<?>[0])), stopped);
+        try {
+            if (deadlineNanos == Long.MAX_VALUE) {
+                finished.get();
+            } else {
+                finished.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        } catch (ExecutionException e) {
+            // 失败原因由 firstFailure 统一给出
+        } catch (InterruptedException | TimeoutException e) {
+            cancelRemaining();
+            throw e;
+        }
+        Throwable failure = firstFailure.get();
+        if (failure != null) {
+            cancelRemaining();
+            throw new ExecutionException(failure);
+        }
+        if (stopped.isDone()) {
+            cancelRemaining();
+        }
+    }
+
+    // 本作用域取消掉的子任务数量，也就是节省下来的调用
+    public int cancelledCount() {
+        return cancelledCount.get();
+    }
+
+    @Override
+    public void close() {
+        cancelRemaining();
+    }
+
+    private void cancelRemaining() {
+        for (CompletableFuture<?> subtask : subtasks) {
+            if (subtask.cancel(true)) {
+                cancelledCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+}
@@ -0,0 +1,94 @@
+package site.hnfy258.demo3.pipeline;
+
+import site.hnfy258.demo1.Event;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 一个事件在各阶段之间传递的状态。同一事件的阶段依次执行，前一阶段的 future 完成先于后一阶段开始，
+ * 所以 data 不需要并发容器。
+ */
+public class PipelineContext {
+    private final Event event;
+    private final Map<String, Object> data = new HashMap<>();
+    // System.nanoTime() 时间轴上的截止时刻，NO_DEADLINE 表示不限时
+    private final long eventDeadlineNanos;
+    private volatile long stageDeadlineNanos;
+    private int retryCount = 0;
+
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    public PipelineContext(Event event) {
+        this(event, NO_DEADLINE);
+    }
+
+    public PipelineContext(Event event, long eventDeadlineNanos) {
+        this.event = event;
+        this.eventDeadlineNanos = eventDeadlineNanos;
+        this.stageDeadlineNanos = eventDeadlineNanos;
+    }
+
+    public boolean hasDeadline() {
+        return eventDeadlineNanos != NO_DEADLINE;
+    }
+
+    public long eventDeadlineNanos() {
+        return eventDeadlineNanos;
+    }
+
+    // 当前阶段的截止时刻，由 StageRunner 在阶段开始时设置
+    public long stageDeadlineNanos() {
+        return stageDeadlineNanos;
+    }
+
+    void setStageDeadlineNanos(long stageDeadlineNanos) {
+        this.stageDeadlineNanos = stageDeadlineNanos;
+    }
+
+    /**
+     * 给一次外部调用套上当前阶段的截止时间。超时时直接以 TimeoutException 完成 call 本身，
+     * 可取消的调用（例如 MockExternalService 返回的 future）会因此中断正在执行的请求。
+     */
+    public <T> CompletableFuture<T> withinDeadline(CompletableFuture<T> call) {
+        if (!hasDeadline()) {
+            return call;
+        }
+        long remaining = stageDeadlineNanos - System.nanoTime();
+        if (remaining <= 0) {
+            call.completeExceptionally(new TimeoutException("stage budget exhausted"));
+            return call;
+        }
+        return call.orTimeout(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    public Event event() {
+        return event;
+    }
+
+    public void put(String key, Object value) {
+        data.put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        return (T) data.get(key);
+    }
+
+    // 该事件在各阶段累计的重试次数
+    public int retryCount() {
+        return retryCount;
+    }
+
+    void incrementRetryCount() {
+        retryCount++;
+    }
+
+    // 处理成功时作为 ProcessingResult.processedDate 返回
+    public Map<String, Object> data() {
+        return data;
+    }
+}
@@ -0,0 +1,59 @@
+package site.hnfy258.demo3.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 令牌桶形式的重试预算：每次首次调用存入 retryRatio 个令牌，每次重试取走一个，桶容量为 maxTokens。
+ * 正常时少量失败都能重试；依赖整体故障时几乎所有调用都失败，令牌很快耗尽，
+ * 重试量被限制在首次调用量的 retryRatio 倍以内，不会把故障放大成数倍的流量。
+ */
+public class RetryBudget {
+    // 令牌以千分之一为单位存储，便于用 long 做 CAS
+    private static final long SCALE = 1000;
+
+    private final long depositPerRequest;
+    private final long maxBalance;
+    private final AtomicLong balance;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    public RetryBudget(double retryRatio, int maxTokens) {
+        this.depositPerRequest = (long) (retryRatio * SCALE);
+        this.maxBalance = maxTokens * SCALE;
+        this.balance = new AtomicLong(maxBalance);
+    }
+
+    public void onRequest() {
+        if (balance.get() < maxBalance) {
+            balance.accumulateAndGet(depositPerRequest, (current, deposit) -> Math.min(maxBalance, current + deposit));
+        }
+    }
+
+    public boolean tryAcquireRetry() {
+        while (true) {
+            long current = balance.get();
+            if (current < SCALE) {
+                exhausted.increment();
+                return false;
+            }
+            if (balance.compareAndSet(current, current - SCALE)) {
+                retries.increment();
+                return true;
+            }
+        }
+    }
+
+    public double getAvailableTokens() {
+        return (double) balance.get() / SCALE;
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    // 因预算耗尽而放弃的重试次数
+    public long getExhaustedCount() {
+        return exhausted.sum();
+    }
+}
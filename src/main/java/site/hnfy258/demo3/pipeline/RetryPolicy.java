@@ -0,0 +1,52 @@
+package site.hnfy258.demo3.pipeline;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 阶段失败后的重试策略：最多尝试 maxAttempts 次（含第一次），只重试 retryable 判定为瞬时故障的异常。
+ * 退避时间为 [0, min(maxDelay, baseDelay * 2^n)] 内的随机值（full jitter），避免同一时刻失败的请求又同时重试。
+ */
+public class RetryPolicy {
+    private static final RetryPolicy NO_RETRY = new RetryPolicy(1, 0, 0, TimeUnit.MILLISECONDS, error -> false);
+
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final Predicate<Throwable> retryable;
+
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, TimeUnit unit, Predicate<Throwable> retryable) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = unit.toNanos(baseDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.retryable = retryable;
+    }
+
+    public static RetryPolicy noRetry() {
+        return NO_RETRY;
+    }
+
+    /**
+     * @param attempt 已经进行的尝试次数（从 1 开始）
+     */
+    public boolean shouldRetry(Throwable error, int attempt) {
+        return attempt < maxAttempts && retryable.test(error);
+    }
+
+    /**
+     * @param attempt 已经进行的尝试次数（从 1 开始），第一次重试前的退避上限为 baseDelay
+     */
+    public long backoffNanos(int attempt) {
+        int shift = Math.min(attempt - 1, 30);
+        long ceiling = Math.min(maxDelayNanos, baseDelayNanos << shift);
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,23 @@
+package site.hnfy258.demo3.pipeline;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 流水线中的一个处理阶段。process 应当尽快返回一个 future，真正的等待发生在外部服务里；
+ * 返回 StageResult.stop 或以异常完成都会终止该事件后续的阶段。
+ */
+public interface Stage {
+
+    // 阶段名，同时用于失败信息前缀，例如 "Validation failed: ..."
+    String name();
+
+    CompletableFuture<StageResult> process(PipelineContext context);
+
+    /**
+     * 事件时间预算在阶段之间按权重分配：阶段开始时，剩余预算按 本阶段权重 / 剩余各阶段权重之和 划给本阶段，
+     * 前面阶段没用完的时间自动留给后面。一般按该阶段依赖的典型耗时设置。
+     */
+    default double budgetWeight() {
+        return 1.0;
+    }
+}
@@ -0,0 +1,16 @@
+package site.hnfy258.demo3.pipeline;
+
+/**
+ * 阶段的处理结论：继续下一个阶段，或者带着原因停止（不算异常，例如校验结果为 false）。
+ */
+public record StageResult(boolean proceed, String errorMessage) {
+    private static final StageResult CONTINUE = new StageResult(true, null);
+
+    public static StageResult proceedToNext() {
+        return CONTINUE;
+    }
+
+    public static StageResult stop(String errorMessage) {
+        return new StageResult(false, errorMessage);
+    }
+}
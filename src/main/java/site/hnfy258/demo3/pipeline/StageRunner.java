@@ -0,0 +1,134 @@
+package site.hnfy258.demo3.pipeline;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 包装一个 Stage：有界输入队列 + 最大并发数 + 专属执行器。
+ * 在途数未满时从队列取任务交给执行器启动，阶段的 future 完成后释放名额并继续取下一个，全程不阻塞调用线程。
+ */
+final class StageRunner {
+    private final Stage stage;
+    private final Executor executor;
+    private final int maxConcurrency;
+    private final int queueCapacity;
+    private final ConcurrentLinkedQueue<Task> inputQueue = new ConcurrentLinkedQueue<>();
+    private final StageStats stats;
+
+    StageRunner(Stage stage, Executor executor, int maxConcurrency, int queueCapacity) {
+        if (maxConcurrency <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("maxConcurrency and queueCapacity must be positive");
+        }
+        this.stage = stage;
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.queueCapacity = queueCapacity;
+        this.stats = new StageStats(stage.name(), maxConcurrency);
+    }
+
+    String name() {
+        return stage.name();
+    }
+
+    StageStats stats() {
+        return stats;
+    }
+
+    /**
+     * @param remainingWeight 本阶段及之后所有阶段的预算权重之和
+     */
+    CompletableFuture<StageResult> submit(PipelineContext context, double remainingWeight) {
+        if (stats.queueDepth.incrementAndGet() > queueCapacity) {
+            stats.queueDepth.decrementAndGet();
+            stats.recordRejected();
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException(stage.name() + " stage queue is full (" + queueCapacity + ")"));
+        }
+        Task task = new Task(context, System.nanoTime(), remainingWeight);
+        inputQueue.offer(task);
+        drain();
+        return task.result;
+    }
+
+    private void drain() {
+        while (true) {
+            int current = stats.inFlight.get();
+            if (current >= maxConcurrency || inputQueue.isEmpty()) {
+                return;
+            }
+            if (!stats.inFlight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Task task = inputQueue.poll();
+            if (task == null) {
+                // 名额被别的线程抢先用掉了任务；归还后再看一眼，防止在此期间入队的任务没人取
+                stats.inFlight.decrementAndGet();
+                continue;
+            }
+            stats.queueDepth.decrementAndGet();
+            start(task);
+        }
+    }
+
+    private void start(Task task) {
+        try {
+            executor.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            stats.inFlight.decrementAndGet();
+            task.result.completeExceptionally(e);
+        }
+    }
+
+    private void run(Task task) {
+        long startNanos = System.nanoTime();
+        stats.recordStart(startNanos - task.enqueuedNanos);
+        PipelineContext context = task.context;
+        CompletableFuture<StageResult> future;
+        long remaining = context.eventDeadlineNanos() - startNanos;
+        if (context.hasDeadline() && remaining <= 0) {
+            // 排队时已经耗尽了整个事件的预算，不再调用依赖
+            future = CompletableFuture.failedFuture(new TimeoutException("event budget exhausted before stage start"));
+        } else {
+            if (context.hasDeadline()) {
+                long stageBudget = (long) (remaining * (stage.budgetWeight() / task.remainingWeight));
+                context.setStageDeadlineNanos(startNanos + Math.min(remaining, Math.max(1, stageBudget)));
+            }
+            try {
+                future = stage.process(context);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            if (context.hasDeadline()) {
+                // 兜底：没有用 withinDeadline 包装外部调用的阶段，也不会超过截止时间
+                future = future.orTimeout(Math.max(1, context.stageDeadlineNanos() - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        }
+        future.whenComplete((result, ex) -> {
+            stats.recordCompletion(System.nanoTime() - startNanos, result, ex);
+            stats.inFlight.decrementAndGet();
+            drain();
+            if (ex != null) {
+                task.result.completeExceptionally(ex);
+            } else {
+                task.result.complete(result);
+            }
+        });
+    }
+
+    private static final class Task {
+        final PipelineContext context;
+        final long enqueuedNanos;
+        final double remainingWeight;
+        final CompletableFuture<StageResult> result = new CompletableFuture<>();
+
+        Task(PipelineContext context, long enqueuedNanos, double remainingWeight) {
+            this.context = context;
+            this.enqueuedNanos = enqueuedNanos;
+            this.remainingWeight = remainingWeight;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package site.hnfy258.demo3.pipeline;
+
+import site.hnfy258.demo2.LatencyHistogram;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个阶段的运行指标：排队深度、在途数、吞吐，以及排队等待和阶段本身耗时的延迟分布（微秒）。
+ * 对比各阶段的排队等待就能看出瓶颈在哪一段。
+ */
+public class StageStats {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final String name;
+    private final int maxConcurrency;
+    private final long createdNanos = System.nanoTime();
+
+    final AtomicInteger queueDepth = new AtomicInteger();
+    final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder stopped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LatencyHistogram queueWait = new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+    private final LatencyHistogram serviceTime = new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+
+    StageStats(String name, int maxConcurrency) {
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    void recordStart(long queueWaitNanos) {
+        queueWait.recordValue(TimeUnit.NANOSECONDS.toMicros(queueWaitNanos));
+    }
+
+    void recordCompletion(long serviceNanos, StageResult result, Throwable error) {
+        serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(serviceNanos));
+        if (error != null) {
+            failed.increment();
+            Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+            if (cause instanceof TimeoutException) {
+                timedOut.increment();
+            }
+        } else if (!result.proceed()) {
+            stopped.increment();
+        } else {
+            completed.increment();
+        }
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getStopped() {
+        return stopped.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    // 失败后安排的重试次数（重试的那次尝试本身另计入 done/failed）
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    // 失败中因超出截止时间而放弃的次数
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    // 自阶段创建以来，每秒离开该阶段的事件数（成功、停止、失败都算）
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - createdNanos) / 1_000_000_000.0;
+        return seconds <= 0 ? 0.0 : (completed.sum() + stopped.sum() + failed.sum()) / seconds;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    @Override
+    public String toString() {
+        LatencyHistogram.Snapshot wait = queueWait.snapshot();
+        LatencyHistogram.Snapshot service = serviceTime.snapshot();
+        return String.format("%-15s depth=%d inFlight=%d/%d done=%d stopped=%d failed=%d retries=%d timedOut=%d rejected=%d %.1f/s"
+                        + " wait p50/p99=%.1f/%.1fms service p50/p99=%.1f/%.1fms",
+                name, queueDepth.get(), inFlight.get(), maxConcurrency,
+                completed.sum(), stopped.sum(), failed.sum(), retries.sum(), timedOut.sum(), rejected.sum(), getThroughput(),
+                wait.getValueAtPercentile(50.0) / 1000.0, wait.getValueAtPercentile(99.0) / 1000.0,
+                service.getValueAtPercentile(50.0) / 1000.0, service.getValueAtPercentile(99.0) / 1000.0);
+    }
+}
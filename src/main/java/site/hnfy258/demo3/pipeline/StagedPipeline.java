@@ -0,0 +1,243 @@
+package site.hnfy258.demo3.pipeline;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo3.ProcessingResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按声明顺序依次执行各阶段的处理引擎，每个阶段有自己的执行器、并发上限和输入队列。
+ * 任一阶段停止或失败时返回失败的 ProcessingResult，全部通过则返回成功结果，返回的 future 总是正常完成。
+ *
+ * <pre>
+ * StagedPipeline pipeline = StagedPipeline.builder()
+ *         .stage(new ValidationStage(service), 64, 10_000)
+ *         .stage(new TransformationStage(service), 8, 10_000)
+ *         .build();
+ * </pre>
+ */
+public class StagedPipeline implements EventPipeline {
+    private final List<StageRunner> runners;
+    private final List<ExecutorService> ownedExecutors;
+    // remainingWeights[i] 为第 i 个阶段及之后所有阶段的预算权重之和
+    private final double[] remainingWeights;
+    private final long eventBudgetNanos;
+    private final RetryPolicy retryPolicy;
+    private final RetryBudget retryBudget;
+    // 重试的退避在调度线程上计时，不占用阶段的并发名额和任何线程
+    private final ScheduledExecutorService retryScheduler;
+
+    private StagedPipeline(Builder builder) {
+        this.runners = List.copyOf(builder.runners);
+        this.eventBudgetNanos = builder.eventBudgetNanos;
+        this.retryPolicy = builder.retryPolicy;
+        this.retryBudget = builder.retryBudget;
+        List<ExecutorService> executors = new ArrayList<>(builder.ownedExecutors);
+        if (retryPolicy.getMaxAttempts() > 1) {
+            this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Pipeline-Retry-Thread");
+                t.setDaemon(true);
+                return t;
+            });
+            executors.add(retryScheduler);
+        } else {
+            this.retryScheduler = null;
+        }
+        this.ownedExecutors = List.copyOf(executors);
+        this.remainingWeights = new double[runners.size()];
+        double sum = 0;
+        for (int i = runners.size() - 1; i >= 0; i--) {
+            sum += builder.stageWeights.get(i);
+            remainingWeights[i] = sum;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public CompletableFuture<ProcessingResult> execute(Event event) {
+        CompletableFuture<ProcessingResult> result = new CompletableFuture<>();
+        PipelineContext context = eventBudgetNanos > 0
+                ? new PipelineContext(event, System.nanoTime() + eventBudgetNanos)
+                : new PipelineContext(event);
+        runStage(0, 1, context, result);
+        return result;
+    }
+
+    /**
+     * @param attempt 本阶段的第几次尝试，从 1 开始
+     */
+    private void runStage(int index, int attempt, PipelineContext context, CompletableFuture<ProcessingResult> result) {
+        Event event = context.event();
+        if (index == runners.size()) {
+            System.out.println("Processor: ALL STEPS COMPLETE for event: " + event.traceId()
+                    + (context.retryCount() > 0 ? " (retries: " + context.retryCount() + ")" : ""));
+            result.complete(new ProcessingResult(event, true, null, context.data(), context.retryCount()));
+            return;
+        }
+        StageRunner runner = runners.get(index);
+        if (attempt == 1) {
+            retryBudget.onRequest();
+        }
+        runner.submit(context, remainingWeights[index]).whenComplete((stageResult, ex) -> {
+            if (ex != null) {
+                Throwable actualEx = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+                if (scheduleRetry(index, attempt, actualEx, context, result)) {
+                    return;
+                }
+                String errorMsg = actualEx instanceof TimeoutException
+                        ? runner.name() + " failed: deadline exceeded"
+                                + (actualEx.getMessage() != null ? " (" + actualEx.getMessage() + ")" : "")
+                        : runner.name() + " failed: " + actualEx.getMessage();
+                System.err.println("Processor: " + errorMsg + " for event: " + event.traceId());
+                result.complete(new ProcessingResult(event, false, errorMsg, Collections.emptyMap(), context.retryCount()));
+            } else if (!stageResult.proceed()) {
+                System.out.println("Processor: " + runner.name() + " stopped the chain for event: " + event.traceId());
+                result.complete(new ProcessingResult(event, false, stageResult.errorMessage(), Collections.emptyMap(),
+                        context.retryCount()));
+            } else {
+                runStage(index + 1, 1, context, result);
+            }
+        });
+    }
+
+    // 瞬时故障、还有尝试次数、退避后仍在截止时间内、且重试预算有余量时，退避后把事件重新提交给同一阶段
+    private boolean scheduleRetry(int index, int attempt, Throwable error, PipelineContext context,
+                                  CompletableFuture<ProcessingResult> result) {
+        if (!retryPolicy.shouldRetry(error, attempt)) {
+            return false;
+        }
+        long delayNanos = retryPolicy.backoffNanos(attempt);
+        if (context.hasDeadline() && System.nanoTime() + delayNanos >= context.eventDeadlineNanos()) {
+            return false;
+        }
+        if (!retryBudget.tryAcquireRetry()) {
+            return false;
+        }
+        StageRunner runner = runners.get(index);
+        runner.stats().recordRetry();
+        context.incrementRetryCount();
+        System.err.println("Processor: " + runner.name() + " attempt " + attempt + " failed for event: "
+                + context.event().traceId() + " (" + error.getMessage() + "), retrying in "
+                + TimeUnit.NANOSECONDS.toMillis(delayNanos) + "ms");
+        try {
+            retryScheduler.schedule(() -> runStage(index, attempt + 1, context, result), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+        return true;
+    }
+
+    public List<StageStats> getStageStats() {
+        List<StageStats> stats = new ArrayList<>(runners.size());
+        for (StageRunner runner : runners) {
+            stats.add(runner.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public void printStageStats() {
+        System.out.println("\n--- Pipeline Stages ---");
+        for (StageRunner runner : runners) {
+            System.out.println(runner.stats());
+        }
+        if (retryScheduler != null) {
+            System.out.println(String.format("Retry budget: %d retries, %d denied, %.1f tokens left",
+                    retryBudget.getRetryCount(), retryBudget.getExhaustedCount(), retryBudget.getAvailableTokens()));
+        }
+        System.out.println("-----------------------");
+    }
+
+    // 只关闭由 builder 创建的执行器，调用方传入的执行器由调用方自己管理
+    @Override
+    public void shutdown() {
+        for (ExecutorService executor : ownedExecutors) {
+            executor.shutdown();
+        }
+        try {
+            for (ExecutorService executor : ownedExecutors) {
+                if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            ownedExecutors.forEach(ExecutorService::shutdownNow);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Builder {
+        private final List<StageRunner> runners = new ArrayList<>();
+        private final List<ExecutorService> ownedExecutors = new ArrayList<>();
+        private final List<Double> stageWeights = new ArrayList<>();
+        private long eventBudgetNanos = 0;
+        private RetryPolicy retryPolicy = RetryPolicy.noRetry();
+        private RetryBudget retryBudget = new RetryBudget(0, 0);
+
+        private Builder() {
+        }
+
+        /**
+         * 每个事件从进入流水线开始的总时间预算，按各阶段的 budgetWeight 分配；不设置则不限时。
+         */
+        public Builder eventBudget(long budget, TimeUnit unit) {
+            this.eventBudgetNanos = unit.toNanos(budget);
+            return this;
+        }
+
+        /**
+         * 阶段以可重试异常失败时按 policy 退避后重新提交该阶段，所有阶段共享同一个重试预算。
+         */
+        public Builder retry(RetryPolicy policy, RetryBudget budget) {
+            this.retryPolicy = policy;
+            this.retryBudget = budget;
+            return this;
+        }
+
+        /**
+         * 使用专属的守护线程池。阶段的 process 只负责发起异步调用，线程数不需要和并发上限一样多。
+         */
+        public Builder stage(Stage stage, int maxConcurrency, int queueCapacity) {
+            int threads = Math.min(maxConcurrency, Runtime.getRuntime().availableProcessors());
+            AtomicInteger threadIndex = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "Stage-" + stage.name() + "-" + threadIndex.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            ownedExecutors.add(executor);
+            return stage(stage, executor, maxConcurrency, queueCapacity);
+        }
+
+        public Builder stage(Stage stage, Executor executor, int maxConcurrency, int queueCapacity) {
+            if (!(stage.budgetWeight() > 0)) {
+                throw new IllegalArgumentException(stage.name() + " budgetWeight must be positive: " + stage.budgetWeight());
+            }
+            runners.add(new StageRunner(stage, executor, maxConcurrency, queueCapacity));
+            stageWeights.add(stage.budgetWeight());
+            return this;
+        }
+
+        public StagedPipeline build() {
+            if (runners.isEmpty()) {
+                throw new IllegalStateException("Pipeline needs at least one stage");
+            }
+            return new StagedPipeline(this);
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package site.hnfy258.demo4;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * 按权重（一般是估算的字节数）限制容量的并发缓存，淘汰策略为 W-TinyLFU：
+ * 新条目先进入占总权重 1% 的窗口 LRU；被挤出窗口的条目进入主区的试用段，
+ * 主区放不下时用 FrequencySketch 比较它和试用段最久未访问的条目的近期访问频率，频率低的被淘汰；
+ * 试用段中再次被访问的条目升入保护段（主区的 80%）。
+ * 这样偶发的一次性访问不会把真正的热点挤出去。
+ *
+ * 数据本身放在 ConcurrentHashMap 里，读写都不加锁；淘汰策略的维护（LRU 顺序、频率统计、淘汰、过期）
+ * 先记入缓冲区，由拿到 tryLock 的线程批量处理。读缓冲按线程分片且满了就丢弃，
+ * 所以命中路径只比 ConcurrentHashMap.get 多一次分片上的 CAS。
+ */
+public class BoundedCache<K, V> {
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_STRIPES =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private static final byte WINDOW = 1;
+    private static final byte PROBATION = 2;
+    private static final byte PROTECTED = 3;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    private final long expireAfterWriteNanos;
+
+    @SuppressWarnings("unchecked")
+    private final ReadBuffer<K, V>[] readBuffers = (ReadBuffer<K, V>[]) new ReadBuffer<?, ?>[READ_BUFFER_STRIPES];
+    private final ConcurrentLinkedQueue<WriteTask<K, V>> writeBuffer = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // 以下策略状态由 evictionLock 保护
+    private final FrequencySketch sketch;
+    private final AccessOrderDeque<K, V> window = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> probation = new AccessOrderDeque<>();
+    private final AccessOrderDeque<K, V> protectedDeque = new AccessOrderDeque<>();
+    private Node<K, V> writeOrderHead;
+    private Node<K, V> writeOrderTail;
+    private volatile long weightedSize = 0;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+
+    private BoundedCache(Builder<K, V> builder) {
+        this.maximumWeight = builder.maximumWeight;
+        this.windowMaximum = Math.max(1, (long) (maximumWeight * WINDOW_RATIO));
+        this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * PROTECTED_RATIO);
+        this.weigher = builder.weigher;
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.sketch = new FrequencySketch(builder.expectedEntries);
+        for (int i = 0; i < readBuffers.length; i++) {
+            readBuffers[i] = new ReadBuffer<>();
+        }
+    }
+
+    public static <K, V> Builder<K, V> builder() {
+        return new Builder<>();
+    }
+
+    public V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            missCount.increment();
+            return null;
+        }
+        if (isExpired(node)) {
+            missCount.increment();
+            if (data.remove(key, node)) {
+                expirationCount.increment();
+                afterWrite(new WriteTask<>(false, node));
+            }
+            return null;
+        }
+        hitCount.increment();
+        afterRead(node);
+        return node.value;
+    }
+
+    /**
+     * 读穿透：命中直接返回，未命中（或已过期）时调用 loader 加载并写入缓存。
+     * 同一个键并发未命中时只有一个线程执行 loader。loader 返回 null 时不缓存，返回 null。
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V cached = getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        LoadOutcome<K, V> changed = new LoadOutcome<>();
+        Node<K, V> node = data.compute(key, (k, existing) -> {
+            if (existing != null && !isExpired(existing)) {
+                return existing;
+            }
+            changed.replaced = existing;
+            V value = loader.apply(k);
+            loadCount.increment();
+            if (value == null) {
+                return null;
+            }
+            changed.created = newNode(k, value);
+            return changed.created;
+        });
+        if (changed.replaced != null) {
+            expirationCount.increment();
+            afterWrite(new WriteTask<>(false, changed.replaced));
+        }
+        if (changed.created != null) {
+            afterWrite(new WriteTask<>(true, changed.created));
+        }
+        return node == null ? null : node.value;
+    }
+
+    public void put(K key, V value) {
+        Node<K, V> node = newNode(key, value);
+        Node<K, V> old = data.put(key, node);
+        if (old != null) {
+            old.retired = true;
+            writeBuffer.add(new WriteTask<>(false, old));
+        }
+        afterWrite(new WriteTask<>(true, node));
+    }
+
+    public V invalidate(K key) {
+        Node<K, V> node = data.remove(key);
+        if (node == null) {
+            return null;
+        }
+        afterWrite(new WriteTask<>(false, node));
+        return node.value;
+    }
+
+    public long estimatedSize() {
+        return data.size();
+    }
+
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), loadCount.sum(), evictionCount.sum(),
+                evictionWeight.sum(), expirationCount.sum(), data.size(), weightedSize);
+    }
+
+    // 立即处理所有缓冲的维护工作，主要用于统计前让大小和淘汰计数反映最新状态；
+    // 和 tryDrain 一样，维护期间又有读写进入缓冲就再处理一轮
+    public void cleanUp() {
+        do {
+            evictionLock.lock();
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (hasPendingWork());
+    }
+
+    private boolean hasPendingWork() {
+        if (!writeBuffer.isEmpty()) {
+            return true;
+        }
+        for (ReadBuffer<K, V> buffer : readBuffers) {
+            if (!buffer.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Node<K, V> newNode(K key, V value) {
+        int weight = weigher.applyAsInt(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + " for key " + key);
+        }
+        return new Node<>(key, value, weight, expireAfterWriteNanos > 0 ? System.nanoTime() : 0);
+    }
+
+    private boolean isExpired(Node<K, V> node) {
+        return expireAfterWriteNanos > 0 && System.nanoTime() - node.writeNanos >= expireAfterWriteNanos;
+    }
+
+    private void afterRead(Node<K, V> node) {
+        int stripe = (int) mix(Thread.currentThread().threadId()) & (READ_BUFFER_STRIPES - 1);
+        if (!readBuffers[stripe].offer(node)) {
+            tryDrain();
+        }
+    }
+
+    private void afterWrite(WriteTask<K, V> task) {
+        writeBuffer.add(task);
+        tryDrain();
+    }
+
+    // 拿不到锁说明别的线程正在维护；它释放锁后会再检查写缓冲，不会漏掉这里刚加入的任务
+    private void tryDrain() {
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (!writeBuffer.isEmpty());
+    }
+
+    private void maintenance() {
+        for (ReadBuffer<K, V> buffer : readBuffers) {
+            buffer.drain(this);
+        }
+        WriteTask<K, V> task;
+        while ((task = writeBuffer.poll()) != null) {
+            if (task.add()) {
+                onAdd(task.node());
+            } else {
+                onRemove(task.node());
+            }
+        }
+        expireEntries();
+        evictEntries();
+        weightedSize = window.weight + probation.weight + protectedDeque.weight;
+    }
+
+    private void onAdd(Node<K, V> node) {
+        // 在 ADD 处理之前已经被覆盖或删除的条目不再进入策略
+        if (node.retired) {
+            return;
+        }
+        node.inPolicy = true;
+        node.queue = WINDOW;
+        window.addLast(node);
+        if (writeOrderTail == null) {
+            writeOrderHead = node;
+        } else {
+            writeOrderTail.writeNext = node;
+            node.writePrev = writeOrderTail;
+        }
+        writeOrderTail = node;
+        sketch.increment(node.key);
+    }
+
+    private void onRemove(Node<K, V> node) {
+        node.retired = true;
+        if (node.inPolicy) {
+            unlink(node);
+        }
+    }
+
+    void onAccess(Node<K, V> node) {
+        if (!node.inPolicy) {
+            return;
+        }
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW -> window.moveToLast(node);
+            case PROBATION -> {
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedDeque.addLast(node);
+                while (protectedDeque.weight > protectedMaximum && protectedDeque.head != null) {
+                    Node<K, V> demoted = protectedDeque.head;
+                    protectedDeque.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+            }
+            case PROTECTED -> protectedDeque.moveToLast(node);
+            default -> {
+            }
+        }
+    }
+
+    private void expireEntries() {
+        if (expireAfterWriteNanos <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        while (writeOrderHead != null && now - writeOrderHead.writeNanos >= expireAfterWriteNanos) {
+            // 读线程可能已经发现它过期并从 map 中移除（并已计数）
+            if (evict(writeOrderHead)) {
+                expirationCount.increment();
+            }
+        }
+    }
+
+    private void evictEntries() {
+        // 窗口溢出的条目进入试用段尾部，作为接下来淘汰比较中的候选者
+        while (window.weight > windowMaximum && window.head != null) {
+            Node<K, V> candidate = window.head;
+            window.remove(candidate);
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+        while (window.weight + probation.weight + protectedDeque.weight > maximumWeight) {
+            Node<K, V> victim = probation.head;
+            if (victim == null) {
+                if (protectedDeque.head != null) {
+                    Node<K, V> demoted = protectedDeque.head;
+                    protectedDeque.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                    continue;
+                }
+                victim = window.head;
+            } else {
+                Node<K, V> candidate = probation.tail;
+                // 频率相同时保留原有条目，新来者要有更高的近期频率才能挤掉它
+                if (candidate != victim && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                    victim = candidate;
+                }
+            }
+            evictionCount.increment();
+            evictionWeight.add(victim.weight);
+            evict(victim);
+        }
+    }
+
+    private boolean evict(Node<K, V> node) {
+        unlink(node);
+        node.retired = true;
+        return data.remove(node.key, node);
+    }
+
+    private void unlink(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW -> window.remove(node);
+            case PROBATION -> probation.remove(node);
+            case PROTECTED -> protectedDeque.remove(node);
+            default -> {
+            }
+        }
+        node.queue = 0;
+        node.inPolicy = false;
+        if (node.writePrev == null) {
+            writeOrderHead = node.writeNext;
+        } else {
+            node.writePrev.writeNext = node.writeNext;
+        }
+        if (node.writeNext == null) {
+            writeOrderTail = node.writePrev;
+        } else {
+            node.writeNext.writePrev = node.writePrev;
+        }
+        node.writePrev = null;
+        node.writeNext = null;
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+        return x ^ (x >>> 33);
+    }
+
+    static final class Node<K, V> {
+        final K key;
+        final V value;
+        final int weight;
+        final long writeNanos;
+        volatile boolean retired;
+
+        // 以下字段由 evictionLock 保护
+        boolean inPolicy;
+        byte queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+        Node<K, V> writePrev;
+        Node<K, V> writeNext;
+
+        Node(K key, V value, int weight, long writeNanos) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeNanos = writeNanos;
+        }
+    }
+
+    // get(key, loader) 的 compute 回调里被替换掉的过期节点和新建的节点，回调结束后再提交给写缓冲
+    private static final class LoadOutcome<K, V> {
+        Node<K, V> replaced;
+        Node<K, V> created;
+    }
+
+    private record WriteTask<K, V>(boolean add, Node<K, V> node) {
+    }
+
+    // 按访问顺序排列的侵入式双向链表，head 为最久未访问
+    private static final class AccessOrderDeque<K, V> {
+        Node<K, V> head;
+        Node<K, V> tail;
+        long weight;
+
+        void addLast(Node<K, V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            if (tail != node) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    /**
+     * 有损的读缓冲：写满就丢弃新的访问记录（只影响 LRU 顺序和频率统计的精度，不影响正确性），
+     * 由持有 evictionLock 的线程消费。
+     */
+    private static final class ReadBuffer<K, V> {
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter = 0;
+        private final AtomicReferenceArray<Node<K, V>> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+
+        // 返回 false 表示缓冲已满，需要尽快消费
+        boolean offer(Node<K, V> node) {
+            long tail = writeCounter.get();
+            if (tail - readCounter >= READ_BUFFER_SIZE) {
+                return false;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                slots.setRelease((int) (tail & READ_BUFFER_MASK), node);
+            }
+            return true;
+        }
+
+        // 包括已占位但还没放入节点的槽位，写入者很快会放入，再 drain 一轮即可
+        boolean isEmpty() {
+            return readCounter == writeCounter.get();
+        }
+
+        void drain(BoundedCache<K, V> cache) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & READ_BUFFER_MASK);
+                Node<K, V> node = slots.getAcquire(index);
+                if (node == null) {
+                    // 写入者已占位但还没放入节点，下次再处理
+                    break;
+                }
+                slots.setRelease(index, null);
+                cache.onAccess(node);
+            }
+            readCounter = head;
+        }
+    }
+
+    public static final class Builder<K, V> {
+        private long maximumWeight = Long.MAX_VALUE;
+        private ToIntBiFunction<? super K, ? super V> weigher = (k, v) -> 1;
+        private long expireAfterWriteNanos = 0;
+        private long expectedEntries = 1024;
+
+        private Builder() {
+        }
+
+        // 不设置 weigher 时每个条目权重为 1，maximumWeight 即最大条目数
+        public Builder<K, V> maximumWeight(long maximumWeight) {
+            if (maximumWeight <= 0) {
+                throw new IllegalArgumentException("maximumWeight must be positive: " + maximumWeight);
+            }
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        public Builder<K, V> weigher(ToIntBiFunction<? super K, ? super V> weigher) {
+            this.weigher = weigher;
+            return this;
+        }
+
+        public Builder<K, V> expireAfterWrite(long duration, TimeUnit unit) {
+            this.expireAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        // 用于确定频率统计表的大小，按预计常驻的条目数设置
+        public Builder<K, V> expectedEntries(long expectedEntries) {
+            this.expectedEntries = expectedEntries;
+            return this;
+        }
+
+        public BoundedCache<K, V> build() {
+            return new BoundedCache<>(this);
+        }
+    }
+}
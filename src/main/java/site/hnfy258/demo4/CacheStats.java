@@ -0,0 +1,26 @@
+package site.hnfy258.demo4;
+
+/**
+ * BoundedCache 在某一时刻的统计快照。evictionCount 只算因容量被淘汰的条目，过期单独计入 expirationCount。
+ */
+public record CacheStats(long hitCount,
+                         long missCount,
+                         long loadCount,
+                         long evictionCount,
+                         long evictionWeight,
+                         long expirationCount,
+                         long estimatedSize,
+                         long weightedSize) {
+
+    public double hitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d hitRate=%.1f%% loads=%d evictions=%d (%d bytes) expirations=%d size=%d weight=%d",
+                hitCount, missCount, hitRate() * 100, loadCount, evictionCount, evictionWeight,
+                expirationCount, estimatedSize, weightedSize);
+    }
+}
@@ -1,21 +1,30 @@
 package site.hnfy258.demo4;
 
+import site.hnfy258.demo1.TraceId;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.List;
 import java.util.Arrays;
 
 public class ConcurrentBlocklist {
     private ConcurrentHashMap<String,Boolean> blackList = new ConcurrentHashMap<>();
+    // 黑名单项的 UTF-8 字节索引，供 CompactEvent 这类不物化 String 的调用方按字节查询；增删时整体重建
+    private volatile Utf8Index utf8Index = Utf8Index.EMPTY;
+    // 能解析为 TraceId 的黑名单项再建一份按两个 long 查询的索引，事件的 traceId 不需要渲染成文本
+    private volatile TraceIdIndex traceIdIndex = TraceIdIndex.EMPTY;
 
     // 默认构造函数
     public ConcurrentBlocklist() {
     }
 
-    // 带初始黑名单的构造函数
+    // 带初始黑名单的构造函数，全部放入后只建一次索引
     public ConcurrentBlocklist(List<String> initialItems) {
         for (String item : initialItems) {
-            add(item);
+            blackList.putIfAbsent(item, true);
         }
+        rebuildUtf8Index();
     }
 
     // 便利构造函数，支持可变参数
@@ -27,13 +36,43 @@ public class ConcurrentBlocklist {
         return blackList.containsKey(item);
     }
 
+    public boolean contains(TraceId traceId){
+        return traceId != null && traceIdIndex.contains(traceId.hi(), traceId.lo());
+    }
+
+    public boolean containsTraceId(long hi, long lo){
+        return traceIdIndex.contains(hi, lo);
+    }
+
+    // 按 UTF-8 字节查询，等价于 contains(new String(bytes, offset, length, UTF_8))，但不产生分配
+    public boolean containsUtf8(ByteBuffer bytes, int offset, int length){
+        return utf8Index.contains(bytes, offset, length);
+    }
+
+    public boolean containsUtf8(byte[] bytes, int offset, int length){
+        return utf8Index.contains(bytes, offset, length);
+    }
+
     public void add(String item){
-        blackList.putIfAbsent(item,true);
+        if (blackList.putIfAbsent(item,true) == null) {
+            rebuildUtf8Index();
+        }
     }
 
     // 添加移除方法
     public boolean remove(String item) {
-        return blackList.remove(item) != null;
+        boolean removed = blackList.remove(item) != null;
+        if (removed) {
+            rebuildUtf8Index();
+        }
+        return removed;
+    }
+
+    // 黑名单通常很小且很少变更，增删时整体重建索引，查询端只读一个 volatile 引用
+    private synchronized void rebuildUtf8Index() {
+        String[] items = blackList.keySet().toArray(new String[0]);
+        utf8Index = Utf8Index.of(items);
+        traceIdIndex = TraceIdIndex.of(items);
     }
 
     // 获取黑名单大小
@@ -41,7 +80,138 @@ public class ConcurrentBlocklist {
         return blackList.size();
     }
 
+    // 注意：直接修改返回的 map 不会同步到 containsUtf8 使用的字节索引
     public ConcurrentHashMap<String,Boolean> getBlackList(){
         return blackList;
     }
+
+    /**
+     * 不可变的开放寻址哈希集合，键是 UTF-8 字节数组。
+     */
+    private static final class Utf8Index {
+        static final Utf8Index EMPTY = new Utf8Index(new byte[1][]);
+
+        private final byte[][] slots;
+        private final int mask;
+
+        private Utf8Index(byte[][] slots) {
+            this.slots = slots;
+            this.mask = slots.length - 1;
+        }
+
+        static Utf8Index of(String[] items) {
+            // 负载因子不超过 0.5，容量取 2 的幂
+            int capacity = Integer.highestOneBit(Math.max(2, items.length * 2 - 1)) << 1;
+            byte[][] slots = new byte[capacity][];
+            for (String item : items) {
+                byte[] key = item.getBytes(StandardCharsets.UTF_8);
+                int index = hash(key, 0, key.length) & (capacity - 1);
+                while (slots[index] != null) {
+                    index = (index + 1) & (capacity - 1);
+                }
+                slots[index] = key;
+            }
+            return new Utf8Index(slots);
+        }
+
+        boolean contains(ByteBuffer bytes, int offset, int length) {
+            int h = 0x811C9DC5;
+            for (int i = 0; i < length; i++) {
+                h = (h ^ (bytes.get(offset + i) & 0xFF)) * 0x01000193;
+            }
+            int index = h & mask;
+            byte[] key;
+            while ((key = slots[index]) != null) {
+                if (key.length == length && equalsAt(bytes, offset, key)) {
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+
+        boolean contains(byte[] bytes, int offset, int length) {
+            int index = hash(bytes, offset, length) & mask;
+            byte[] key;
+            while ((key = slots[index]) != null) {
+                if (Arrays.equals(key, 0, key.length, bytes, offset, offset + length)) {
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+
+        private static boolean equalsAt(ByteBuffer bytes, int offset, byte[] key) {
+            for (int i = 0; i < key.length; i++) {
+                if (bytes.get(offset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a，与 contains(ByteBuffer, ...) 中的内联计算一致
+        private static int hash(byte[] bytes, int offset, int length) {
+            int h = 0x811C9DC5;
+            for (int i = 0; i < length; i++) {
+                h = (h ^ (bytes[offset + i] & 0xFF)) * 0x01000193;
+            }
+            return h;
+        }
+    }
+
+    /**
+     * 不可变的开放寻址集合，键是 TraceId 的 (hi, lo)，查询时不分配对象。
+     */
+    private static final class TraceIdIndex {
+        static final TraceIdIndex EMPTY = new TraceIdIndex(new long[2], new boolean[1]);
+
+        private final long[] keys;
+        private final boolean[] used;
+        private final int mask;
+
+        private TraceIdIndex(long[] keys, boolean[] used) {
+            this.keys = keys;
+            this.used = used;
+            this.mask = used.length - 1;
+        }
+
+        static TraceIdIndex of(String[] items) {
+            int count = 0;
+            for (String item : items) {
+                if (TraceId.isTraceId(item)) {
+                    count++;
+                }
+            }
+            int capacity = Integer.highestOneBit(Math.max(2, count * 2 - 1)) << 1;
+            long[] keys = new long[capacity * 2];
+            boolean[] used = new boolean[capacity];
+            for (String item : items) {
+                if (!TraceId.isTraceId(item)) {
+                    continue;
+                }
+                TraceId traceId = TraceId.parse(item);
+                int index = traceId.hashCode() & (capacity - 1);
+                while (used[index]) {
+                    index = (index + 1) & (capacity - 1);
+                }
+                used[index] = true;
+                keys[index * 2] = traceId.hi();
+                keys[index * 2 + 1] = traceId.lo();
+            }
+            return new TraceIdIndex(keys, used);
+        }
+
+        boolean contains(long hi, long lo) {
+            int index = TraceId.hash(hi, lo) & mask;
+            while (used[index]) {
+                if (keys[index * 2] == hi && keys[index * 2 + 1] == lo) {
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package site.hnfy258.demo4;
+
+/**
+ * 4 位计数器的 Count-Min Sketch，估计一个键最近被访问的频率，供 BoundedCache 做准入判断。
+ * 每个 long 放 16 个计数器，每个键在 4 个不同的 long 中各占一个计数器，估计值取 4 个中的最小值。
+ * 累计增加次数达到 sampleSize 后所有计数器减半（老化），让频率反映的是近期热度。
+ * 非线程安全，只在 BoundedCache 的策略锁内使用。
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0x97cb3127L, 0xd38ea9f5L, 0x2b38d1f3L, 0x5d6a72ebL
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    FrequencySketch(long expectedEntries) {
+        int length = (int) Math.min(1 << 24, Math.max(16, Long.highestOneBit(Math.max(1, expectedEntries) - 1) << 1));
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * length;
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int h = indexHash(hash, i);
+            int offset = (h >>> 28) << 2;
+            int count = (int) ((table[h & tableMask] >>> offset) & 0xF);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int h = indexHash(hash, i);
+            int index = h & tableMask;
+            int offset = (h >>> 28) << 2;
+            long mask = 0xFL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private static int indexHash(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
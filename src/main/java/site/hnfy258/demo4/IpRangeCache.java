@@ -0,0 +1,387 @@
+package site.hnfy258.demo4;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * 按 IPv4 地址段缓存查询结果的只读优化缓存，适合地理位置这类"一个网段内答案相同"的数据。
+ * <p>
+ * 数据是一张按起始地址排序的区间表，起止地址、加载时间、值分别放在并行的基本类型数组里，
+ * 整张表不可变、通过 volatile 发布：命中路径只有一次数组上的二分查找，不加锁、不分配对象
+ * （除了包装结果的 CompletableFuture），同一网段内的其它地址也直接命中。
+ * 写入（加载完成）时在锁内复制出一张新表，顺便丢掉过期的区间，代价是 O(n)，所以只适合读远多于写的场景。
+ * <ul>
+ *     <li>loader 返回 value 为 null 的区间表示"这个网段没有数据"，按 negativeTtl 做负缓存；</li>
+ *     <li>条目超过 refreshAfterWrite 后，命中仍然返回旧值，同时在后台异步刷新一次；
+ *     超过 expireAfterWrite 的条目视为未命中；</li>
+ *     <li>同一个 /loadPrefixLength 块内并发的未命中和刷新共用一次加载；</li>
+ *     <li>loader 异常完成时不缓存，异常原样传给调用方。</li>
+ * </ul>
+ */
+public class IpRangeCache<V> {
+    // 起止地址异或符号位后存放，无符号的地址比较就变成了普通的有符号比较
+    private static final int SIGN_FLIP = 0x8000_0000;
+
+    private final RangeLoader<V> loader;
+    private final int maximumRanges;
+    private final int loadPrefixLength;
+    private final long expireAfterWriteNanos;
+    private final long refreshAfterWriteNanos;
+    private final long negativeTtlNanos;
+
+    private volatile Table table = Table.EMPTY;
+    private final Object writeLock = new Object();
+    // 按块（地址右移后的高位）登记正在进行的加载
+    private final ConcurrentHashMap<Integer, CompletableFuture<Range<V>>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder negativeHitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * 一次加载的结果：[start, end] 闭区间内的地址共用 value，value 为 null 表示该网段没有数据。
+     */
+    public record Range<V>(int start, int end, V value) {
+        public Range {
+            if (Integer.compareUnsigned(start, end) > 0) {
+                throw new IllegalArgumentException("Range start " + formatIpv4(start) + " is after end " + formatIpv4(end));
+            }
+        }
+
+        // 包含 address 的 /prefixLength 网段
+        public static <V> Range<V> ofPrefix(int address, int prefixLength, V value) {
+            int mask = prefixMask(prefixLength);
+            return new Range<>(address & mask, (address & mask) | ~mask, value);
+        }
+    }
+
+    @FunctionalInterface
+    public interface RangeLoader<V> {
+        // 返回的区间必须包含 address
+        CompletableFuture<Range<V>> load(int address);
+    }
+
+    private IpRangeCache(Builder<V> builder) {
+        this.loader = builder.loader;
+        this.maximumRanges = builder.maximumRanges;
+        this.loadPrefixLength = builder.loadPrefixLength;
+        this.expireAfterWriteNanos = builder.expireAfterWriteNanos;
+        this.refreshAfterWriteNanos = builder.refreshAfterWriteNanos;
+        this.negativeTtlNanos = builder.negativeTtlNanos;
+    }
+
+    public static <V> Builder<V> builder(RangeLoader<V> loader) {
+        return new Builder<>(loader);
+    }
+
+    /**
+     * 查询 address 所在网段的值；命中负缓存时以 null 完成。未命中时返回的 future 在加载完成后完成，
+     * 调用方取消它不会影响共用同一次加载的其它调用方。
+     */
+    public CompletableFuture<V> get(int address) {
+        Table current = table;
+        int index = current.indexOf(address);
+        if (index >= 0) {
+            long now = System.nanoTime();
+            long age = now - current.loadedAt[index];
+            @SuppressWarnings("unchecked")
+            V value = (V) current.values[index];
+            if (value == null) {
+                if (age < negativeTtlNanos) {
+                    negativeHitCount.increment();
+                    return CompletableFuture.completedFuture(null);
+                }
+            } else if (age < expireAfterWriteNanos) {
+                hitCount.increment();
+                if (age >= refreshAfterWriteNanos) {
+                    refresh(address);
+                }
+                return CompletableFuture.completedFuture(value);
+            }
+        }
+        missCount.increment();
+        return load(address).thenApply(Range::value);
+    }
+
+    // 只查表、不触发加载；没有缓存或命中负缓存都返回 null
+    public V getIfPresent(int address) {
+        Table current = table;
+        int index = current.indexOf(address);
+        if (index < 0) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        V value = (V) current.values[index];
+        return value != null && System.nanoTime() - current.loadedAt[index] < expireAfterWriteNanos ? value : null;
+    }
+
+    private void refresh(int address) {
+        int block = blockOf(address);
+        if (loading.containsKey(block)) {
+            return;
+        }
+        refreshCount.increment();
+        load(address);
+    }
+
+    private CompletableFuture<Range<V>> load(int address) {
+        int block = blockOf(address);
+        CompletableFuture<Range<V>> pending = new CompletableFuture<>();
+        CompletableFuture<Range<V>> existing = loading.putIfAbsent(block, pending);
+        if (existing != null) {
+            return existing.copy();
+        }
+        loadCount.increment();
+        CompletableFuture<Range<V>> call;
+        try {
+            call = loader.load(address);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((range, ex) -> {
+            if (ex == null && range != null && contains(range, address)) {
+                insert(range);
+            } else {
+                loadFailureCount.increment();
+            }
+            // 先写表再移出登记，中间到达的未命中总能看到其中之一
+            loading.remove(block, pending);
+            if (ex != null) {
+                pending.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            } else if (range == null || !contains(range, address)) {
+                pending.completeExceptionally(new IllegalStateException(
+                        "Loader returned " + range + " which does not contain " + formatIpv4(address)));
+            } else {
+                pending.complete(range);
+            }
+        });
+        return pending.copy();
+    }
+
+    // 复制出新表：去掉与新区间重叠的和已过期的区间，超出容量时淘汰最早加载的区间
+    private void insert(Range<V> range) {
+        int start = range.start() ^ SIGN_FLIP;
+        int end = range.end() ^ SIGN_FLIP;
+        synchronized (writeLock) {
+            Table current = table;
+            long now = System.nanoTime();
+            int size = current.size();
+            boolean[] keep = new boolean[size];
+            int kept = 0;
+            int oldest = -1;
+            for (int i = 0; i < size; i++) {
+                boolean overlaps = current.starts[i] <= end && current.ends[i] >= start;
+                long ttl = current.values[i] == null ? negativeTtlNanos : expireAfterWriteNanos;
+                if (!overlaps && now - current.loadedAt[i] < ttl) {
+                    keep[i] = true;
+                    kept++;
+                    if (oldest < 0 || current.loadedAt[i] < current.loadedAt[oldest]) {
+                        oldest = i;
+                    }
+                }
+            }
+            if (kept >= maximumRanges && oldest >= 0) {
+                keep[oldest] = false;
+                kept--;
+                evictionCount.increment();
+            }
+
+            Table next = new Table(kept + 1);
+            int j = 0;
+            boolean placed = false;
+            for (int i = 0; i < size; i++) {
+                if (!keep[i]) {
+                    continue;
+                }
+                if (!placed && current.starts[i] > start) {
+                    next.set(j++, start, end, now, range.value());
+                    placed = true;
+                }
+                next.set(j++, current.starts[i], current.ends[i], current.loadedAt[i], current.values[i]);
+            }
+            if (!placed) {
+                next.set(j, start, end, now, range.value());
+            }
+            table = next;
+        }
+    }
+
+    private int blockOf(int address) {
+        return address & prefixMask(loadPrefixLength);
+    }
+
+    private static boolean contains(Range<?> range, int address) {
+        return Integer.compareUnsigned(range.start(), address) <= 0 && Integer.compareUnsigned(address, range.end()) <= 0;
+    }
+
+    private static int prefixMask(int prefixLength) {
+        return prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    public Stats stats() {
+        return new Stats(hitCount.sum(), negativeHitCount.sum(), missCount.sum(), loadCount.sum(),
+                loadFailureCount.sum(), refreshCount.sum(), evictionCount.sum(), size());
+    }
+
+    /**
+     * 解析点分十进制的 IPv4 地址，格式不对时抛出 IllegalArgumentException。
+     */
+    public static int parseIpv4(CharSequence text) {
+        int address = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    throw new IllegalArgumentException("Not an IPv4 address: " + text);
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                address = address << 8 | octet;
+                octet = -1;
+                dots++;
+            } else {
+                throw new IllegalArgumentException("Not an IPv4 address: " + text);
+            }
+        }
+        if (dots != 3 || octet < 0) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + text);
+        }
+        return address << 8 | octet;
+    }
+
+    public static String formatIpv4(int address) {
+        return (address >>> 24) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "." + (address & 0xFF);
+    }
+
+    public record Stats(long hitCount,
+                        long negativeHitCount,
+                        long missCount,
+                        long loadCount,
+                        long loadFailureCount,
+                        long refreshCount,
+                        long evictionCount,
+                        int size) {
+
+        public double hitRate() {
+            long requests = hitCount + negativeHitCount + missCount;
+            return requests == 0 ? 1.0 : (double) (hitCount + negativeHitCount) / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d negativeHits=%d misses=%d hitRate=%.1f%% loads=%d loadFailures=%d refreshes=%d evictions=%d ranges=%d",
+                    hitCount, negativeHitCount, missCount, hitRate() * 100, loadCount, loadFailureCount,
+                    refreshCount, evictionCount, size);
+        }
+    }
+
+    // 不可变的区间表，starts/ends 已异或符号位，按 starts 升序且互不重叠
+    private static final class Table {
+        static final Table EMPTY = new Table(0);
+
+        final int[] starts;
+        final int[] ends;
+        final long[] loadedAt;
+        final Object[] values;
+
+        Table(int size) {
+            this.starts = new int[size];
+            this.ends = new int[size];
+            this.loadedAt = new long[size];
+            this.values = new Object[size];
+        }
+
+        void set(int index, int start, int end, long loadedAtNanos, Object value) {
+            starts[index] = start;
+            ends[index] = end;
+            loadedAt[index] = loadedAtNanos;
+            values[index] = value;
+        }
+
+        int size() {
+            return starts.length;
+        }
+
+        // 找起始地址不大于 address 的最后一个区间，address 落在其中则返回下标，否则返回 -1
+        int indexOf(int address) {
+            int key = address ^ SIGN_FLIP;
+            int low = 0;
+            int high = starts.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts[mid] <= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high >= 0 && ends[high] >= key ? high : -1;
+        }
+    }
+
+    public static class Builder<V> {
+        private final RangeLoader<V> loader;
+        private int maximumRanges = 65_536;
+        private int loadPrefixLength = 24;
+        private long expireAfterWriteNanos = TimeUnit.MINUTES.toNanos(10);
+        private long refreshAfterWriteNanos = TimeUnit.MINUTES.toNanos(5);
+        private long negativeTtlNanos = TimeUnit.SECONDS.toNanos(30);
+
+        private Builder(RangeLoader<V> loader) {
+            this.loader = loader;
+        }
+
+        public Builder<V> maximumRanges(int maximumRanges) {
+            if (maximumRanges <= 0) {
+                throw new IllegalArgumentException("maximumRanges must be positive: " + maximumRanges);
+            }
+            this.maximumRanges = maximumRanges;
+            return this;
+        }
+
+        // 并发未命中按多大的网段合并成一次加载，一般与 loader 返回的网段大小一致
+        public Builder<V> loadPrefixLength(int prefixLength) {
+            if (prefixLength < 0 || prefixLength > 32) {
+                throw new IllegalArgumentException("prefixLength must be within [0, 32]: " + prefixLength);
+            }
+            this.loadPrefixLength = prefixLength;
+            return this;
+        }
+
+        public Builder<V> expireAfterWrite(long duration, TimeUnit unit) {
+            this.expireAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        public Builder<V> refreshAfterWrite(long duration, TimeUnit unit) {
+            this.refreshAfterWriteNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        public Builder<V> negativeTtl(long duration, TimeUnit unit) {
+            this.negativeTtlNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        public IpRangeCache<V> build() {
+            if (refreshAfterWriteNanos > expireAfterWriteNanos) {
+                throw new IllegalStateException("refreshAfterWrite must not exceed expireAfterWrite");
+            }
+            return new IpRangeCache<>(this);
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package site.hnfy258.demo4.store;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo1.TraceId;
+import site.hnfy258.demo2.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地的日志结构事件存储：
+ * <ul>
+ *     <li>写入追加到分段日志（LogSegment），所有写入由一个提交线程完成；</li>
+ *     <li>组提交：提交线程一次取走队列里所有等待的写入，全部写进映射后只刷一次盘，
+ *     并发的写入者共享这一次 fsync，返回的 future 在数据落盘、索引更新之后才完成；</li>
+ *     <li>traceId → 位置的索引是一张内存映射的哈希表（OffsetIndex），点查无锁、不走系统调用；</li>
+ *     <li>同一个 traceId 重复写入时旧记录变成垃圾，提交线程空闲时把存活率低的旧段里仍然有效的记录
+ *     搬到当前段，然后删除旧段（压缩）；写入持续不断时也会隔一段时间压缩一次，不让旧段无限堆积。</li>
+ * </ul>
+ * future 在提交线程上完成，调用方不要在回调里做耗时的事。
+ */
+public class EventLogStore implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_LIVE_RATIO = 0.5;
+    private static final String INDEX_FILE = "traceid.idx";
+    // 一次组提交最多合并的写入请求数
+    private static final int MAX_GROUP_WRITES = 1024;
+    private static final long IDLE_POLL_MILLIS = 200;
+    private static final long COMPACTION_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // 写入一直不停、等不到空闲时，最多隔这么久也要压缩一次，否则旧段只增不减
+    private static final long COMPACTION_MAX_DEFER_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // 查到的段恰好被压缩删除时，重新查索引的次数
+    private static final int LOOKUP_ATTEMPTS = 3;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final double compactionLiveRatio;
+    private final OffsetIndex index;
+    private final Map<Integer, LogSegment> segments = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>();
+    private final Thread committer;
+    private volatile boolean closed = false;
+    // 以下两个字段只由提交线程访问
+    private LogSegment active;
+    private long lastCompactionCheck = System.nanoTime();
+
+    private final AtomicLong committedRecords = new AtomicLong();
+    private final AtomicLong groupCommits = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong movedRecords = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder lookupMisses = new LongAdder();
+    // 从提交写入到落盘的延迟，微秒
+    private final LatencyHistogram commitLatency = new LatencyHistogram(TimeUnit.SECONDS.toMicros(60));
+
+    public EventLogStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_COMPACTION_LIVE_RATIO);
+    }
+
+    public EventLogStore(Path directory, int segmentBytes, double compactionLiveRatio) throws IOException {
+        if (segmentBytes <= LogSegment.RECORD_HEADER_BYTES) {
+            throw new IllegalArgumentException("segmentBytes too small: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.compactionLiveRatio = compactionLiveRatio;
+        Files.createDirectories(directory);
+
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                int id = LogSegment.idOf(file);
+                if (id > 0) {
+                    files.put(id, file);
+                }
+            }
+        }
+        OffsetIndex opened = OffsetIndex.open(directory.resolve(INDEX_FILE), 0);
+        boolean rebuild = !opened.wasRecovered();
+        for (Map.Entry<Integer, Path> file : files.entrySet()) {
+            LogSegment segment = LogSegment.open(file.getValue(), file.getKey());
+            // 索引需要重建时，按段号顺序重放全部记录，后写入的覆盖先写入的
+            segment.recover((event, offset) -> {
+                if (rebuild && event.traceId() != null) {
+                    opened.put(event.traceId().hi(), event.traceId().lo(), locationOf(segment.id, offset));
+                }
+            });
+            segments.put(segment.id, segment);
+        }
+        this.index = opened;
+        index.forEachLocation(location -> {
+            LogSegment segment = segments.get(segmentIdOf(location));
+            if (segment != null) {
+                segment.markLive(1);
+            }
+        });
+        this.active = files.isEmpty() ? newSegment(1, 0) : segments.get(files.lastKey());
+        System.out.println("EventLogStore opened at " + directory + ": " + segments.size() + " segments, "
+                + index.size() + " indexed events" + (rebuild && !files.isEmpty() ? " (index rebuilt from log)" : ""));
+
+        this.committer = new Thread(this::runCommitter, "EventLog-Committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    public CompletableFuture<Void> append(Event event) {
+        return appendAll(List.of(event));
+    }
+
+    /**
+     * 追加一批事件，整批在同一次组提交里落盘。
+     */
+    public CompletableFuture<Void> appendAll(List<Event> events) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IOException("Event log store is closed"));
+            return future;
+        }
+        TraceId[] keys = new TraceId[events.size()];
+        byte[][] records = new byte[events.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            Event event = events.get(i);
+            if (event.traceId() == null) {
+                future.completeExceptionally(new IllegalArgumentException("Stored events must have a traceId"));
+                return future;
+            }
+            keys[i] = event.traceId();
+            // 编码和校验和在调用方线程上算，提交线程只做拷贝
+            records[i] = LogSegment.encodeRecord(event);
+        }
+        PendingWrite write = new PendingWrite(keys, records, future, System.nanoTime());
+        pending.add(write);
+        // close() 已经清空过队列时，自己把这次写入撤回
+        if (closed && pending.remove(write)) {
+            future.completeExceptionally(new IOException("Event log store is closed"));
+        }
+        return future;
+    }
+
+    /**
+     * 按 traceId 点查最近一次写入的事件，不存在时返回 null。可以在任意线程并发调用。
+     */
+    public Event get(TraceId traceId) {
+        lookups.increment();
+        for (int attempt = 0; attempt < LOOKUP_ATTEMPTS; attempt++) {
+            long location = index.get(traceId.hi(), traceId.lo());
+            if (location == 0) {
+                break;
+            }
+            LogSegment segment = segments.get(segmentIdOf(location));
+            if (segment == null) {
+                // 段刚被压缩删除，索引已经指向新位置
+                continue;
+            }
+            Event event = segment.read(offsetOf(location));
+            if (event != null && traceId.equals(event.traceId())) {
+                return event;
+            }
+        }
+        lookupMisses.increment();
+        return null;
+    }
+
+    private void runCommitter() {
+        List<PendingWrite> group = new ArrayList<>();
+        while (!closed || !pending.isEmpty()) {
+            PendingWrite first;
+            try {
+                first = pending.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (first != null) {
+                group.add(first);
+                pending.drainTo(group, MAX_GROUP_WRITES - 1);
+                commit(group);
+                group.clear();
+            }
+            // 等满一个 IDLE_POLL_MILLIS 都没有新写入，并且期间也没有写入进来，才算空闲
+            maybeCompact(first == null && pending.isEmpty());
+        }
+    }
+
+    private void commit(List<PendingWrite> group) {
+        try {
+            writeAndIndex(group);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("EventLogStore: group commit of " + group.size() + " writes failed: " + e.getMessage());
+            failedWrites.addAndGet(group.size());
+            for (PendingWrite write : group) {
+                write.future.completeExceptionally(e);
+            }
+            return;
+        }
+        groupCommits.incrementAndGet();
+        long now = System.nanoTime();
+        for (PendingWrite write : group) {
+            committedRecords.addAndGet(write.records.length);
+            commitLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(now - write.enqueuedNanos));
+            write.future.complete(null);
+        }
+    }
+
+    /**
+     * 写入映射、每个涉及的段各刷一次盘，全部落盘之后才更新索引，所以读线程只会读到已经持久化的记录。
+     * 刷盘失败时回退写位置，这一组写入都不会出现在索引里。
+     */
+    private void writeAndIndex(List<PendingWrite> group) throws IOException {
+        List<Touched> touched = new ArrayList<>();
+        try {
+            for (PendingWrite write : group) {
+                for (int i = 0; i < write.records.length; i++) {
+                    byte[] record = write.records[i];
+                    LogSegment segment = segmentFor(record.length);
+                    Touched last = touched.isEmpty() ? null : touched.get(touched.size() - 1);
+                    if (last == null || last.segment != segment) {
+                        last = new Touched(segment, segment.writePosition());
+                        touched.add(last);
+                    }
+                    write.locations[i] = locationOf(segment.id, segment.append(record));
+                    last.records++;
+                }
+            }
+            for (Touched t : touched) {
+                t.segment.force(t.from);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            for (Touched t : touched) {
+                t.segment.truncate(t.from, t.records);
+            }
+            throw e;
+        }
+        for (PendingWrite write : group) {
+            for (int i = 0; i < write.keys.length; i++) {
+                long previous = index.put(write.keys[i].hi(), write.keys[i].lo(), write.locations[i]);
+                if (previous != 0) {
+                    LogSegment old = segments.get(segmentIdOf(previous));
+                    if (old != null) {
+                        old.markDead();
+                    }
+                }
+            }
+        }
+    }
+
+    private LogSegment segmentFor(int recordBytes) throws IOException {
+        if (active.hasRoomFor(recordBytes)) {
+            return active;
+        }
+        active = newSegment(active.id + 1, recordBytes);
+        return active;
+    }
+
+    private LogSegment newSegment(int id, int recordBytes) throws IOException {
+        // 超过段大小的单条记录独占一个刚好放得下的段
+        LogSegment segment = LogSegment.create(directory, id, Math.max(segmentBytes, recordBytes + Integer.BYTES));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    // 空闲时每秒最多检查一次，忙碌时每 30 秒最多一次；一次只压缩存活率最低的一个旧段，避免长时间挡住提交
+    private void maybeCompact(boolean idle) {
+        long now = System.nanoTime();
+        if (now - lastCompactionCheck < (idle ? COMPACTION_CHECK_NANOS : COMPACTION_MAX_DEFER_NANOS)) {
+            return;
+        }
+        lastCompactionCheck = now;
+        LogSegment victim = null;
+        for (LogSegment segment : segments.values()) {
+            if (segment != active && segment.liveRatio() < compactionLiveRatio
+                    && (victim == null || segment.liveRatio() < victim.liveRatio())) {
+                victim = segment;
+            }
+        }
+        if (victim == null) {
+            return;
+        }
+        try {
+            compact(victim);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("EventLogStore: compaction of " + victim.path + " failed: " + e.getMessage());
+        }
+    }
+
+    private void compact(LogSegment victim) throws IOException {
+        List<TraceId> keys = new ArrayList<>();
+        List<byte[]> records = new ArrayList<>();
+        victim.forEachRecord((event, offset) -> {
+            TraceId traceId = event.traceId();
+            // 只有索引仍然指向这里的记录才是有效的
+            if (index.get(traceId.hi(), traceId.lo()) == locationOf(victim.id, offset)) {
+                keys.add(traceId);
+                records.add(LogSegment.encodeRecord(event));
+            }
+        });
+        if (!records.isEmpty()) {
+            writeAndIndex(List.of(new PendingWrite(keys.toArray(new TraceId[0]), records.toArray(new byte[0][]),
+                    null, System.nanoTime())));
+        }
+        // 索引已经不再指向旧段；仍在读旧段的线程持有的映射在文件删除后依然可读
+        segments.remove(victim.id);
+        Files.deleteIfExists(victim.path);
+        compactions.incrementAndGet();
+        movedRecords.addAndGet(records.size());
+        reclaimedBytes.addAndGet(victim.capacity());
+    }
+
+    public long getCommittedRecords() {
+        return committedRecords.get();
+    }
+
+    public long getGroupCommits() {
+        return groupCommits.get();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites.get();
+    }
+
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    public long getIndexedEvents() {
+        return index.size();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    public void printMetrics() {
+        long commits = groupCommits.get();
+        System.out.println("\n--- Event Log Store ---");
+        System.out.println("Directory: " + directory);
+        System.out.printf("Committed Records: %d in %d group commits (avg %.1f records per fsync), failed writes: %d%n",
+                committedRecords.get(), commits, commits == 0 ? 0.0 : (double) committedRecords.get() / commits,
+                failedWrites.get());
+        System.out.printf("Commit Latency: p50=%.2fms p99=%.2fms max=%.2fms%n",
+                commitLatency.getValueAtPercentile(50) / 1000.0,
+                commitLatency.getValueAtPercentile(99) / 1000.0,
+                commitLatency.getMaxValue() / 1000.0);
+        System.out.println("Index: " + index.size() + " events / " + index.capacity() + " slots");
+        System.out.println("Segments: " + segments.size() + ", compactions: " + compactions.get()
+                + " (moved " + movedRecords.get() + " records, reclaimed " + reclaimedBytes.get() / 1024 + " KB)");
+        System.out.println("Lookups: " + lookups.sum() + " (misses " + lookupMisses.sum() + ")");
+        System.out.println("-----------------------");
+    }
+
+    /**
+     * 等已经提交的写入全部落盘后停止提交线程，并把索引标记为正常关闭。
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingWrite left;
+        while ((left = pending.poll()) != null) {
+            left.future.completeExceptionally(new IOException("Event log store is closed"));
+        }
+        if (!committer.isAlive()) {
+            index.close();
+        }
+    }
+
+    // 段号从 1 开始，所以位置永远不会是 0（索引用 0 表示空槽）
+    private static long locationOf(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentIdOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private static final class PendingWrite {
+        final TraceId[] keys;
+        final byte[][] records;
+        final long[] locations;
+        final CompletableFuture<Void> future;
+        final long enqueuedNanos;
+
+        PendingWrite(TraceId[] keys, byte[][] records, CompletableFuture<Void> future, long enqueuedNanos) {
+            this.keys = keys;
+            this.records = records;
+            this.locations = new long[records.length];
+            this.future = future;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    // 一次组提交里写到某个段的范围，用于按段刷盘和失败回退
+    private static final class Touched {
+        final LogSegment segment;
+        final int from;
+        int records;
+
+        Touched(LogSegment segment, int from) {
+            this.segment = segment;
+            this.from = from;
+        }
+    }
+}
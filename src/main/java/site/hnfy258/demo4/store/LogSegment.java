@@ -0,0 +1,218 @@
+package site.hnfy258.demo4.store;
+
+import site.hnfy258.demo1.Event;
+import site.hnfy258.demo1.EventCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * 日志段：一个预分配、整体内存映射的文件，记录只追加。
+ * 每条记录是 int 长度 + int CRC32C + EventCodec 编码，长度 0 表示本段后面没有记录了（预分配的部分全是 0）。
+ * 只有提交线程写入和修改计数；读线程通过映射按绝对位置读，不移动任何 position，也不会被线程中断影响。
+ */
+final class LogSegment {
+    static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    final int id;
+    final Path path;
+    private final MappedByteBuffer mapped;
+    private final int capacity;
+    // 以下字段只由提交线程访问
+    private int writePosition;
+    private int totalRecords;
+    private int liveRecords;
+
+    private LogSegment(int id, Path path, MappedByteBuffer mapped) {
+        this.id = id;
+        this.path = path;
+        this.mapped = mapped;
+        this.capacity = mapped.capacity();
+    }
+
+    static Path pathOf(Path directory, int id) {
+        return directory.resolve(String.format("%s%08d%s", PREFIX, id, SUFFIX));
+    }
+
+    // 从文件名解析段号，不是段文件时返回 -1
+    static int idOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static LogSegment create(Path directory, int id, int capacity) throws IOException {
+        return map(id, pathOf(directory, id), capacity, StandardOpenOption.CREATE_NEW);
+    }
+
+    static LogSegment open(Path path, int id) throws IOException {
+        return map(id, path, -1, StandardOpenOption.READ);
+    }
+
+    private static LogSegment map(int id, Path path, int capacity, StandardOpenOption mode) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, mode, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = capacity >= 0 ? capacity : channel.size();
+            // 映射在 channel 关闭后依然有效，文件被删除后已有的映射也仍然可读
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        return new LogSegment(id, path, mapped);
+    }
+
+    static byte[] encodeRecord(Event event) {
+        byte[] body = EventCodec.encode(event);
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        return ByteBuffer.allocate(RECORD_HEADER_BYTES + body.length)
+                .putInt(body.length)
+                .putInt((int) crc.getValue())
+                .put(body)
+                .array();
+    }
+
+    // 记录之后至少要留出 4 字节给结束标记
+    boolean hasRoomFor(int recordBytes) {
+        return writePosition + recordBytes + Integer.BYTES <= capacity;
+    }
+
+    int append(byte[] record) {
+        int offset = writePosition;
+        mapped.put(offset, record);
+        writePosition += record.length;
+        totalRecords++;
+        liveRecords++;
+        return offset;
+    }
+
+    // 把 [from, writePosition) 这段刚写入的数据刷到磁盘
+    void force(int from) {
+        if (writePosition > from) {
+            mapped.force(from, writePosition - from);
+        }
+    }
+
+    // 写入失败时回退到 from，并清掉已经写进映射的字节，保证后面仍以长度 0 结尾
+    void truncate(int from, int records) {
+        mapped.put(from, new byte[writePosition - from]);
+        writePosition = from;
+        totalRecords -= records;
+        liveRecords -= records;
+    }
+
+    /**
+     * 读取 offset 处的记录，长度或校验和不对时返回 null。可以在任意线程调用。
+     */
+    Event read(int offset) {
+        int length = lengthAt(offset);
+        if (length <= 0) {
+            return null;
+        }
+        ByteBuffer body = mapped.slice(offset + RECORD_HEADER_BYTES, length);
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != mapped.getInt(offset + Integer.BYTES)) {
+            return null;
+        }
+        return EventCodec.decode(body);
+    }
+
+    // 记录总长度（含头部），offset 处没有完整记录时返回 0
+    int recordBytesAt(int offset) {
+        int length = lengthAt(offset);
+        return length <= 0 ? 0 : RECORD_HEADER_BYTES + length;
+    }
+
+    private int lengthAt(int offset) {
+        if (offset < 0 || offset + RECORD_HEADER_BYTES > capacity) {
+            return 0;
+        }
+        int length = mapped.getInt(offset);
+        if (length <= 0 || offset + RECORD_HEADER_BYTES + length > capacity) {
+            return 0;
+        }
+        return length;
+    }
+
+    /**
+     * 启动时从头扫描：遇到结束标记或校验失败（上次崩溃时写了一半的记录）就停下，
+     * 把写位置放在那里，并清掉后面残留的字节。返回扫描到的完整记录，供重建索引使用。
+     */
+    void recover(RecordVisitor visitor) throws IOException {
+        int offset = 0;
+        while (true) {
+            Event event = read(offset);
+            if (event == null) {
+                break;
+            }
+            visitor.visit(event, offset);
+            offset += recordBytesAt(offset);
+            totalRecords++;
+        }
+        writePosition = offset;
+        if (offset + Integer.BYTES <= capacity && mapped.getInt(offset) != 0) {
+            mapped.put(offset, new byte[capacity - offset]);
+            mapped.force(offset, capacity - offset);
+        }
+    }
+
+    /**
+     * 按写入顺序遍历 [0, writePosition) 里的记录，只在提交线程上调用。
+     */
+    void forEachRecord(RecordVisitor visitor) throws IOException {
+        int offset = 0;
+        while (offset < writePosition) {
+            Event event = read(offset);
+            if (event == null) {
+                throw new IOException("Corrupted record in " + path + " at offset " + offset);
+            }
+            visitor.visit(event, offset);
+            offset += recordBytesAt(offset);
+        }
+    }
+
+    void markLive(int records) {
+        liveRecords += records;
+    }
+
+    void markDead() {
+        liveRecords--;
+    }
+
+    int writePosition() {
+        return writePosition;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int totalRecords() {
+        return totalRecords;
+    }
+
+    int liveRecords() {
+        return liveRecords;
+    }
+
+    double liveRatio() {
+        return totalRecords == 0 ? 1.0 : (double) liveRecords / totalRecords;
+    }
+
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(Event event, int offset) throws IOException;
+    }
+}
@@ -0,0 +1,238 @@
+package site.hnfy258.demo4.store;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 内存映射的 traceId → 日志位置索引：开放寻址（线性探测）哈希表，整张表就是一个映射文件。
+ * 每个槽 24 字节：hi、lo、location，location 为 0 表示空槽。
+ * 只有一个写线程（EventLogStore 的提交线程）调用 put；读线程无锁调用 get。
+ * 写入时先写 hi/lo，再用 release 语义写 location，读线程用 acquire 读 location，看到非 0 就一定能看到完整的键。
+ * 文件头里有一个“正常关闭”标记，打开时如果标记不在，说明上次没有正常关闭，索引需要从日志重建。
+ */
+final class OffsetIndex implements AutoCloseable {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long MAGIC = 0x4556_4944_5831_0001L;
+    private static final int HEADER_BYTES = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+    private static final int CLEAN_OFFSET = 24;
+    private static final int SLOT_BYTES = 24;
+    private static final int MIN_CAPACITY = 1 << 12;
+    // 单个映射最大 2GB
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+
+    private final Path path;
+    // 扩容时整体替换，读线程拿到哪张表就在哪张表里查，旧表的映射在没有引用后才会被回收
+    private volatile Table table;
+    private final boolean recovered;
+    // 只由写线程修改
+    private int size;
+
+    private OffsetIndex(Path path, Table table, int size, boolean recovered) {
+        this.path = path;
+        this.table = table;
+        this.size = size;
+        this.recovered = recovered;
+    }
+
+    /**
+     * 打开已有索引；文件不存在、格式不对或上次没有正常关闭时新建一张空表，由调用方从日志重建。
+     */
+    static OffsetIndex open(Path path, int expectedEntries) throws IOException {
+        if (Files.exists(path) && Files.size(path) >= HEADER_BYTES) {
+            Table existing = Table.map(path);
+            if (existing != null && (long) LONGS.get(existing.buffer, CLEAN_OFFSET) == 1) {
+                int size = (int) (long) LONGS.get(existing.buffer, SIZE_OFFSET);
+                // 运行期间标记为未正常关闭，崩溃后下次打开会重建
+                LONGS.set(existing.buffer, CLEAN_OFFSET, 0L);
+                existing.buffer.force();
+                return new OffsetIndex(path, existing, size, true);
+            }
+        }
+        Files.deleteIfExists(path);
+        Table fresh = Table.create(path, capacityFor(expectedEntries));
+        return new OffsetIndex(path, fresh, 0, false);
+    }
+
+    // 是否直接沿用了上次正常关闭时的索引；false 表示是一张空表
+    boolean wasRecovered() {
+        return recovered;
+    }
+
+    long get(long hi, long lo) {
+        Table t = table;
+        int index = slotOf(hi, lo, t.mask);
+        while (true) {
+            int offset = HEADER_BYTES + index * SLOT_BYTES;
+            long location = (long) LONGS.getAcquire(t.buffer, offset + 16);
+            if (location == 0) {
+                return 0;
+            }
+            if ((long) LONGS.get(t.buffer, offset) == hi && (long) LONGS.get(t.buffer, offset + 8) == lo) {
+                return location;
+            }
+            index = (index + 1) & t.mask;
+        }
+    }
+
+    /**
+     * 写入或覆盖一个键的位置，返回旧位置（没有时返回 0）。只能由写线程调用。
+     */
+    long put(long hi, long lo, long location) throws IOException {
+        if (location == 0) {
+            throw new IllegalArgumentException("location 0 is reserved for empty slots");
+        }
+        if (size + 1 > table.capacity * MAX_LOAD_FACTOR) {
+            resize();
+        }
+        Table t = table;
+        int index = slotOf(hi, lo, t.mask);
+        while (true) {
+            int offset = HEADER_BYTES + index * SLOT_BYTES;
+            long existing = (long) LONGS.get(t.buffer, offset + 16);
+            if (existing == 0) {
+                LONGS.set(t.buffer, offset, hi);
+                LONGS.set(t.buffer, offset + 8, lo);
+                LONGS.setRelease(t.buffer, offset + 16, location);
+                size++;
+                return 0;
+            }
+            if ((long) LONGS.get(t.buffer, offset) == hi && (long) LONGS.get(t.buffer, offset + 8) == lo) {
+                LONGS.setRelease(t.buffer, offset + 16, location);
+                return existing;
+            }
+            index = (index + 1) & t.mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return table.capacity;
+    }
+
+    void forEachLocation(LocationVisitor visitor) {
+        Table t = table;
+        for (int i = 0; i < t.capacity; i++) {
+            long location = (long) LONGS.getAcquire(t.buffer, HEADER_BYTES + i * SLOT_BYTES + 16);
+            if (location != 0) {
+                visitor.visit(location);
+            }
+        }
+    }
+
+    // 先在临时文件里建好两倍大小的新表，再原子替换文件并发布新表
+    private void resize() throws IOException {
+        Table old = table;
+        if (old.capacity >= MAX_CAPACITY) {
+            throw new IOException("Offset index is full: " + size + " entries");
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        Table grown = Table.create(tmp, old.capacity * 2);
+        for (int i = 0; i < old.capacity; i++) {
+            int from = HEADER_BYTES + i * SLOT_BYTES;
+            long location = (long) LONGS.get(old.buffer, from + 16);
+            if (location == 0) {
+                continue;
+            }
+            long hi = (long) LONGS.get(old.buffer, from);
+            long lo = (long) LONGS.get(old.buffer, from + 8);
+            int index = slotOf(hi, lo, grown.mask);
+            while ((long) LONGS.get(grown.buffer, HEADER_BYTES + index * SLOT_BYTES + 16) != 0) {
+                index = (index + 1) & grown.mask;
+            }
+            int to = HEADER_BYTES + index * SLOT_BYTES;
+            LONGS.set(grown.buffer, to, hi);
+            LONGS.set(grown.buffer, to + 8, lo);
+            LONGS.set(grown.buffer, to + 16, location);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        table = grown;
+    }
+
+    @Override
+    public void close() {
+        Table t = table;
+        LONGS.set(t.buffer, SIZE_OFFSET, (long) size);
+        t.buffer.force();
+        // 数据落盘之后再写正常关闭标记
+        LONGS.set(t.buffer, CLEAN_OFFSET, 1L);
+        t.buffer.force();
+    }
+
+    private static int capacityFor(int expectedEntries) {
+        long wanted = (long) Math.ceil(Math.max(expectedEntries, 1) / MAX_LOAD_FACTOR);
+        int capacity = MIN_CAPACITY;
+        while (capacity < wanted && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int slotOf(long hi, long lo, int mask) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    @FunctionalInterface
+    interface LocationVisitor {
+        void visit(long location);
+    }
+
+    private static final class Table {
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final int mask;
+
+        private Table(MappedByteBuffer buffer, int capacity) {
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+        }
+
+        static Table create(Path path, int capacity) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * SLOT_BYTES);
+            }
+            LONGS.set(buffer, MAGIC_OFFSET, MAGIC);
+            LONGS.set(buffer, CAPACITY_OFFSET, (long) capacity);
+            return new Table(buffer, capacity);
+        }
+
+        // 映射已有文件，头部校验不通过时返回 null
+        static Table map(Path path) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            }
+            if ((long) LONGS.get(buffer, MAGIC_OFFSET) != MAGIC) {
+                return null;
+            }
+            long capacity = (long) LONGS.get(buffer, CAPACITY_OFFSET);
+            if (Long.bitCount(capacity) != 1 || capacity > MAX_CAPACITY
+                    || buffer.capacity() < HEADER_BYTES + capacity * SLOT_BYTES) {
+                return null;
+            }
+            return new Table(buffer, (int) capacity);
+        }
+    }
+}